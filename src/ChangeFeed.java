@@ -0,0 +1,326 @@
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Pushes package changes from DHLServer to subscribers, following the
+// java.util.concurrent.Flow protocol.
+//
+// Publishing never blocks. Each subscriber has its own bounded buffer, and a full
+// buffer is handled by the policy chosen on subscribing: drop the oldest or the
+// newest change, or coalesce, which keeps only the latest change per package. A
+// slow subscriber therefore only ever loses changes; it can never hold up
+// updatePackageStatus. Changes are handed out on the feed's own daemon threads,
+// at most one per subscriber at a time, as the subscriber requests them.
+//
+// DHLServer publishes while it still holds the package's lock, so each package's
+// changes arrive in the order they were made. The buffers are lock-free queues, so
+// writers of different packages never wait on each other here. With no subscribers
+// publishing costs one volatile read.
+public class ChangeFeed implements Flow.Publisher<PackageChange> {
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        COALESCE
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    // Changes handed over per turn before a drain task yields its thread
+    private static final int DRAIN_BATCH = 256;
+
+    private final ExecutorService executor;
+    // Guards changes to the subscriber list only; publishing reads the array
+    private final Object subscriptionLock = new Object();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile FeedSubscription[] subscriptions = new FeedSubscription[0];
+
+    public ChangeFeed() {
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ehc-change-feed-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Buffers DEFAULT_CAPACITY changes and drops the oldest when full
+    @Override
+    public void subscribe(Flow.Subscriber<? super PackageChange> subscriber) {
+        subscribe(subscriber, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    public void subscribe(Flow.Subscriber<? super PackageChange> subscriber, int capacity, OverflowPolicy policy) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be positive: " + capacity);
+        }
+        FeedSubscription subscription = new FeedSubscription(subscriber, capacity, policy);
+        subscriber.onSubscribe(subscription);
+        synchronized (subscriptionLock) {
+            if (!subscription.cancelled) {
+                FeedSubscription[] current = subscriptions;
+                FeedSubscription[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = subscription;
+                subscriptions = grown;
+            }
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return subscriptions.length > 0;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+    void publishCreated(long trackingId, Package pkg) {
+        if (subscriptions.length > 0) {
+            publish(PackageChange.Type.CREATED, trackingId, null, pkg);
+        }
+    }
+
+    void publishStatusChanged(long trackingId, PackageStatus previousStatus, Package pkg) {
+        if (subscriptions.length > 0) {
+            publish(PackageChange.Type.STATUS_CHANGED, trackingId, previousStatus, pkg);
+        }
+    }
+
+    private void publish(PackageChange.Type type, long trackingId, PackageStatus previousStatus, Package pkg) {
+        PackageChange change = new PackageChange(sequence.incrementAndGet(), type, trackingId, previousStatus, pkg);
+        for (FeedSubscription subscription : subscriptions) {
+            subscription.offer(change);
+        }
+    }
+
+    private void remove(FeedSubscription subscription) {
+        synchronized (subscriptionLock) {
+            FeedSubscription[] current = subscriptions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    FeedSubscription[] shrunk = new FeedSubscription[current.length - 1];
+                    System.arraycopy(current, 0, shrunk, 0, i);
+                    System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                    subscriptions = shrunk;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Completes every current subscriber once it has received what is buffered for it.
+    // The feed stays usable; later subscribers start afresh.
+    public void close() {
+        FeedSubscription[] current;
+        synchronized (subscriptionLock) {
+            current = subscriptions;
+            subscriptions = new FeedSubscription[0];
+        }
+        for (FeedSubscription subscription : current) {
+            subscription.complete();
+        }
+    }
+
+    // The buffer is a lock-free queue with a separate size count, so it can briefly run
+    // a few changes over capacity while offers race; COALESCE queues tracking ids and
+    // keeps each package's latest change in a map, so a package keeps its place in line
+    // when a newer change replaces its buffered one. A work counter makes sure one drain
+    // task at a time runs per subscription without a lock: whoever raises it from zero
+    // starts the task, and the task only stops once it has seen every raise.
+    public final class FeedSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super PackageChange> subscriber;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final Queue<PackageChange> queue;
+        private final Queue<Long> order;
+        private final ConcurrentHashMap<Long, PackageChange> latest;
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private final LongAdder dropped = new LongAdder();
+        private volatile boolean completed;
+        private volatile boolean cancelled;
+        // Only touched by the drain task
+        private boolean completionSent;
+
+        private FeedSubscription(Flow.Subscriber<? super PackageChange> subscriber, int capacity,
+                                 OverflowPolicy policy) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.policy = policy;
+            boolean coalesce = policy == OverflowPolicy.COALESCE;
+            this.queue = coalesce ? null : new ConcurrentLinkedQueue<>();
+            this.order = coalesce ? new ConcurrentLinkedQueue<>() : null;
+            this.latest = coalesce ? new ConcurrentHashMap<>() : null;
+        }
+
+        private void offer(PackageChange change) {
+            if (cancelled || completed) {
+                return;
+            }
+            if (queue != null) {
+                if (size.incrementAndGet() > capacity) {
+                    if (policy == OverflowPolicy.DROP_NEWEST) {
+                        size.decrementAndGet();
+                        dropped.increment();
+                        return;
+                    }
+                    if (queue.poll() != null) {
+                        size.decrementAndGet();
+                        dropped.increment();
+                    }
+                }
+                queue.add(change);
+            } else if (coalesce(change)) {
+                if (size.incrementAndGet() > capacity) {
+                    Long oldest = order.poll();
+                    if (oldest != null) {
+                        size.decrementAndGet();
+                        latest.remove(oldest);
+                        dropped.increment();
+                    }
+                }
+                order.add(change.getTrackingId());
+            }
+            schedule();
+        }
+
+        // Returns true if the package had no buffered change yet, so its id must be queued
+        private boolean coalesce(PackageChange change) {
+            Long trackingId = change.getTrackingId();
+            while (true) {
+                PackageChange buffered = latest.putIfAbsent(trackingId, change);
+                if (buffered == null) {
+                    return true;
+                }
+                // Either change is lost; an older one arriving late loses to the buffered one
+                if (buffered.getPackage().getVersion() > change.getPackage().getVersion()
+                        || latest.replace(trackingId, buffered, change)) {
+                    dropped.increment();
+                    return false;
+                }
+                // The buffered change was drained or replaced meanwhile, so look again
+            }
+        }
+
+        private PackageChange poll() {
+            if (queue != null) {
+                PackageChange next = queue.poll();
+                if (next != null) {
+                    size.decrementAndGet();
+                }
+                return next;
+            }
+            while (true) {
+                Long trackingId = order.poll();
+                if (trackingId == null) {
+                    return null;
+                }
+                size.decrementAndGet();
+                PackageChange next = latest.remove(trackingId);
+                if (next != null) {
+                    return next;
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            return queue != null ? queue.isEmpty() : order.isEmpty();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " changes; must be positive"));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (queue != null) {
+                queue.clear();
+            } else {
+                order.clear();
+                latest.clear();
+            }
+            remove(this);
+        }
+
+        private void complete() {
+            completed = true;
+            schedule();
+        }
+
+        // Changes lost to the overflow policy, including coalesced ones
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        public int getBuffered() {
+            return Math.max(size.get(), 0);
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int seen = work.get();
+            while (true) {
+                int sent = 0;
+                while (sent < DRAIN_BATCH && !cancelled && demand.get() > 0) {
+                    PackageChange next = poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    sent++;
+                    if (!deliver(next)) {
+                        break;
+                    }
+                }
+                if (completed && !cancelled && !completionSent && isEmpty()) {
+                    completionSent = true;
+                    subscriber.onComplete();
+                }
+                if (sent == DRAIN_BATCH && !cancelled) {
+                    // Yield the thread; the work count stays raised, so no second task starts
+                    executor.execute(this::drain);
+                    return;
+                }
+                seen = work.addAndGet(-seen);
+                if (seen == 0) {
+                    return;
+                }
+            }
+        }
+
+        // A failing subscriber is dropped, as Flow prescribes
+        private boolean deliver(PackageChange change) {
+            try {
+                subscriber.onNext(change);
+                return true;
+            } catch (RuntimeException e) {
+                System.err.println("Error in change feed subscriber: " + e.getMessage());
+                cancel();
+                return false;
+            }
+        }
+    }
+}
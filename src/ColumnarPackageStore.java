@@ -0,0 +1,194 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Struct-of-arrays package store. Rows are appended into fixed-size chunks of
+// primitive columns (status ordinal, weight, created/updated epoch millis) so that
+// scans, group-bys and filters walk contiguous arrays instead of chasing a pointer
+// per package. String fields and history sit in per-row reference columns and are
+// only touched when a row is materialized. Servers run on it with -Dehc.store=columnar.
+//
+// Each row carries a seqlock stamp of twice its version, odd while an update is in
+// progress. Readers copy a row optimistically and retry if the stamp moved, so the
+// Package they materialize is always one consistent version of the row.
+public class ColumnarPackageStore implements PackageStore {
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+    private static final VarHandle STAMPS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final LongIntMap rows;
+    private volatile Chunk[] chunks;
+    private volatile int rowCount;
+
+    public ColumnarPackageStore() {
+        this.rows = new LongIntMap();
+        this.chunks = new Chunk[0];
+    }
+
+    @Override
+    public Package get(long trackingId) {
+        int row = rows.get(trackingId);
+        return row == LongIntMap.NO_VALUE ? null : read(row);
+    }
+
+    @Override
+    public synchronized boolean insert(long trackingId, Package pkg) {
+        if (rows.get(trackingId) != LongIntMap.NO_VALUE) {
+            return false;
+        }
+        int row = rowCount;
+        int slot = row & CHUNK_MASK;
+        Chunk chunk = chunkForAppend(row);
+        chunk.trackingIds[slot] = trackingId;
+        chunk.statuses[slot] = (byte) pkg.getStatus().ordinal();
+        chunk.weights[slot] = pkg.getWeight();
+        chunk.createdAt[slot] = EpochMillis.of(pkg.getCreatedAt());
+        chunk.lastUpdated[slot] = EpochMillis.of(pkg.getLastUpdated());
+        chunk.senderNames[slot] = pkg.getSenderName();
+        chunk.senderAddresses[slot] = pkg.getSenderAddress();
+        chunk.recipientNames[slot] = pkg.getRecipientName();
+        chunk.recipientAddresses[slot] = pkg.getRecipientAddress();
+        chunk.descriptions[slot] = pkg.getDescription();
+        chunk.histories[slot] = TrackingHistory.of(pkg.getTrackingHistory());
+        chunk.sequences[slot] = pkg.getSequence();
+        STAMPS.setRelease(chunk.stamps, slot, pkg.getVersion() << 1);
+        rowCount = row + 1;
+        rows.putIfAbsent(trackingId, row);
+        return true;
+    }
+
+    @Override
+    public Package updateStatus(PackageMutation mutation) {
+        int row = rows.get(mutation.getTrackingId());
+        if (row == LongIntMap.NO_VALUE) {
+            return null;
+        }
+        Chunk chunk = chunks[row >>> CHUNK_BITS];
+        int slot = row & CHUNK_MASK;
+        TrackingHistory history = Package.statusHistory(chunk.histories[slot], mutation);
+        long stamp = chunk.stamps[slot];
+        STAMPS.setOpaque(chunk.stamps, slot, stamp + 1);
+        VarHandle.storeStoreFence();
+        chunk.histories[slot] = history;
+        chunk.statuses[slot] = (byte) mutation.getStatus().ordinal();
+        chunk.lastUpdated[slot] = mutation.getTimestamp();
+        chunk.sequences[slot] = mutation.getSequence();
+        STAMPS.setRelease(chunk.stamps, slot, stamp + 2);
+        return read(row);
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    @Override
+    public void forEach(Consumer<Package> action) {
+        int count = rowCount;
+        for (int row = 0; row < count; row++) {
+            action.accept(read(row));
+        }
+    }
+
+    @Override
+    public Map<PackageStatus, Double> weightByStatus() {
+        double[] totals = new double[STATUSES.length];
+        boolean[] seen = new boolean[STATUSES.length];
+        int count = rowCount;
+        Chunk[] current = chunks;
+        for (int base = 0; base < count; base += CHUNK_SIZE) {
+            Chunk chunk = current[base >>> CHUNK_BITS];
+            int limit = Math.min(CHUNK_SIZE, count - base);
+            byte[] statuses = chunk.statuses;
+            double[] weights = chunk.weights;
+            for (int i = 0; i < limit; i++) {
+                totals[statuses[i]] += weights[i];
+                seen[statuses[i]] = true;
+            }
+        }
+        Map<PackageStatus, Double> result = new EnumMap<>(PackageStatus.class);
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (seen[i]) {
+                result.put(STATUSES[i], totals[i]);
+            }
+        }
+        return result;
+    }
+
+    // Tests the filter on the status and time columns and only materializes
+    // matching rows
+    @Override
+    public void forEachMatching(PackageFilter filter, Consumer<Package> action) {
+        int count = rowCount;
+        Chunk[] current = chunks;
+        for (int base = 0; base < count; base += CHUNK_SIZE) {
+            Chunk chunk = current[base >>> CHUNK_BITS];
+            int limit = Math.min(CHUNK_SIZE, count - base);
+            byte[] statuses = chunk.statuses;
+            long[] created = chunk.createdAt;
+            long[] updated = chunk.lastUpdated;
+            for (int i = 0; i < limit; i++) {
+                if (filter.matches(statuses[i], created[i], updated[i])) {
+                    Package pkg = read(base + i);
+                    // The row may have been updated between the column test and the read
+                    if (filter.matches(pkg)) {
+                        action.accept(pkg);
+                    }
+                }
+            }
+        }
+    }
+
+    private Package read(int row) {
+        Chunk chunk = chunks[row >>> CHUNK_BITS];
+        int slot = row & CHUNK_MASK;
+        while (true) {
+            long stamp = (long) STAMPS.getAcquire(chunk.stamps, slot);
+            if ((stamp & 1) == 0) {
+                Package pkg = new Package(TrackingNumbers.format(chunk.trackingIds[slot]), chunk.senderNames[slot],
+                        chunk.senderAddresses[slot], chunk.recipientNames[slot], chunk.recipientAddresses[slot],
+                        chunk.weights[slot], chunk.descriptions[slot], STATUSES[chunk.statuses[slot]],
+                        EpochMillis.toLocalDateTime(chunk.createdAt[slot]),
+                        EpochMillis.toLocalDateTime(chunk.lastUpdated[slot]), chunk.histories[slot],
+                        stamp >>> 1, chunk.sequences[slot]);
+                VarHandle.loadLoadFence();
+                if ((long) STAMPS.getOpaque(chunk.stamps, slot) == stamp) {
+                    return pkg;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private Chunk chunkForAppend(int row) {
+        int index = row >>> CHUNK_BITS;
+        Chunk[] current = chunks;
+        if (index == current.length) {
+            current = Arrays.copyOf(current, index + 1);
+            current[index] = new Chunk();
+            chunks = current;
+        }
+        return current[index];
+    }
+
+    private static final class Chunk {
+        final long[] trackingIds = new long[CHUNK_SIZE];
+        final byte[] statuses = new byte[CHUNK_SIZE];
+        final double[] weights = new double[CHUNK_SIZE];
+        final long[] createdAt = new long[CHUNK_SIZE];
+        final long[] lastUpdated = new long[CHUNK_SIZE];
+        final long[] sequences = new long[CHUNK_SIZE];
+        final long[] stamps = new long[CHUNK_SIZE];
+        final String[] senderNames = new String[CHUNK_SIZE];
+        final String[] senderAddresses = new String[CHUNK_SIZE];
+        final String[] recipientNames = new String[CHUNK_SIZE];
+        final String[] recipientAddresses = new String[CHUNK_SIZE];
+        final String[] descriptions = new String[CHUNK_SIZE];
+        final TrackingHistory[] histories = new TrackingHistory[CHUNK_SIZE];
+    }
+}
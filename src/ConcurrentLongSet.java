@@ -0,0 +1,169 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+// Concurrent open-addressing set of non-negative longs. Same layout as LongPackageMap
+// minus the value array: writers lock a segment, readers probe without locking.
+// Removed slots become tombstones until the next resize so probe chains stay intact
+// for concurrent readers.
+public class ConcurrentLongSet {
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final long EMPTY = -1L;
+    private static final long TOMBSTONE = -2L;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Segment[] segments;
+
+    public ConcurrentLongSet() {
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public boolean add(long value) {
+        checkValue(value);
+        long hash = hash(value);
+        return segmentFor(hash).add(value, hash);
+    }
+
+    public boolean remove(long value) {
+        checkValue(value);
+        long hash = hash(value);
+        return segmentFor(hash).remove(value, hash);
+    }
+
+    public boolean contains(long value) {
+        if (value < 0) {
+            return false;
+        }
+        long hash = hash(value);
+        long[] keys = segmentFor(hash).keys;
+        int mask = keys.length - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long slot = (long) KEYS.getAcquire(keys, i);
+            if (slot == value) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public void forEach(LongConsumer action) {
+        for (Segment segment : segments) {
+            long[] keys = segment.keys;
+            for (int i = 0; i < keys.length; i++) {
+                long slot = (long) KEYS.getAcquire(keys, i);
+                if (slot >= 0) {
+                    action.accept(slot);
+                }
+            }
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static void checkValue(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+    }
+
+    private static long hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Segment {
+        volatile long[] keys = newTable(INITIAL_SEGMENT_CAPACITY);
+        volatile int size;
+        int used;
+
+        synchronized boolean add(long value, long hash) {
+            long[] current = keys;
+            int mask = current.length - 1;
+            int free = -1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slot = current[i];
+                if (slot == value) {
+                    return false;
+                }
+                if (slot == TOMBSTONE && free < 0) {
+                    free = i;
+                }
+                if (slot == EMPTY) {
+                    if (free < 0) {
+                        free = i;
+                        used++;
+                    }
+                    break;
+                }
+            }
+            KEYS.setRelease(current, free, value);
+            size = size + 1;
+            if (used * 4L > current.length * 3L) {
+                resize(current);
+            }
+            return true;
+        }
+
+        synchronized boolean remove(long value, long hash) {
+            long[] current = keys;
+            int mask = current.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slot = current[i];
+                if (slot == value) {
+                    KEYS.setRelease(current, i, TOMBSTONE);
+                    size = size - 1;
+                    return true;
+                }
+                if (slot == EMPTY) {
+                    return false;
+                }
+            }
+        }
+
+        private void resize(long[] current) {
+            int live = size;
+            int capacity = current.length;
+            while (live * 4L > capacity * 3L / 2) {
+                capacity <<= 1;
+            }
+            long[] resized = newTable(capacity);
+            int mask = capacity - 1;
+            for (long slot : current) {
+                if (slot >= 0) {
+                    int i = (int) hash(slot) & mask;
+                    while (resized[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    resized[i] = slot;
+                }
+            }
+            used = live;
+            keys = resized;
+        }
+
+        private static long[] newTable(int capacity) {
+            long[] table = new long[capacity];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+    }
+}
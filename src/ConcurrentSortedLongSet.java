@@ -0,0 +1,317 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Concurrent sorted set of keys made of one long or of a pair of longs, compared
+// first by first and then by second. Keys are packed into primitive long[] leaves of
+// at most LEAF_KEYS keys, so a key costs one or two longs rather than a node and a
+// key object. The leaves sit in a skip list under their lower bound, which is the
+// only object allocated per leaf.
+//
+// A leaf's keys are never changed in place: writers lock the leaf and publish a copy
+// together with the leaf's upper bound, splitting a full leaf in two and merging a
+// sparse one into its predecessor. Readers never lock. A walk reads one leaf at a
+// time and then looks up whichever leaf holds the keys just past the bound it read,
+// so a split or merge meanwhile costs it nothing. Walks are weakly consistent: a key
+// present for the whole walk is seen, one added or removed meanwhile may or may not
+// be.
+public class ConcurrentSortedLongSet {
+    private static final int LEAF_KEYS = 64;
+    // A leaf this sparse after a removal is merged into its predecessor
+    private static final int MERGE_BELOW = LEAF_KEYS / 4;
+
+    private final int width;
+    // Lower bound of the first leaf, which is never merged away
+    private final long[] lowest;
+    private final ConcurrentSkipListMap<long[], Leaf> leaves = new ConcurrentSkipListMap<>(Arrays::compare);
+    private final LongAdder size = new LongAdder();
+
+    // Keys of one long
+    public ConcurrentSortedLongSet() {
+        this(1);
+    }
+
+    private ConcurrentSortedLongSet(int width) {
+        this.width = width;
+        this.lowest = new long[width];
+        Arrays.fill(lowest, Long.MIN_VALUE);
+        leaves.put(lowest, new Leaf(lowest, new State(new long[0], null)));
+    }
+
+    // Keys of two longs
+    public static ConcurrentSortedLongSet ofPairs() {
+        return new ConcurrentSortedLongSet(2);
+    }
+
+    public boolean add(long value) {
+        return add(value, 0);
+    }
+
+    public boolean add(long first, long second) {
+        while (true) {
+            Leaf leaf = leaves.floorEntry(key(first, second)).getValue();
+            synchronized (leaf) {
+                if (!leaf.owns(first, second)) {
+                    continue;
+                }
+                long[] keys = leaf.state.keys;
+                int index = search(keys, first, second);
+                if (index >= 0) {
+                    return false;
+                }
+                int at = (-index - 1) * width;
+                long[] grown = new long[keys.length + width];
+                System.arraycopy(keys, 0, grown, 0, at);
+                grown[at] = first;
+                if (width == 2) {
+                    grown[at + 1] = second;
+                }
+                System.arraycopy(keys, at, grown, at + width, keys.length - at);
+                if (grown.length > LEAF_KEYS * width) {
+                    split(leaf, grown);
+                } else {
+                    leaf.state = new State(grown, leaf.state.upper);
+                }
+                size.increment();
+                return true;
+            }
+        }
+    }
+
+    public boolean remove(long value) {
+        return remove(value, 0);
+    }
+
+    public boolean remove(long first, long second) {
+        boolean merging = false;
+        while (true) {
+            Map.Entry<long[], Leaf> entry = leaves.floorEntry(key(first, second));
+            Leaf leaf = entry.getValue();
+            Map.Entry<long[], Leaf> previous = merging ? leaves.lowerEntry(entry.getKey()) : null;
+            Boolean removed;
+            if (previous == null) {
+                synchronized (leaf) {
+                    removed = removeLocked(leaf, null, first, second);
+                }
+            } else {
+                // Locked in key order, so two merges never deadlock
+                Leaf before = previous.getValue();
+                synchronized (before) {
+                    synchronized (leaf) {
+                        removed = before.retired || before.state.upper != leaf.lower ? null
+                                : removeLocked(leaf, before, first, second);
+                    }
+                }
+            }
+            if (removed != null) {
+                return removed;
+            }
+            merging = true;
+        }
+    }
+
+    // Null if the caller has to look again, either because the leaf no longer owns
+    // the key or because it would turn sparse and the predecessor must be locked too
+    private Boolean removeLocked(Leaf leaf, Leaf before, long first, long second) {
+        if (!leaf.owns(first, second)) {
+            return null;
+        }
+        long[] keys = leaf.state.keys;
+        int index = search(keys, first, second);
+        if (index < 0) {
+            return false;
+        }
+        boolean sparse = keys.length - width < MERGE_BELOW * width && leaf.lower != lowest;
+        if (sparse && before == null) {
+            return null;
+        }
+        int at = index * width;
+        long[] shrunk = new long[keys.length - width];
+        System.arraycopy(keys, 0, shrunk, 0, at);
+        System.arraycopy(keys, at + width, shrunk, at, shrunk.length - at);
+        if (sparse && before.state.keys.length + shrunk.length <= LEAF_KEYS * width) {
+            merge(before, leaf, shrunk);
+        } else {
+            leaf.state = new State(shrunk, leaf.state.upper);
+        }
+        size.decrement();
+        return true;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    // The upper half goes into a new leaf, which is published before the lower half
+    // shrinks, so that a key is always found under the leaf a lookup lands on
+    private void split(Leaf leaf, long[] keys) {
+        int half = keys.length / width / 2 * width;
+        long[] lower = Arrays.copyOfRange(keys, half, half + width);
+        leaves.put(lower, new Leaf(lower, new State(Arrays.copyOfRange(keys, half, keys.length), leaf.state.upper)));
+        leaf.state = new State(Arrays.copyOf(keys, half), lower);
+    }
+
+    // Callers hold both locks. The predecessor takes the keys before the sparse leaf
+    // leaves the skip list, for the same reason as in split
+    private void merge(Leaf before, Leaf leaf, long[] keys) {
+        long[] beforeKeys = before.state.keys;
+        long[] merged = Arrays.copyOf(beforeKeys, beforeKeys.length + keys.length);
+        System.arraycopy(keys, 0, merged, beforeKeys.length, keys.length);
+        before.state = new State(merged, leaf.state.upper);
+        leaf.retired = true;
+        leaves.remove(leaf.lower);
+    }
+
+    private long[] key(long first, long second) {
+        return width == 1 ? new long[] {first} : new long[] {first, second};
+    }
+
+    // Index of the key, or -(insertion point) - 1, counted in keys
+    private int search(long[] keys, long first, long second) {
+        int low = 0;
+        int high = keys.length / width - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(keys, middle * width, first, second);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(long[] keys, int at, long first, long second) {
+        int byFirst = Long.compare(keys[at], first);
+        return byFirst != 0 || width == 1 ? byFirst : Long.compare(keys[at + 1], second);
+    }
+
+    // Every key in order
+    public Walk walk(boolean descending) {
+        return new Walk(descending, null, false, null);
+    }
+
+    // Keys past the start in the walk's direction, or from it if inclusive, and
+    // short of the end. Bounds hold one long per key part; null leaves a side open.
+    public Walk walk(boolean descending, long[] start, boolean inclusive, long[] end) {
+        return new Walk(descending, start, inclusive, end);
+    }
+
+    // Writers replace state under the leaf's lock; readers read it without
+    private static final class Leaf {
+        final long[] lower;
+        volatile State state;
+        boolean retired;
+
+        Leaf(long[] lower, State state) {
+            this.lower = lower;
+            this.state = state;
+        }
+
+        boolean owns(long first, long second) {
+            if (retired) {
+                return false;
+            }
+            long[] upper = state.upper;
+            if (upper == null) {
+                return true;
+            }
+            int byFirst = Long.compare(first, upper[0]);
+            return byFirst < 0 || byFirst == 0 && upper.length == 2 && second < upper[1];
+        }
+    }
+
+    // A leaf's keys with the bound they stop at, published as one
+    private static final class State {
+        final long[] keys;
+        // Lower bound of the next leaf, or null for the last one
+        final long[] upper;
+
+        State(long[] keys, long[] upper) {
+            this.keys = keys;
+            this.upper = upper;
+        }
+    }
+
+    // A position in the set, advanced with next(). Used by one thread at a time.
+    public final class Walk {
+        private final boolean descending;
+        private final long[] end;
+        private long[] lower;
+        private long[] upper;
+        private long[] keys;
+        private int at;
+        private boolean finished;
+        private long first;
+        private long second;
+
+        private Walk(boolean descending, long[] start, boolean inclusive, long[] end) {
+            this.descending = descending;
+            this.end = end;
+            Map.Entry<long[], Leaf> entry = start == null
+                    ? (descending ? leaves.lastEntry() : leaves.firstEntry())
+                    : leaves.floorEntry(start);
+            enter(entry.getValue(), start, inclusive);
+        }
+
+        // Positions the walk on the leaf's first key from the bound on, in the walk's
+        // direction, or on its first key at all if from is null
+        private void enter(Leaf leaf, long[] from, boolean inclusive) {
+            State state = leaf.state;
+            lower = leaf.lower;
+            upper = state.upper;
+            keys = state.keys;
+            if (from == null) {
+                at = descending ? keys.length - width : 0;
+                return;
+            }
+            int index = search(keys, from[0], width == 2 ? from[1] : 0);
+            if (index >= 0) {
+                at = index * width;
+                if (!inclusive) {
+                    at += descending ? -width : width;
+                }
+            } else {
+                at = (-index - 1 - (descending ? 1 : 0)) * width;
+            }
+        }
+
+        // Moves to the next key; false once there are none left
+        public boolean next() {
+            while (!finished) {
+                if (at < 0 || at >= keys.length) {
+                    // Whatever leaf holds the keys beyond this one's range now
+                    Map.Entry<long[], Leaf> entry = descending ? leaves.lowerEntry(lower)
+                            : upper == null ? null : leaves.floorEntry(upper);
+                    if (entry == null) {
+                        finished = true;
+                        return false;
+                    }
+                    enter(entry.getValue(), descending ? lower : upper, !descending);
+                    continue;
+                }
+                int position = at;
+                at += descending ? -width : width;
+                if (end != null) {
+                    int comparison = compare(keys, position, end[0], width == 2 ? end[1] : 0);
+                    if (descending ? comparison <= 0 : comparison >= 0) {
+                        finished = true;
+                        return false;
+                    }
+                }
+                first = keys[position];
+                second = width == 2 ? keys[position + 1] : 0;
+                return true;
+            }
+            return false;
+        }
+
+        public long first() { return first; }
+        // Zero for single keys
+        public long second() { return second; }
+    }
+}
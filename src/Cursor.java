@@ -0,0 +1,78 @@
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+// Position in a DHLServer.scan. A cursor remembers the sort key of the last package
+// it passed rather than an offset, so it stays valid while packages are inserted or
+// updated: the next page simply continues after that key. Clients see it only as an
+// opaque token.
+public final class Cursor {
+    private static final Cursor START = new Cursor(null, 0, -1);
+    private static final byte TOKEN_VERSION = 1;
+    private static final int TOKEN_BYTES = 2 + 2 * Long.BYTES;
+    private static final ScanOrder[] ORDERS = ScanOrder.values();
+
+    private final ScanOrder order;
+    private final long millis;
+    private final long trackingId;
+
+    private Cursor(ScanOrder order, long millis, long trackingId) {
+        this.order = order;
+        this.millis = millis;
+        this.trackingId = trackingId;
+    }
+
+    public static Cursor start() {
+        return START;
+    }
+
+    static Cursor after(ScanOrder order, long millis, long trackingId) {
+        return new Cursor(order, millis, trackingId);
+    }
+
+    public boolean isStart() {
+        return order == null;
+    }
+
+    // Null for the start cursor, which fits any order
+    public ScanOrder getOrder() { return order; }
+    long getMillis() { return millis; }
+    long getTrackingId() { return trackingId; }
+
+    public String toToken() {
+        if (isStart()) {
+            return "";
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(TOKEN_BYTES);
+        bytes.put(TOKEN_VERSION).put((byte) order.ordinal()).putLong(millis).putLong(trackingId);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    }
+
+    // An empty or null token is the start cursor
+    public static Cursor fromToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return START;
+        }
+        byte[] decoded;
+        try {
+            decoded = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor token");
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(decoded);
+        if (decoded.length != TOKEN_BYTES || bytes.get() != TOKEN_VERSION) {
+            throw new IllegalArgumentException("Invalid cursor token");
+        }
+        int order = bytes.get();
+        long millis = bytes.getLong();
+        long trackingId = bytes.getLong();
+        if (order < 0 || order >= ORDERS.length || trackingId < 0) {
+            throw new IllegalArgumentException("Invalid cursor token");
+        }
+        return new Cursor(ORDERS[order], millis, trackingId);
+    }
+
+    @Override
+    public String toString() {
+        return isStart() ? "Cursor[start]" : "Cursor[" + toToken() + "]";
+    }
+}
@@ -125,8 +125,8 @@ public class DHLApp extends JFrame {
             }
         });
         
-        Timer statusUpdateTimer = new Timer(5000, e -> updateStatusBar());
-        statusUpdateTimer.start();
+        // The status bar follows package changes instead of polling
+        new SwingRefreshSubscriber(500, this::updateStatusBar).subscribeTo(server.getChangeFeed());
         
         // Add tab change listener to demonstrate Virtual Mail
         tabbedPane.addChangeListener(e -> {
@@ -1,69 +1,1075 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 public class DHLServer {
-    private Map<String, Package> packages;
-    private Random random;
+    public static final String DATA_DIRECTORY = System.getProperty("user.home") + "/.ehc_data";
+
+    // Matches any version in updatePackageStatusIfVersion
+    public static final long ANY_VERSION = -1;
+
+    private static final int LOCK_STRIPES = 256;
+    private static final long SNAPSHOT_CHECK_SECONDS = 60;
+    private static final long SNAPSHOT_MIN_MUTATIONS = 100_000;
+    private static final long SNAPSHOT_MAX_AGE_MILLIS = 10 * 60 * 1000;
+    // A status filter goes through the index when it selects less than 1/8 of the store
+    private static final int INDEX_SCAN_RATIO = 8;
+    private static final long ARCHIVE_AFTER_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long ARCHIVE_CHECK_SECONDS = 60;
+    private static final int CACHE_CAPACITY = 50_000;
+    private static final int DICTIONARY_MAX_ENTRIES = 1 << 20;
+    private static final int DICTIONARY_MAX_LENGTH = 512;
+    private static final int DEFAULT_HTTP_PORT = 8080;
+
+    private PackageStore packages;
+    private TieredPackageStore tiers;
+    private PackageCache cache;
+    private Object[] locks;
+    private volatile ProjectionSet projections;
+    private final Object projectionLock = new Object();
+    private StringDictionary strings;
+    private ChangeFeed changes;
+    private TrackingNumberAllocator allocator;
+    private WriteAheadLog log;
+    private SnapshotManager snapshots;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotScheduler;
+    private ScheduledExecutorService archiveScheduler;
+    private int httpPort = -1;
+    private InetAddress httpAddress = InetAddress.getLoopbackAddress();
+    private TrackingHttpServer http;
+    private int scannerPort = -1;
+    private InetAddress scannerAddress = InetAddress.getLoopbackAddress();
+    private ScannerServer scanners;
+    private volatile long lastSnapshotSequence;
+    private volatile long lastSnapshotMillis;
+    private volatile boolean replica;
     private boolean isRunning;
 
     public DHLServer() {
-        this.packages = new ConcurrentHashMap<>();
-        this.random = new Random();
+        this(defaultStore(), new ShardedSequenceAllocator(),
+             new WriteAheadLog(Paths.get(DATA_DIRECTORY, "wal"), WriteAheadLog.Durability.PER_BATCH),
+             new SnapshotManager(Paths.get(DATA_DIRECTORY, "snapshots")));
+        this.httpPort = Integer.getInteger("ehc.http.port", DEFAULT_HTTP_PORT);
+        this.httpAddress = bindAddress("ehc.http.address");
+        // The scanner protocol can change any package without authentication, so it
+        // only comes up when configured, e.g. -Dehc.scanner.port=7070
+        this.scannerPort = Integer.getInteger("ehc.scanner.port", -1);
+        this.scannerAddress = bindAddress("ehc.scanner.address");
+    }
+
+    // The address named by the system property, loopback if it is not set
+    private static InetAddress bindAddress(String property) {
+        String value = System.getProperty(property);
+        if (value == null || value.isBlank()) {
+            return InetAddress.getLoopbackAddress();
+        }
+        try {
+            return InetAddress.getByName(value.trim());
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Bad address in " + property + ": " + value, e);
+        }
+    }
+
+    private static PackageStore defaultStore() {
+        return configuredStore(Paths.get(DATA_DIRECTORY, "archive"));
+    }
+
+    // The store named by -Dehc.store: tiered, the default, moves finished packages to
+    // a mapped archive; heap keeps every package as an object; columnar keeps them in
+    // primitive columns, for servers that mostly run summaries and filtered scans;
+    // mapped keeps every package off the heap. The stores that map files put them in
+    // the given directory.
+    static PackageStore configuredStore(Path directory) {
+        String store = System.getProperty("ehc.store", "tiered").trim();
+        switch (store) {
+            case "tiered":
+                return new TieredPackageStore(new HeapPackageStore(), mappedStore(directory), ARCHIVE_AFTER_MILLIS);
+            case "heap":
+                return new HeapPackageStore();
+            case "columnar":
+                return new ColumnarPackageStore();
+            case "mapped":
+                return mappedStore(directory);
+            default:
+                throw new IllegalArgumentException("Unknown store in ehc.store: " + store
+                        + "; expected tiered, heap, columnar or mapped");
+        }
+    }
+
+    // The mapped files are scratch space; like every store it is rebuilt from the
+    // snapshot and log on start
+    private static MappedPackageStore mappedStore(Path directory) {
+        try {
+            return new MappedPackageStore(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public DHLServer(TrackingNumberAllocator allocator) {
+        this(new HeapPackageStore(), allocator);
+    }
+
+    public DHLServer(PackageStore store, TrackingNumberAllocator allocator) {
+        this(store, allocator, null);
+    }
+
+    public DHLServer(PackageStore store, TrackingNumberAllocator allocator, WriteAheadLog log) {
+        this(store, allocator, log, null);
+    }
+
+    // The newest snapshot is loaded and the log opened and replayed by start(); until
+    // then, and after stop(), writes are refused. Snapshots are only taken while the log
+    // is open.
+    public DHLServer(PackageStore store, TrackingNumberAllocator allocator, WriteAheadLog log,
+                     SnapshotManager snapshots) {
+        this.packages = store;
+        this.tiers = store instanceof TieredPackageStore ? (TieredPackageStore) store : null;
+        this.cache = new PackageCache(CACHE_CAPACITY);
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.projections = new ProjectionSet(new PackageIndexes(), new Registration[0]);
+        this.strings = new StringDictionary(DICTIONARY_MAX_ENTRIES, DICTIONARY_MAX_LENGTH);
+        this.changes = new ChangeFeed();
+        this.allocator = allocator;
+        this.log = log;
+        this.snapshots = snapshots;
         this.isRunning = false;
     }
 
     public String generateTrackingNumber() {
-        String trackingNumber;
-        do {
-            trackingNumber = "EHC" + String.format("%09d", random.nextInt(1000000000));
-        } while (packages.containsKey(trackingNumber));
-        return trackingNumber;
+        return TrackingNumbers.format(allocator.allocate());
     }
 
     public Package createPackage(String senderName, String senderAddress, 
                                String recipientName, String recipientAddress, 
                                double weight, String description) {
-        String trackingNumber = generateTrackingNumber();
-        Package newPackage = new Package(trackingNumber, senderName, senderAddress, 
-                                       recipientName, recipientAddress, weight, description);
-        packages.put(trackingNumber, newPackage);
-        return newPackage;
+        return createPackage(allocator.allocate(), senderName, senderAddress, recipientName, recipientAddress,
+                weight, description);
+    }
+
+    // For callers that allocate the tracking number themselves, like PartitionedDHLServer
+    Package createPackage(long trackingId, String senderName, String senderAddress, String recipientName,
+                          String recipientAddress, double weight, String description) {
+        checkWritable();
+        PackageMutation mutation = createMutation(trackingId, System.currentTimeMillis(),
+                senderName, senderAddress, recipientName, recipientAddress, weight, description);
+        Package created;
+        synchronized (lockFor(trackingId)) {
+            if (packages.get(trackingId) != null) {
+                throw new IllegalStateException("Allocator reissued tracking number "
+                        + TrackingNumbers.format(trackingId));
+            }
+            mutation = logMutation(mutation);
+            created = applyCreate(mutation);
+        }
+        awaitDurability(mutation);
+        return created;
     }
 
     public Package findPackage(String trackingNumber) {
-        return packages.get(trackingNumber);
+        long trackingId = TrackingNumbers.parse(trackingNumber);
+        return trackingId < 0 ? null : lookup(trackingId);
+    }
+
+    public Package findPackage(long trackingId) {
+        if (trackingId < 0 || trackingId >= TrackingNumbers.BODY_SPACE) {
+            return null;
+        }
+        return lookup(trackingId);
+    }
+
+    private Package lookup(long trackingId) {
+        Package pkg = cache.get(trackingId);
+        if (pkg != null) {
+            return pkg;
+        }
+        long generation = cache.generation(trackingId);
+        pkg = packages.get(trackingId);
+        if (pkg != null) {
+            cache.putIfCurrent(trackingId, pkg, generation);
+        }
+        return pkg;
     }
 
     public List<Package> findPackagesBySender(String senderName) {
-        return packages.values().stream()
-                .filter(pkg -> pkg.getSenderName().toLowerCase().contains(senderName.toLowerCase()))
-                .collect(Collectors.toList());
+        return findBySubstring(indexes().getSenderIndex(), senderName, Package::getSenderName);
     }
 
     public List<Package> findPackagesByRecipient(String recipientName) {
-        return packages.values().stream()
-                .filter(pkg -> pkg.getRecipientName().toLowerCase().contains(recipientName.toLowerCase()))
-                .collect(Collectors.toList());
+        return findBySubstring(indexes().getRecipientIndex(), recipientName, Package::getRecipientName);
+    }
+
+    private List<Package> findBySubstring(TrigramIndex index, String query, Function<Package, String> field) {
+        String needle = TrigramIndex.normalize(query);
+        List<Package> results = new ArrayList<>();
+        Consumer<Package> matcher = pkg -> {
+            if (TrigramIndex.normalize(field.apply(pkg)).contains(needle)) {
+                results.add(pkg);
+            }
+        };
+        if (index.canServe(query)) {
+            index.candidates(query).forEach(id -> {
+                Package pkg = packages.get(id);
+                if (pkg != null) {
+                    matcher.accept(pkg);
+                }
+            });
+        } else {
+            // Queries shorter than a trigram match most of the store anyway, so scan
+            packages.forEach(matcher);
+        }
+        return results;
     }
 
     public List<Package> findPackagesByStatus(PackageStatus status) {
-        return packages.values().stream()
-                .filter(pkg -> pkg.getStatus() == status)
-                .collect(Collectors.toList());
+        List<Package> results = new ArrayList<>();
+        indexes().getStatusIndex().getTrackingIds(status).forEach(id -> {
+            // The index is read without the package's lock, so the package may have
+            // moved on since; the stored state decides
+            Package pkg = packages.get(id);
+            if (pkg != null && pkg.getStatus() == status) {
+                results.add(pkg);
+            }
+        });
+        return results;
     }
 
     public boolean updatePackageStatus(String trackingNumber, PackageStatus newStatus, String location, String description) {
-        Package pkg = packages.get(trackingNumber);
-        if (pkg != null) {
-            pkg.updateStatus(newStatus, location, description);
+        return updatePackageStatusIfVersion(trackingNumber, ANY_VERSION, newStatus, location, description);
+    }
+
+    // Applies the update only if the package is still at expectedVersion, as read from
+    // Package.getVersion(). Returns false if the package is unknown or has moved on;
+    // the caller can re-read it and retry.
+    public boolean updatePackageStatusIfVersion(String trackingNumber, long expectedVersion, PackageStatus newStatus,
+                                                String location, String description) {
+        checkWritable();
+        long trackingId = TrackingNumbers.parse(trackingNumber);
+        if (trackingId < 0) {
+            return false;
+        }
+        // Fail fast without touching the lock when the version is already stale
+        Package current = packages.get(trackingId);
+        if (current == null || !versionMatches(current, expectedVersion)) {
+            return false;
+        }
+        // Location and description are not canonicalized: the history keeps them in its
+        // own location dictionary, not as the String objects passed in
+        PackageMutation mutation = PackageMutation.statusUpdate(trackingId, System.currentTimeMillis(),
+                newStatus, location, description);
+        // The lock only orders the log append with publishing the new state, so log
+        // order equals version order for every package; no I/O happens under it
+        synchronized (lockFor(trackingId)) {
+            current = packages.get(trackingId);
+            if (!versionMatches(current, expectedVersion)) {
+                return false;
+            }
+            mutation = logMutation(mutation);
+            applyStatusUpdate(mutation);
+        }
+        awaitDurability(mutation);
+        return true;
+    }
+
+    // Creates a package per spec and returns them in the same order. The batch is split
+    // by lock stripe and the stripes are processed in parallel; each stripe takes its
+    // lock once, hands its packages to the projections as one batch, and the whole
+    // batch shares a single wait for durability.
+    public List<Package> createPackages(List<PackageSpec> specs) {
+        long[] trackingIds = new long[specs.size()];
+        for (int i = 0; i < trackingIds.length; i++) {
+            trackingIds[i] = allocator.allocate();
+        }
+        return createPackages(trackingIds, specs);
+    }
+
+    List<Package> createPackages(long[] trackingIds, List<PackageSpec> specs) {
+        checkWritable();
+        long now = System.currentTimeMillis();
+        PackageMutation[] mutations = new PackageMutation[specs.size()];
+        for (int i = 0; i < mutations.length; i++) {
+            PackageSpec spec = specs.get(i);
+            mutations[i] = createMutation(trackingIds[i], now, spec.getSenderName(), spec.getSenderAddress(),
+                    spec.getRecipientName(), spec.getRecipientAddress(), spec.getWeight(), spec.getDescription());
+        }
+        Package[] created = new Package[mutations.length];
+        LongAccumulator lastSequence = new LongAccumulator(Math::max, 0);
+        int[][] groups = groupByStripe(trackingIds);
+        IntStream.range(0, LOCK_STRIPES).parallel().filter(stripe -> groups[stripe] != null).forEach(stripe -> {
+            int[] group = groups[stripe];
+            long[] ids = new long[group.length];
+            Package[] stored = new Package[group.length];
+            synchronized (locks[stripe]) {
+                for (int i : group) {
+                    if (packages.get(trackingIds[i]) != null) {
+                        throw new IllegalStateException("Allocator reissued tracking number "
+                                + TrackingNumbers.format(trackingIds[i]));
+                    }
+                }
+                for (int k = 0; k < group.length; k++) {
+                    int i = group[k];
+                    mutations[i] = logMutation(mutations[i]);
+                    created[i] = storeCreated(mutations[i]);
+                    ids[k] = trackingIds[i];
+                    stored[k] = created[i];
+                    lastSequence.accumulate(mutations[i].getSequence());
+                }
+                projectAddedAll(stripe, ids, stored);
+                for (int k = 0; k < group.length; k++) {
+                    changes.publishCreated(ids[k], stored[k]);
+                }
+            }
+        });
+        awaitDurability(lastSequence.get());
+        return Arrays.asList(created);
+    }
+
+    // Applies the updates and returns one result per update, in the same order.
+    // Updates to the same package apply in batch order, so a batch may carry several
+    // versioned updates to one package. Like createPackages, the batch is processed
+    // per lock stripe in parallel and waits for durability once.
+    public List<StatusUpdate.Result> applyStatusUpdates(List<StatusUpdate> updates) {
+        checkWritable();
+        long now = System.currentTimeMillis();
+        long[] trackingIds = new long[updates.size()];
+        StatusUpdate.Result[] results = new StatusUpdate.Result[updates.size()];
+        for (int i = 0; i < trackingIds.length; i++) {
+            trackingIds[i] = TrackingNumbers.parse(updates.get(i).getTrackingNumber());
+            if (trackingIds[i] < 0) {
+                results[i] = new StatusUpdate.Result(StatusUpdate.Outcome.NOT_FOUND, null);
+            }
+        }
+        LongAccumulator lastSequence = new LongAccumulator(Math::max, 0);
+        int[][] groups = groupByStripe(trackingIds);
+        IntStream.range(0, LOCK_STRIPES).parallel().filter(stripe -> groups[stripe] != null).forEach(stripe -> {
+            synchronized (locks[stripe]) {
+                for (int i : groups[stripe]) {
+                    StatusUpdate update = updates.get(i);
+                    Package current = packages.get(trackingIds[i]);
+                    if (current == null) {
+                        results[i] = new StatusUpdate.Result(StatusUpdate.Outcome.NOT_FOUND, null);
+                    } else if (!versionMatches(current, update.getExpectedVersion())) {
+                        results[i] = new StatusUpdate.Result(StatusUpdate.Outcome.VERSION_CONFLICT, current);
+                    } else {
+                        PackageMutation mutation = logMutation(PackageMutation.statusUpdate(trackingIds[i], now,
+                                update.getStatus(), update.getLocation(), update.getDescription()));
+                        results[i] = new StatusUpdate.Result(StatusUpdate.Outcome.APPLIED,
+                                applyStatusUpdate(mutation));
+                        lastSequence.accumulate(mutation.getSequence());
+                    }
+                }
+            }
+        });
+        awaitDurability(lastSequence.get());
+        return Arrays.asList(results);
+    }
+
+    // Batch item indices per lock stripe, in batch order; stripes without items and
+    // negative ids are left out
+    private int[][] groupByStripe(long[] trackingIds) {
+        int[] counts = new int[LOCK_STRIPES];
+        for (long trackingId : trackingIds) {
+            if (trackingId >= 0) {
+                counts[stripeOf(trackingId)]++;
+            }
+        }
+        int[][] groups = new int[LOCK_STRIPES][];
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            if (counts[stripe] > 0) {
+                groups[stripe] = new int[counts[stripe]];
+                counts[stripe] = 0;
+            }
+        }
+        for (int i = 0; i < trackingIds.length; i++) {
+            if (trackingIds[i] >= 0) {
+                int stripe = stripeOf(trackingIds[i]);
+                groups[stripe][counts[stripe]++] = i;
+            }
+        }
+        return groups;
+    }
+
+    private static boolean versionMatches(Package pkg, long expectedVersion) {
+        return expectedVersion == ANY_VERSION || pkg.getVersion() == expectedVersion;
+    }
+
+    // Returns the mutation stamped with its log sequence. The mutation may not be
+    // durable yet; callers call awaitDurability once they have released their lock.
+    // Without a log nothing is recorded; with one, appendDeferred refuses the mutation
+    // unless the log is open
+    private PackageMutation logMutation(PackageMutation mutation) {
+        if (log == null) {
+            return mutation;
+        }
+        try {
+            return mutation.withSequence(log.appendDeferred(mutation));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + mutation + " to the write-ahead log", e);
+        }
+    }
+
+    private void awaitDurability(PackageMutation mutation) {
+        awaitDurability(mutation.getSequence());
+    }
+
+    private void awaitDurability(long sequence) {
+        if (log == null || sequence == 0) {
+            return;
+        }
+        try {
+            log.awaitDurability(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not sync sequence " + sequence + " to the write-ahead log", e);
+        }
+    }
+
+    // New packages get their strings from the dictionary, so equal names and addresses
+    // share one copy across packages
+    private PackageMutation createMutation(long trackingId, long timestamp, String senderName, String senderAddress,
+                                           String recipientName, String recipientAddress, double weight,
+                                           String description) {
+        return PackageMutation.create(trackingId, timestamp, strings.canonical(senderName),
+                strings.canonical(senderAddress), strings.canonical(recipientName),
+                strings.canonical(recipientAddress), weight, strings.canonical(description));
+    }
+
+    private void checkWritable() {
+        if (replica) {
+            throw new IllegalStateException("Read replica; send writes to the leader");
+        }
+    }
+
+    // A replica only changes through applyReplicated, in the leader's log order
+    void setReplica(boolean replica) {
+        this.replica = replica;
+    }
+
+    public boolean isReplica() {
+        return replica;
+    }
+
+    // Leader mutations arrive one at a time in sequence order; replay is idempotent, so
+    // mutations a transferred snapshot already reflects are skipped
+    void applyReplicated(PackageMutation mutation) {
+        replayLocked(mutation);
+    }
+
+    void restoreReplicated(Package pkg) {
+        restore(pkg);
+    }
+
+    // Null unless the server was built with a log; replication reads it
+    WriteAheadLog getWriteAheadLog() {
+        return log;
+    }
+
+    SnapshotManager getSnapshotManager() {
+        return snapshots;
+    }
+
+    // Used for live mutations, log replay and replication; callers hold the id's lock,
+    // which also keeps each package's changes in order on the feed. The store is the
+    // projection that holds each package's current state; the indexes and any added
+    // projections follow it.
+    private Package applyCreate(PackageMutation mutation) {
+        long trackingId = mutation.getTrackingId();
+        Package newPackage = storeCreated(mutation);
+        projectAdded(trackingId, newPackage);
+        changes.publishCreated(trackingId, newPackage);
+        return newPackage;
+    }
+
+    private Package storeCreated(PackageMutation mutation) {
+        Package newPackage = Package.created(mutation);
+        if (!packages.insert(mutation.getTrackingId(), newPackage)) {
+            throw new IllegalStateException("Duplicate tracking number " + newPackage.getTrackingNumber());
+        }
+        return newPackage;
+    }
+
+    private Package applyStatusUpdate(PackageMutation mutation) {
+        long trackingId = mutation.getTrackingId();
+        Package pkg = packages.get(trackingId);
+        if (pkg == null) {
+            return null;
+        }
+        Package updated = packages.updateStatus(mutation);
+        cache.invalidate(trackingId);
+        projectUpdated(mutation, pkg, updated);
+        changes.publishStatusChanged(trackingId, pkg.getStatus(), updated);
+        return updated;
+    }
+
+    // Replay from the log runs on several threads at once, so it takes the id's lock
+    // like any other writer
+    private void replayLocked(PackageMutation mutation) {
+        synchronized (lockFor(mutation.getTrackingId())) {
+            replay(mutation);
+        }
+    }
+
+    // Snapshots are taken while writers run, so a package in one may already reflect
+    // mutations from the log tail after it. Every package remembers the sequence of the
+    // last mutation applied to it, which makes replay skip exactly those.
+    private void replay(PackageMutation mutation) {
+        long trackingId = mutation.getTrackingId();
+        Package pkg = packages.get(trackingId);
+        if (mutation.getType() == PackageMutation.Type.CREATE) {
+            allocator.observe(trackingId);
+            if (pkg == null) {
+                applyCreate(createMutation(trackingId, mutation.getTimestamp(), mutation.getSenderName(),
+                        mutation.getSenderAddress(), mutation.getRecipientName(), mutation.getRecipientAddress(),
+                        mutation.getWeight(), mutation.getDescription()).withSequence(mutation.getSequence()));
+            }
+        } else if (pkg != null && mutation.getSequence() > pkg.getSequence()) {
+            applyStatusUpdate(mutation);
+        }
+    }
+
+    // Called concurrently by the snapshot loader
+    private void restore(Package loaded) {
+        long trackingId = TrackingNumbers.parse(loaded.getTrackingNumber());
+        Package pkg = new Package(loaded.getTrackingNumber(), strings.canonical(loaded.getSenderName()),
+                strings.canonical(loaded.getSenderAddress()), strings.canonical(loaded.getRecipientName()),
+                strings.canonical(loaded.getRecipientAddress()), loaded.getWeight(),
+                strings.canonical(loaded.getDescription()), loaded.getStatus(), loaded.getCreatedAt(),
+                loaded.getLastUpdated(), loaded.getTrackingHistory(), loaded.getVersion(), loaded.getSequence());
+        allocator.observe(trackingId);
+        synchronized (lockFor(trackingId)) {
+            if (packages.insert(trackingId, pkg)) {
+                projectAdded(trackingId, pkg);
+            }
+        }
+    }
+
+    private PackageIndexes indexes() {
+        return projections.indexes;
+    }
+
+    // Feeds projection every change from now on and backfills it in the background with
+    // the current state of every package, one lock stripe at a time with the stripes in
+    // parallel. A stripe's writers wait only while that stripe is backfilled. The future
+    // completes once the projection has caught up, or fails if it throws, in which case
+    // it is removed again.
+    public CompletableFuture<Void> addProjection(PackageProjection projection) {
+        return register(projection).caughtUp;
+    }
+
+    public void removeProjection(PackageProjection projection) {
+        synchronized (projectionLock) {
+            for (Registration registration : projections.registered) {
+                if (registration.projection == projection) {
+                    detach(registration);
+                }
+            }
+        }
+    }
+
+    // Builds a fresh set of query indexes from the package state without downtime: the
+    // current indexes keep serving until the new ones have caught up and are swapped in
+    public CompletableFuture<Void> rebuildIndexes() {
+        PackageIndexes fresh = new PackageIndexes();
+        Registration registration = register(fresh);
+        return registration.caughtUp.thenRun(() -> {
+            synchronized (projectionLock) {
+                // Until this write every change reaches fresh through the registration,
+                // afterwards directly; a change is read against one set, so never both
+                projections = new ProjectionSet(fresh, without(projections.registered, registration));
+            }
+        });
+    }
+
+    private Registration register(PackageProjection projection) {
+        Registration registration = new Registration(projection);
+        synchronized (projectionLock) {
+            ProjectionSet current = projections;
+            Registration[] grown = Arrays.copyOf(current.registered, current.registered.length + 1);
+            grown[current.registered.length] = registration;
+            projections = new ProjectionSet(current.indexes, grown);
+        }
+        Thread backfill = new Thread(() -> backfill(registration), "ehc-projection-backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+        return registration;
+    }
+
+    // Returns false if it was already detached
+    private boolean detach(Registration registration) {
+        synchronized (projectionLock) {
+            if (registration.detached) {
+                return false;
+            }
+            registration.detached = true;
+            projections = new ProjectionSet(projections.indexes, without(projections.registered, registration));
             return true;
         }
+    }
+
+    private static Registration[] without(Registration[] registered, Registration removed) {
+        return Arrays.stream(registered).filter(r -> r != removed).toArray(Registration[]::new);
+    }
+
+    private void backfill(Registration registration) {
+        try {
+            // Writers read the projection set under their stripe lock, so once every lock
+            // has been passed through, all of them see the registration and any package
+            // created from here on is either in the id list below or recorded by it
+            for (Object lock : locks) {
+                synchronized (lock) {
+                    // Nothing to do, acquiring it is the point
+                }
+            }
+            long[][] idsByStripe = idsByStripe(indexes().getTrackingIdOrder());
+            IntStream.range(0, LOCK_STRIPES).parallel().forEach(stripe -> {
+                synchronized (locks[stripe]) {
+                    if (registration.detached) {
+                        return;
+                    }
+                    for (long trackingId : registration.backfillIds(stripe, idsByStripe[stripe])) {
+                        Package pkg = packages.get(trackingId);
+                        if (pkg != null) {
+                            registration.projection.added(trackingId, pkg);
+                        }
+                    }
+                    registration.live[stripe] = true;
+                }
+            });
+            if (registration.detached) {
+                registration.caughtUp.completeExceptionally(
+                        new IllegalStateException("Projection was removed before it caught up"));
+            } else {
+                registration.caughtUp.complete(null);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error backfilling projection: " + e.getMessage());
+            detach(registration);
+            registration.caughtUp.completeExceptionally(e);
+        }
+    }
+
+    private long[][] idsByStripe(ConcurrentSortedLongSet trackingIds) {
+        long[][] grouped = new long[LOCK_STRIPES][];
+        int[] counts = new int[LOCK_STRIPES];
+        int initial = (int) Math.min(trackingIds.size() / LOCK_STRIPES + 16, Integer.MAX_VALUE - 8);
+        for (ConcurrentSortedLongSet.Walk ids = trackingIds.walk(false); ids.next(); ) {
+            long trackingId = ids.first();
+            int stripe = stripeOf(trackingId);
+            if (grouped[stripe] == null) {
+                grouped[stripe] = new long[initial];
+            } else if (counts[stripe] == grouped[stripe].length) {
+                grouped[stripe] = Arrays.copyOf(grouped[stripe], counts[stripe] * 2);
+            }
+            grouped[stripe][counts[stripe]++] = trackingId;
+        }
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            grouped[stripe] = grouped[stripe] == null ? new long[0] : Arrays.copyOf(grouped[stripe], counts[stripe]);
+        }
+        return grouped;
+    }
+
+    // The project methods run under the id's lock
+    private void projectAdded(long trackingId, Package pkg) {
+        ProjectionSet current = projections;
+        current.indexes.added(trackingId, pkg);
+        for (Registration registration : current.registered) {
+            registration.added(trackingId, pkg);
+        }
+    }
+
+    private void projectAddedAll(int stripe, long[] trackingIds, Package[] pkgs) {
+        ProjectionSet current = projections;
+        current.indexes.addedAll(trackingIds, pkgs);
+        for (Registration registration : current.registered) {
+            registration.addedAll(stripe, trackingIds, pkgs);
+        }
+    }
+
+    private void projectUpdated(PackageMutation mutation, Package before, Package after) {
+        ProjectionSet current = projections;
+        current.indexes.updated(mutation, before, after);
+        for (Registration registration : current.registered) {
+            registration.updated(mutation, before, after);
+        }
+    }
+
+    // Replaced as a whole on every change, so a writer sees one consistent set
+    private static final class ProjectionSet {
+        final PackageIndexes indexes;
+        final Registration[] registered;
+
+        ProjectionSet(PackageIndexes indexes, Registration[] registered) {
+            this.indexes = indexes;
+            this.registered = registered;
+        }
+    }
+
+    // An added projection and its backfill progress. Until its stripe is live, a
+    // projection gets nothing for it: the backfill reads the latest state anyway, and
+    // only needs to be told about packages created in the meantime. The per-stripe
+    // fields are guarded by the stripe's lock.
+    private final class Registration {
+        final PackageProjection projection;
+        final CompletableFuture<Void> caughtUp = new CompletableFuture<>();
+        final boolean[] live = new boolean[LOCK_STRIPES];
+        final long[][] createdBehind = new long[LOCK_STRIPES][];
+        final int[] createdBehindCount = new int[LOCK_STRIPES];
+        volatile boolean detached;
+
+        Registration(PackageProjection projection) {
+            this.projection = projection;
+        }
+
+        void added(long trackingId, Package pkg) {
+            int stripe = stripeOf(trackingId);
+            if (!live[stripe]) {
+                recordBehind(stripe, trackingId);
+                return;
+            }
+            try {
+                projection.added(trackingId, pkg);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        void addedAll(int stripe, long[] trackingIds, Package[] pkgs) {
+            if (!live[stripe]) {
+                for (long trackingId : trackingIds) {
+                    recordBehind(stripe, trackingId);
+                }
+                return;
+            }
+            try {
+                projection.addedAll(trackingIds, pkgs);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        void updated(PackageMutation mutation, Package before, Package after) {
+            if (!live[stripeOf(mutation.getTrackingId())]) {
+                return;
+            }
+            try {
+                projection.updated(mutation, before, after);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+
+        private void recordBehind(int stripe, long trackingId) {
+            long[] ids = createdBehind[stripe];
+            if (ids == null) {
+                ids = createdBehind[stripe] = new long[16];
+            } else if (createdBehindCount[stripe] == ids.length) {
+                ids = createdBehind[stripe] = Arrays.copyOf(ids, ids.length * 2);
+            }
+            ids[createdBehindCount[stripe]++] = trackingId;
+        }
+
+        // The listed ids plus those created since the registration, without duplicates
+        long[] backfillIds(int stripe, long[] listed) {
+            int behind = createdBehindCount[stripe];
+            if (behind == 0) {
+                return listed;
+            }
+            long[] ids = Arrays.copyOf(listed, listed.length + behind);
+            System.arraycopy(createdBehind[stripe], 0, ids, listed.length, behind);
+            createdBehind[stripe] = null;
+            createdBehindCount[stripe] = 0;
+            Arrays.sort(ids);
+            int distinct = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i == 0 || ids[i] != ids[i - 1]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, distinct);
+        }
+
+        // A failing projection is dropped so that it cannot fail the writers
+        private void fail(RuntimeException e) {
+            if (detach(this)) {
+                System.err.println("Error in projection, removing it: " + e.getMessage());
+                caughtUp.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Writes a snapshot without pausing writers and drops the log segments and older
+    // snapshots it makes redundant
+    public Path writeSnapshot() throws IOException {
+        if (snapshots == null || log == null || !log.isOpen()) {
+            throw new IllegalStateException("Snapshots need an open write-ahead log");
+        }
+        synchronized (snapshotLock) {
+            long sequence = log.getLastSequence();
+            // Mutations are logged and applied under their id's lock, so once every
+            // lock has been passed through, everything up to this sequence is visible.
+            // Packages are immutable states, so the scan itself needs no locking.
+            for (Object lock : locks) {
+                synchronized (lock) {
+                    // Nothing to do, acquiring it is the point
+                }
+            }
+            Path path;
+            try (SnapshotManager.Writer writer = snapshots.newWriter(sequence)) {
+                try {
+                    packages.forEach(pkg -> {
+                        try {
+                            writer.write(TrackingNumbers.parse(pkg.getTrackingNumber()), pkg);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                path = writer.commit();
+            }
+            lastSnapshotSequence = sequence;
+            lastSnapshotMillis = System.currentTimeMillis();
+            log.deleteSegmentsThrough(snapshots.prune());
+            return path;
+        }
+    }
+
+    private void snapshotIfDue() {
+        long pending = log.getLastSequence() - lastSnapshotSequence;
+        boolean stale = System.currentTimeMillis() - lastSnapshotMillis >= SNAPSHOT_MAX_AGE_MILLIS;
+        if (pending >= SNAPSHOT_MIN_MUTATIONS || (pending > 0 && stale)) {
+            try {
+                writeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error writing snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    private void archiveFinishedPackages() {
+        try {
+            long now = System.currentTimeMillis();
+            int archived = 0;
+            for (long trackingId : tiers.archivableIds(now)) {
+                synchronized (lockFor(trackingId)) {
+                    if (tiers.archive(trackingId, now)) {
+                        archived++;
+                    }
+                }
+            }
+            if (archived > 0) {
+                System.out.println("Archived " + archived + " finished packages");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error archiving packages: " + e.getMessage());
+        }
+    }
+
+    private void recover() {
+        long snapshotSequence = 0;
+        if (snapshots != null) {
+            try {
+                List<Path> available = snapshots.list();
+                // Fall back to older snapshots if the newest is unreadable; replay is
+                // idempotent, so packages a failed load already restored do no harm
+                for (int i = available.size() - 1; i >= 0; i--) {
+                    Path snapshot = available.get(i);
+                    try {
+                        SnapshotManager.LoadResult loaded = snapshots.load(snapshot, this::restore);
+                        snapshotSequence = loaded.getSequence();
+                        System.out.printf("Loaded %d packages from %s: snapshot load %d ms, index build %d ms"
+                                + " (summed over loader threads)%n", loaded.getPackageCount(), snapshot.getFileName(),
+                                TimeUnit.NANOSECONDS.toMillis(loaded.getElapsedNanos()),
+                                TimeUnit.NANOSECONDS.toMillis(loaded.getTargetNanos()));
+                        break;
+                    } catch (IOException e) {
+                        System.err.println("Error loading snapshot " + snapshot.getFileName() + ": " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error listing snapshots: " + e.getMessage());
+            }
+        }
+        try {
+            long start = System.nanoTime();
+            long replayed;
+            ParallelReplay replay = new ParallelReplay(Runtime.getRuntime().availableProcessors(),
+                    this::replayLocked);
+            try {
+                replayed = log.open(snapshotSequence, replay);
+            } finally {
+                replay.finish();
+            }
+            System.out.printf("Replayed %d mutations from the write-ahead log: tail replay %d ms%n", replayed,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException e) {
+            // Running on would accept writes that are never persisted
+            throw new UncheckedIOException("Could not open the write-ahead log", e);
+        }
+        if (snapshots != null) {
+            lastSnapshotSequence = snapshotSequence;
+            lastSnapshotMillis = System.currentTimeMillis();
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ehc-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::snapshotIfDue, SNAPSHOT_CHECK_SECONDS,
+                    SNAPSHOT_CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    // Returns up to limit packages after the cursor in the given order, with a cursor
+    // for the next page. Costs O(log N + limit) either way. Pass Cursor.start() for the
+    // first page; later cursors only fit the order they were issued for. A package
+    // updated during a LAST_UPDATED scan moves to its new position, so it can show up
+    // again on a later page.
+    public ScanPage scan(Cursor cursor, int limit, ScanOrder order) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + limit);
+        }
+        if (!cursor.isStart() && cursor.getOrder() != order) {
+            throw new IllegalArgumentException("Cursor was issued for " + cursor.getOrder() + " order, not " + order);
+        }
+        List<Package> page = new ArrayList<>(Math.min(limit, 1024));
+        PackageIndexes indexes = indexes();
+        if (order == ScanOrder.TRACKING_NUMBER) {
+            ConcurrentSortedLongSet trackingIdOrder = indexes.getTrackingIdOrder();
+            ConcurrentSortedLongSet.Walk ids = cursor.isStart() ? trackingIdOrder.walk(false)
+                    : trackingIdOrder.walk(false, new long[] {cursor.getTrackingId()}, false, null);
+            long last = -1;
+            boolean more = ids.next();
+            while (page.size() < limit && more) {
+                last = ids.first();
+                Package pkg = packages.get(last);
+                if (pkg != null) {
+                    page.add(pkg);
+                }
+                more = ids.next();
+            }
+            return new ScanPage(page, more ? Cursor.after(order, 0, last) : null);
+        }
+        boolean descending = order == ScanOrder.LAST_UPDATED_DESCENDING;
+        ConcurrentSortedLongSet.Walk keys = cursor.isStart() ? indexes.getLastUpdatedIndex().walk(descending)
+                : indexes.getLastUpdatedIndex().after(cursor.getMillis(), cursor.getTrackingId(), descending);
+        long millis = 0;
+        long trackingId = -1;
+        boolean more = keys.next();
+        while (page.size() < limit && more) {
+            millis = keys.first();
+            trackingId = keys.second();
+            Package pkg = packages.get(trackingId);
+            // An entry can outlive its update for a moment; the package is listed under
+            // its new timestamp instead
+            if (pkg != null && EpochMillis.of(pkg.getLastUpdated()) == millis) {
+                page.add(pkg);
+            }
+            more = keys.next();
+        }
+        return new ScanPage(page, more ? Cursor.after(order, millis, trackingId) : null);
+    }
+
+    // Collects the packages matching the filter. When a time window is small enough to
+    // be walked through its index, results come oldest first within that window.
+    public List<Package> findPackages(PackageFilter filter) {
+        List<Package> results = new ArrayList<>();
+        forEachPackage(filter, results::add);
+        return results;
+    }
+
+    // Streams the packages matching the filter without collecting them, through
+    // whichever index selects the fewest candidates: a time window holding less than
+    // the selected statuses and less than 1/8 of the store is walked in its time
+    // index, a status filter selecting less than 1/8 goes through the status index,
+    // and anything else scans the store, which tests the filter before materializing
+    // each package. Packages updated during the walk are seen in either their old or
+    // their new state.
+    public void forEachPackage(PackageFilter filter, Consumer<Package> action) {
+        PackageIndexes indexes = indexes();
+        StatusIndex statusIndex = indexes.getStatusIndex();
+        TimeIndex createdIndex = indexes.getCreatedIndex();
+        TimeIndex lastUpdatedIndex = indexes.getLastUpdatedIndex();
+        long storeSize = packages.size();
+        long statusCount = filter.restrictsStatus() ? statusIndex.count(filter) : storeSize;
+        long windowLimit = Math.min(statusCount, storeSize / INDEX_SCAN_RATIO);
+        if (filter.restrictsUpdated() && !exceeds(
+                lastUpdatedIndex.range(filter.getUpdatedFrom(), filter.getUpdatedTo(), false), windowLimit)) {
+            forEachInWindow(lastUpdatedIndex.range(filter.getUpdatedFrom(), filter.getUpdatedTo(), false), true,
+                    filter, action);
+        } else if (filter.restrictsCreated() && !exceeds(
+                createdIndex.range(filter.getCreatedFrom(), filter.getCreatedTo(), false), windowLimit)) {
+            forEachInWindow(createdIndex.range(filter.getCreatedFrom(), filter.getCreatedTo(), false), false,
+                    filter, action);
+        } else if (filter.restrictsStatus() && statusCount * INDEX_SCAN_RATIO < storeSize) {
+            for (PackageStatus status : PackageStatus.values()) {
+                if (!filter.includes(status)) {
+                    continue;
+                }
+                statusIndex.getTrackingIds(status).forEach(id -> {
+                    Package pkg = packages.get(id);
+                    // Skip packages that have moved to another status since the index was read
+                    if (pkg != null && pkg.getStatus() == status && filter.matches(pkg)) {
+                        action.accept(pkg);
+                    }
+                });
+            }
+        } else {
+            packages.forEachMatching(filter, action);
+        }
+    }
+
+    // Counts at most limit + 1 entries, so probing a large window stays cheap
+    private static boolean exceeds(ConcurrentSortedLongSet.Walk window, long limit) {
+        long count = 0;
+        while (window.next()) {
+            if (++count > limit) {
+                return true;
+            }
+        }
         return false;
     }
 
+    private void forEachInWindow(ConcurrentSortedLongSet.Walk window, boolean byLastUpdated, PackageFilter filter,
+                                 Consumer<Package> action) {
+        while (window.next()) {
+            Package pkg = packages.get(window.second());
+            if (pkg == null || !filter.matches(pkg)) {
+                continue;
+            }
+            // A lastUpdated entry can outlive its update for a moment; the package is
+            // listed under its new timestamp instead
+            if (!byLastUpdated || EpochMillis.of(pkg.getLastUpdated()) == window.first()) {
+                action.accept(pkg);
+            }
+        }
+    }
+
+    // Runs the query through whichever indexes select the fewest candidates; see
+    // QueryPlanner. The result says which ones were used.
+    public QueryResult query(PackageQuery query) {
+        return new QueryPlanner(packages, indexes()).execute(query);
+    }
+
     public List<Package> getAllPackages() {
-        return new ArrayList<>(packages.values());
+        List<Package> all = new ArrayList<>(packages.size());
+        packages.forEach(all::add);
+        return all;
     }
 
     public int getTotalPackages() {
@@ -71,11 +1077,104 @@ public class DHLServer {
     }
 
     public Map<PackageStatus, Long> getPackageStatusSummary() {
-        return packages.values().stream()
-                .collect(Collectors.groupingBy(Package::getStatus, Collectors.counting()));
+        return indexes().getStatusIndex().summary();
+    }
+
+    public PackageCache getPackageCache() {
+        return cache;
+    }
+
+    // Packages moved to the on-disk archive; 0 unless the store is tiered
+    public int getArchivedPackageCount() {
+        return tiers == null ? 0 : tiers.getArchivedCount();
+    }
+
+    // Creates and status changes as they happen, including replayed and replicated ones
+    public ChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    public StringDictionary getStringDictionary() {
+        return strings;
     }
 
+    public Map<PackageStatus, Double> getPackageWeightSummary() {
+        return packages.weightByStatus();
+    }
+
+    private Object lockFor(long trackingId) {
+        return locks[stripeOf(trackingId)];
+    }
+
+    private static int stripeOf(long trackingId) {
+        return (int) (trackingId % LOCK_STRIPES);
+    }
+
+    // Port for the HTTP API that start() brings up: 0 picks a free port and -1, the
+    // default except for the application's own server, leaves it off
+    public void setHttpPort(int port) {
+        this.httpPort = port;
+    }
+
+    // Address the HTTP API binds to; loopback unless configured otherwise, as it has no
+    // authentication
+    public void setHttpAddress(InetAddress address) {
+        this.httpAddress = address;
+    }
+
+    // Port the HTTP API listens on, or -1 if it is not running
+    public int getHttpPort() {
+        return http == null ? -1 : http.getPort();
+    }
+
+    // Port for the scanner protocol, with the same meaning as setHttpPort. It is off by
+    // default, as the protocol has no authentication.
+    public void setScannerPort(int port) {
+        this.scannerPort = port;
+    }
+
+    // Address the scanner protocol binds to; loopback unless configured otherwise
+    public void setScannerAddress(InetAddress address) {
+        this.scannerAddress = address;
+    }
+
+    public int getScannerPort() {
+        return scanners == null ? -1 : scanners.getPort();
+    }
+
+    // Throws UncheckedIOException if the write-ahead log cannot be opened; the server then
+    // keeps refusing writes
     public void start() {
+        if (log != null && !log.isOpen()) {
+            recover();
+        }
+        if (scannerPort >= 0 && scanners == null) {
+            ScannerServer server = new ScannerServer(this, scannerAddress, scannerPort);
+            try {
+                server.start();
+                scanners = server;
+            } catch (IOException e) {
+                System.err.println("Error starting scanner protocol on port " + scannerPort + ": " + e.getMessage());
+            }
+        }
+        if (httpPort >= 0 && http == null) {
+            TrackingHttpServer api = new TrackingHttpServer(this, httpAddress, httpPort);
+            try {
+                api.start();
+                http = api;
+            } catch (IOException e) {
+                System.err.println("Error starting HTTP API on port " + httpPort + ": " + e.getMessage());
+            }
+        }
+        if (tiers != null && archiveScheduler == null) {
+            archiveScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ehc-archiver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            archiveScheduler.scheduleWithFixedDelay(this::archiveFinishedPackages, 0, ARCHIVE_CHECK_SECONDS,
+                    TimeUnit.SECONDS);
+        }
         isRunning = true;
         System.out.println("EHC Server started successfully!");
         System.out.println("Total packages in system: " + getTotalPackages());
@@ -83,6 +1182,47 @@ public class DHLServer {
 
     public void stop() {
         isRunning = false;
+        changes.close();
+        if (http != null) {
+            http.close();
+            http = null;
+        }
+        if (scanners != null) {
+            scanners.close();
+            scanners = null;
+        }
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+            try {
+                snapshotScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            snapshotScheduler = null;
+        }
+        if (archiveScheduler != null) {
+            archiveScheduler.shutdown();
+            try {
+                archiveScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            archiveScheduler = null;
+        }
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error closing write-ahead log: " + e.getMessage());
+            }
+        }
+        if (tiers != null) {
+            try {
+                tiers.close();
+            } catch (IOException e) {
+                System.err.println("Error closing package archive: " + e.getMessage());
+            }
+        }
         System.out.println("EHC Server stopped.");
     }
 
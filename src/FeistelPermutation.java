@@ -0,0 +1,84 @@
+// Keyed bijection over [0, domain) used to make sequential tracking numbers
+// non-guessable. A balanced Feistel network permutes the enclosing power-of-two
+// range, and cycle walking folds it back into the domain. Because the enclosing
+// range is less than twice the domain, the expected number of walks stays below two.
+public class FeistelPermutation {
+    private static final int ROUNDS = 4;
+
+    private final long domain;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys;
+
+    public FeistelPermutation(long domain, long key) {
+        if (domain < 2) {
+            throw new IllegalArgumentException("Domain too small: " + domain);
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(domain - 1);
+        this.domain = domain;
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+        this.roundKeys = new long[ROUNDS];
+        long state = key;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(state);
+        }
+    }
+
+    public long apply(long value) {
+        checkRange(value);
+        long result = value;
+        do {
+            result = encrypt(result);
+        } while (result >= domain);
+        return result;
+    }
+
+    public long invert(long value) {
+        checkRange(value);
+        long result = value;
+        do {
+            result = decrypt(result);
+        } while (result >= domain);
+        return result;
+    }
+
+    private long encrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (int i = 0; i < ROUNDS; i++) {
+            long next = left ^ round(right, i);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private long decrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (int i = ROUNDS - 1; i >= 0; i--) {
+            long previous = right ^ round(left, i);
+            right = left;
+            left = previous;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private long round(long half, int round) {
+        return mix(half ^ roundKeys[round]) & halfMask;
+    }
+
+    private void checkRange(long value) {
+        if (value < 0 || value >= domain) {
+            throw new IllegalArgumentException("Value outside permutation domain: " + value);
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.function.Consumer;
+
+public class HeapPackageStore implements PackageStore {
+    private final LongPackageMap packages;
+
+    public HeapPackageStore() {
+        this.packages = new LongPackageMap();
+    }
+
+    @Override
+    public Package get(long trackingId) {
+        return packages.get(trackingId);
+    }
+
+    @Override
+    public boolean insert(long trackingId, Package pkg) {
+        return packages.putIfAbsent(trackingId, pkg) == null;
+    }
+
+    @Override
+    public Package updateStatus(PackageMutation mutation) {
+        long trackingId = mutation.getTrackingId();
+        while (true) {
+            Package current = packages.get(trackingId);
+            if (current == null) {
+                return null;
+            }
+            Package next = current.withStatusUpdate(mutation);
+            if (packages.replace(trackingId, current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Not part of PackageStore; TieredPackageStore uses it to move packages out
+    public boolean remove(long trackingId) {
+        return packages.remove(trackingId) != null;
+    }
+
+    @Override
+    public int size() {
+        return packages.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Package> action) {
+        packages.forEach(action);
+    }
+}
@@ -0,0 +1,124 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// Insert-only concurrent map from non-negative longs to non-negative ints, laid out
+// like LongPackageMap with a parallel int[] instead of a Package[]. Used to map
+// tracking ids to row numbers without boxing either side.
+public class LongIntMap {
+    public static final int NO_VALUE = -1;
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+    private static final long EMPTY = -1L;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final Segment[] segments;
+
+    public LongIntMap() {
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public int get(long key) {
+        if (key < 0) {
+            return NO_VALUE;
+        }
+        long hash = hash(key);
+        Table table = segmentFor(hash).table;
+        int mask = table.keys.length - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long slotKey = (long) KEYS.getAcquire(table.keys, i);
+            if (slotKey == key) {
+                return (int) VALUES.getAcquire(table.values, i);
+            }
+            if (slotKey == EMPTY) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    // Returns the existing value if the key was already present, otherwise NO_VALUE
+    public int putIfAbsent(long key, int value) {
+        if (key < 0 || value < 0) {
+            throw new IllegalArgumentException("Negative key or value: " + key + " -> " + value);
+        }
+        long hash = hash(key);
+        return segmentFor(hash).putIfAbsent(key, hash, value);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Table {
+        final long[] keys;
+        final int[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        volatile int size;
+
+        synchronized int putIfAbsent(long key, long hash, int value) {
+            Table current = table;
+            int mask = current.keys.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slotKey = current.keys[i];
+                if (slotKey == key) {
+                    return current.values[i];
+                }
+                if (slotKey == EMPTY) {
+                    break;
+                }
+            }
+            if ((size + 1) * 4L > current.keys.length * 3L) {
+                Table resized = new Table(current.keys.length << 1);
+                for (int i = 0; i < current.keys.length; i++) {
+                    if (current.keys[i] != EMPTY) {
+                        insert(resized, current.keys[i], hash(current.keys[i]), current.values[i]);
+                    }
+                }
+                table = resized;
+                current = resized;
+            }
+            insert(current, key, hash, value);
+            size = size + 1;
+            return NO_VALUE;
+        }
+
+        private static void insert(Table target, long key, long hash, int value) {
+            int mask = target.keys.length - 1;
+            int i = (int) hash & mask;
+            while (target.keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            VALUES.setRelease(target.values, i, value);
+            KEYS.setRelease(target.keys, i, key);
+        }
+    }
+}
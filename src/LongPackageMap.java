@@ -0,0 +1,223 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Concurrent open-addressing map from tracking number bodies to packages. Keys live
+// in primitive long[] slots next to a parallel Package[] so there are no boxed keys
+// and no per-entry node objects. Writers take a per-segment lock; readers never lock
+// and rely on release/acquire ordering of the key slot, which is always published
+// after its value. Replacing a value is a single release store, so readers see
+// either the old package or the new one. Removed slots become tombstones until the
+// next resize so probe chains stay intact for concurrent readers.
+public class LongPackageMap {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 64;
+    private static final long EMPTY = -1L;
+    private static final long TOMBSTONE = -2L;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Package[].class);
+
+    private final Segment[] segments;
+
+    public LongPackageMap() {
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public Package get(long key) {
+        checkKey(key);
+        long hash = hash(key);
+        Table table = segmentFor(hash).table;
+        int mask = table.keys.length - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long slotKey = (long) KEYS.getAcquire(table.keys, i);
+            if (slotKey == key) {
+                return (Package) VALUES.getAcquire(table.values, i);
+            }
+            if (slotKey == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    // Returns the existing package if the key was already present, otherwise null
+    public Package putIfAbsent(long key, Package value) {
+        checkKey(key);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        long hash = hash(key);
+        return segmentFor(hash).putIfAbsent(key, hash, value);
+    }
+
+    // Swaps in the new value only if the key currently maps to expected (by identity)
+    public boolean replace(long key, Package expected, Package value) {
+        checkKey(key);
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        long hash = hash(key);
+        return segmentFor(hash).replace(key, hash, expected, value);
+    }
+
+    // Returns the removed package, or null if the key was absent
+    public Package remove(long key) {
+        checkKey(key);
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public void forEach(Consumer<Package> action) {
+        for (Segment segment : segments) {
+            Table table = segment.table;
+            for (int i = 0; i < table.keys.length; i++) {
+                if ((long) KEYS.getAcquire(table.keys, i) >= 0) {
+                    Package value = (Package) VALUES.getAcquire(table.values, i);
+                    if (value != null) {
+                        action.accept(value);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<Package> values() {
+        List<Package> values = new ArrayList<>(size());
+        forEach(values::add);
+        return values;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static void checkKey(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+    }
+
+    private static long hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Table {
+        final long[] keys;
+        final Package[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Package[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        volatile int size;
+        int used;
+
+        synchronized Package putIfAbsent(long key, long hash, Package value) {
+            Table current = table;
+            int mask = current.keys.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slotKey = current.keys[i];
+                if (slotKey == key) {
+                    return current.values[i];
+                }
+                if (slotKey == EMPTY) {
+                    break;
+                }
+            }
+            if ((used + 1) * 4L > current.keys.length * 3L) {
+                current = resize(current);
+            }
+            insert(current, key, hash, value);
+            used++;
+            size = size + 1;
+            return null;
+        }
+
+        synchronized boolean replace(long key, long hash, Package expected, Package value) {
+            Table current = table;
+            int mask = current.keys.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slotKey = current.keys[i];
+                if (slotKey == key) {
+                    if (current.values[i] != expected) {
+                        return false;
+                    }
+                    VALUES.setRelease(current.values, i, value);
+                    return true;
+                }
+                if (slotKey == EMPTY) {
+                    return false;
+                }
+            }
+        }
+
+        synchronized Package remove(long key, long hash) {
+            Table current = table;
+            int mask = current.keys.length - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slotKey = current.keys[i];
+                if (slotKey == key) {
+                    Package removed = current.values[i];
+                    KEYS.setRelease(current.keys, i, TOMBSTONE);
+                    VALUES.setRelease(current.values, i, null);
+                    size = size - 1;
+                    return removed;
+                }
+                if (slotKey == EMPTY) {
+                    return null;
+                }
+            }
+        }
+
+        // Tombstones are not reused, so a reader probing past one never meets a
+        // different key in its place
+        private void insert(Table target, long key, long hash, Package value) {
+            int mask = target.keys.length - 1;
+            int i = (int) hash & mask;
+            while (target.keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            VALUES.setRelease(target.values, i, value);
+            KEYS.setRelease(target.keys, i, key);
+        }
+
+        private Table resize(Table current) {
+            int live = size;
+            int capacity = current.keys.length;
+            while ((live + 1) * 4L > capacity * 3L / 2) {
+                capacity <<= 1;
+            }
+            Table resized = new Table(capacity);
+            for (int i = 0; i < current.keys.length; i++) {
+                long key = current.keys[i];
+                if (key >= 0) {
+                    insert(resized, key, hash(key), current.values[i]);
+                }
+            }
+            used = live;
+            table = resized;
+            return resized;
+        }
+    }
+}
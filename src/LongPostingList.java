@@ -0,0 +1,49 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+// Append-only list of tracking ids. Appends are serialized; readers take the
+// volatile size first and then the array, which is always at least that long.
+public class LongPostingList {
+    private volatile long[] ids;
+    private volatile int size;
+
+    public LongPostingList() {
+        this.ids = new long[4];
+    }
+
+    public synchronized void add(long id) {
+        long[] current = ids;
+        int n = size;
+        if (n == current.length) {
+            current = Arrays.copyOf(current, n + (n >> 1) + 1);
+            ids = current;
+        }
+        current[n] = id;
+        size = n + 1;
+    }
+
+    public synchronized void addAll(LongPostingList other) {
+        int count = other.size;
+        long[] source = other.ids;
+        long[] current = ids;
+        int n = size;
+        if (n + count > current.length) {
+            current = Arrays.copyOf(current, Math.max(n + count, n + (n >> 1) + 1));
+            ids = current;
+        }
+        System.arraycopy(source, 0, current, n, count);
+        size = n + count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(LongConsumer action) {
+        int n = size;
+        long[] current = ids;
+        for (int i = 0; i < n; i++) {
+            action.accept(current[i]);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A file addressed by long offsets and mapped lazily in fixed-size chunks, so it can
+// grow past the 2 GB limit of a single MappedByteBuffer. Only absolute buffer
+// accessors are used, which makes concurrent access to disjoint ranges safe.
+// Callers must not let a single value straddle a chunk boundary.
+public class MappedFile implements Closeable {
+    private final FileChannel channel;
+    private final int chunkBits;
+    private final long chunkSize;
+    private volatile MappedByteBuffer[] chunks;
+
+    public MappedFile(Path path, int chunkBits, boolean truncate) throws IOException {
+        if (truncate) {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        this.chunkBits = chunkBits;
+        this.chunkSize = 1L << chunkBits;
+        this.chunks = new MappedByteBuffer[0];
+    }
+
+    public long chunkSize() {
+        return chunkSize;
+    }
+
+    public long getLong(long offset) {
+        return chunk(offset).getLong(position(offset));
+    }
+
+    public void putLong(long offset, long value) {
+        chunk(offset).putLong(position(offset), value);
+    }
+
+    public int getInt(long offset) {
+        return chunk(offset).getInt(position(offset));
+    }
+
+    public void putInt(long offset, int value) {
+        chunk(offset).putInt(position(offset), value);
+    }
+
+    public double getDouble(long offset) {
+        return chunk(offset).getDouble(position(offset));
+    }
+
+    public void putDouble(long offset, double value) {
+        chunk(offset).putDouble(position(offset), value);
+    }
+
+    public byte get(long offset) {
+        return chunk(offset).get(position(offset));
+    }
+
+    public void put(long offset, byte value) {
+        chunk(offset).put(position(offset), value);
+    }
+
+    public void get(long offset, byte[] target) {
+        chunk(offset).get(position(offset), target);
+    }
+
+    public void put(long offset, byte[] source) {
+        chunk(offset).put(position(offset), source);
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    public void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private int position(long offset) {
+        return (int) (offset & (chunkSize - 1));
+    }
+
+    private MappedByteBuffer chunk(long offset) {
+        int index = (int) (offset >>> chunkBits);
+        MappedByteBuffer[] current = chunks;
+        if (index < current.length) {
+            return current[index];
+        }
+        return mapThrough(index);
+    }
+
+    private synchronized MappedByteBuffer mapThrough(int index) {
+        MappedByteBuffer[] current = chunks;
+        if (index < current.length) {
+            return current[index];
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(current, index + 1);
+        try {
+            for (int i = current.length; i <= index; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * chunkSize, chunkSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map chunk " + index, e);
+        }
+        chunks = grown;
+        return grown[index];
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Off-heap package store. Every package is a fixed-width record in a memory-mapped
+// records file; its strings and tracking events are appended to a memory-mapped data
+// file. The only per-package heap cost is the id -> record entry in a LongIntMap, so
+// heap use stays flat while the OS page cache holds the packages. Both files are
+// scratch space and are recreated on open. Packages handed out are materialized
+// copies; readers copy a record optimistically and retry if its stamp moved, the
+// same seqlock scheme ColumnarPackageStore uses. Data blocks are never rewritten, so
+// only the record itself needs that check.
+//
+// Record layout (64 bytes):
+//   0  long   tracking id
+//   8  long   sequence of the last applied mutation
+//   16 double weight
+//   24 long   created at (epoch millis)
+//   32 long   last updated (epoch millis)
+//   40 long   data offset of the string block
+//   48 long   data offset of the newest event, events link back to older ones
+//   56 int    stamp, twice the version and odd while an update is in progress
+//   60 byte   status ordinal
+//
+// String block: sender name, sender address, recipient name, recipient address,
+// description, each as [int length][UTF-8 bytes].
+// Event block: [long previous event offset][long timestamp][event string][description string],
+// the oldest event's previous offset is 0.
+public class MappedPackageStore implements PackageStore, Closeable {
+    private static final int RECORD_SIZE = 64;
+    private static final int RECORD_CHUNK_BITS = 26;
+    private static final int DATA_CHUNK_BITS = 28;
+    private static final long NO_OFFSET = 0L;
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+
+    private static final int ID = 0;
+    private static final int SEQUENCE = 8;
+    private static final int WEIGHT = 16;
+    private static final int CREATED_AT = 24;
+    private static final int LAST_UPDATED = 32;
+    private static final int STRINGS = 40;
+    private static final int HISTORY_HEAD = 48;
+    private static final int STAMP = 56;
+    private static final int STATUS = 60;
+
+    private final MappedFile records;
+    private final MappedFile data;
+    private final LongIntMap index;
+    private volatile int recordCount;
+    private long dataEnd;
+
+    public MappedPackageStore(Path directory) throws IOException {
+        this(directory, RECORD_CHUNK_BITS, DATA_CHUNK_BITS);
+    }
+
+    // Smaller chunks let a check cross chunk boundaries without writing gigabytes
+    MappedPackageStore(Path directory, int recordChunkBits, int dataChunkBits) throws IOException {
+        Files.createDirectories(directory);
+        this.records = new MappedFile(directory.resolve("packages.rec"), recordChunkBits, true);
+        this.data = new MappedFile(directory.resolve("packages.dat"), dataChunkBits, true);
+        this.index = new LongIntMap();
+        this.recordCount = 0;
+        // Offset 0 is reserved so it can mean "no event"
+        this.dataEnd = Long.BYTES;
+    }
+
+    @Override
+    public Package get(long trackingId) {
+        int record = index.get(trackingId);
+        return record == LongIntMap.NO_VALUE ? null : read(recordOffset(record));
+    }
+
+    @Override
+    public synchronized boolean insert(long trackingId, Package pkg) {
+        if (index.get(trackingId) != LongIntMap.NO_VALUE) {
+            return false;
+        }
+        int record = recordCount;
+        long base = recordOffset(record);
+        long strings = appendStrings(pkg.getSenderName(), pkg.getSenderAddress(),
+                pkg.getRecipientName(), pkg.getRecipientAddress(), pkg.getDescription());
+        long head = NO_OFFSET;
+        long[] previous = {head};
+        TrackingHistory.of(pkg.getTrackingHistory()).forEachEvent((timestamp, event, description) ->
+                previous[0] = appendEvent(previous[0], timestamp, event, description));
+        head = previous[0];
+        records.putLong(base + ID, trackingId);
+        records.putLong(base + SEQUENCE, pkg.getSequence());
+        records.put(base + STATUS, (byte) pkg.getStatus().ordinal());
+        records.putDouble(base + WEIGHT, pkg.getWeight());
+        records.putLong(base + CREATED_AT, EpochMillis.of(pkg.getCreatedAt()));
+        records.putLong(base + LAST_UPDATED, EpochMillis.of(pkg.getLastUpdated()));
+        records.putLong(base + STRINGS, strings);
+        records.putLong(base + HISTORY_HEAD, head);
+        VarHandle.storeStoreFence();
+        records.putInt(base + STAMP, (int) (pkg.getVersion() << 1));
+        recordCount = record + 1;
+        index.putIfAbsent(trackingId, record);
+        return true;
+    }
+
+    @Override
+    public Package updateStatus(PackageMutation mutation) {
+        int record = index.get(mutation.getTrackingId());
+        if (record == LongIntMap.NO_VALUE) {
+            return null;
+        }
+        long base = recordOffset(record);
+        TrackingEvent event = Package.statusEvent(mutation);
+        long head = appendEvent(records.getLong(base + HISTORY_HEAD), mutation.getTimestamp(), event.getEvent(),
+                event.getDescription());
+        int stamp = records.getInt(base + STAMP);
+        records.putInt(base + STAMP, stamp + 1);
+        VarHandle.storeStoreFence();
+        records.put(base + STATUS, (byte) mutation.getStatus().ordinal());
+        records.putLong(base + LAST_UPDATED, mutation.getTimestamp());
+        records.putLong(base + SEQUENCE, mutation.getSequence());
+        records.putLong(base + HISTORY_HEAD, head);
+        VarHandle.storeStoreFence();
+        records.putInt(base + STAMP, stamp + 2);
+        return read(base);
+    }
+
+    @Override
+    public int size() {
+        return recordCount;
+    }
+
+    @Override
+    public void forEach(Consumer<Package> action) {
+        int count = recordCount;
+        for (int record = 0; record < count; record++) {
+            action.accept(read(recordOffset(record)));
+        }
+    }
+
+    @Override
+    public void forEachMatching(PackageFilter filter, Consumer<Package> action) {
+        int count = recordCount;
+        for (int record = 0; record < count; record++) {
+            long base = recordOffset(record);
+            if (filter.matches(records.get(base + STATUS), records.getLong(base + CREATED_AT),
+                    records.getLong(base + LAST_UPDATED))) {
+                Package pkg = read(base);
+                if (filter.matches(pkg)) {
+                    action.accept(pkg);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<PackageStatus, Double> weightByStatus() {
+        double[] totals = new double[STATUSES.length];
+        boolean[] seen = new boolean[STATUSES.length];
+        int count = recordCount;
+        for (int record = 0; record < count; record++) {
+            long base = recordOffset(record);
+            int status = records.get(base + STATUS);
+            totals[status] += records.getDouble(base + WEIGHT);
+            seen[status] = true;
+        }
+        Map<PackageStatus, Double> result = new EnumMap<>(PackageStatus.class);
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (seen[i]) {
+                result.put(STATUSES[i], totals[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+        data.close();
+    }
+
+    private static long recordOffset(int record) {
+        return (long) record * RECORD_SIZE;
+    }
+
+    private long appendStrings(String... values) {
+        byte[][] encoded = new byte[values.length][];
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + encoded[i].length;
+        }
+        long offset = reserve(size);
+        long position = offset;
+        for (byte[] value : encoded) {
+            position = writeString(position, value);
+        }
+        return offset;
+    }
+
+    private long appendEvent(long previous, long timestamp, String event, String eventDescription) {
+        byte[] name = event.getBytes(StandardCharsets.UTF_8);
+        byte[] description = eventDescription.getBytes(StandardCharsets.UTF_8);
+        long offset = reserve(2 * Long.BYTES + 2 * Integer.BYTES + name.length + description.length);
+        data.putLong(offset, previous);
+        data.putLong(offset + Long.BYTES, timestamp);
+        writeString(writeString(offset + 2 * Long.BYTES, name), description);
+        return offset;
+    }
+
+    // Blocks never straddle a data chunk, so every read and write stays in one mapping
+    private synchronized long reserve(int size) {
+        long chunkSize = data.chunkSize();
+        if (size > chunkSize) {
+            throw new IllegalArgumentException("Package data too large: " + size + " bytes");
+        }
+        long offset = dataEnd;
+        if ((offset & (chunkSize - 1)) + size > chunkSize) {
+            offset = (offset | (chunkSize - 1)) + 1;
+        }
+        dataEnd = offset + size;
+        return offset;
+    }
+
+    private long writeString(long offset, byte[] value) {
+        data.putInt(offset, value.length);
+        data.put(offset + Integer.BYTES, value);
+        return offset + Integer.BYTES + value.length;
+    }
+
+    private String readString(long offset) {
+        byte[] value = new byte[data.getInt(offset)];
+        data.get(offset + Integer.BYTES, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private Package read(long base) {
+        while (true) {
+            int stamp = records.getInt(base + STAMP);
+            VarHandle.loadLoadFence();
+            long trackingId = records.getLong(base + ID);
+            long sequence = records.getLong(base + SEQUENCE);
+            double weight = records.getDouble(base + WEIGHT);
+            long createdAt = records.getLong(base + CREATED_AT);
+            long lastUpdated = records.getLong(base + LAST_UPDATED);
+            long strings = records.getLong(base + STRINGS);
+            long head = records.getLong(base + HISTORY_HEAD);
+            byte status = records.get(base + STATUS);
+            VarHandle.loadLoadFence();
+            if ((stamp & 1) != 0 || records.getInt(base + STAMP) != stamp) {
+                Thread.onSpinWait();
+                continue;
+            }
+            String[] fields = new String[5];
+            long position = strings;
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = readString(position);
+                position += Integer.BYTES + data.getInt(position);
+            }
+            return new Package(TrackingNumbers.format(trackingId), fields[0], fields[1], fields[2], fields[3],
+                    weight, fields[4], STATUSES[status], EpochMillis.toLocalDateTime(createdAt),
+                    EpochMillis.toLocalDateTime(lastUpdated), readHistory(head), stamp >>> 1, sequence);
+        }
+    }
+
+    // Events are linked newest first, so collect the offsets and encode them in reverse
+    private TrackingHistory readHistory(long head) {
+        long[] offsets = new long[8];
+        int count = 0;
+        for (long offset = head; offset != NO_OFFSET; offset = data.getLong(offset)) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+        }
+        TrackingHistory.Builder history = new TrackingHistory.Builder();
+        for (int i = count - 1; i >= 0; i--) {
+            long nameOffset = offsets[i] + 2 * Long.BYTES;
+            long descriptionOffset = nameOffset + Integer.BYTES + data.getInt(nameOffset);
+            history.add(data.getLong(offsets[i] + Long.BYTES), readString(nameOffset), readString(descriptionOffset));
+        }
+        return history.build();
+    }
+}
@@ -1,22 +1,43 @@
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
 
+// An immutable state of a package. A status update produces a new state with the next
+// version instead of modifying this one, so a reader holding a Package always sees a
+// status, timestamp and history that belong together.
 public class Package {
-    private String trackingNumber;
-    private String senderName;
-    private String senderAddress;
-    private String recipientName;
-    private String recipientAddress;
-    private PackageStatus status;
-    private LocalDateTime createdAt;
-    private LocalDateTime lastUpdated;
-    private List<TrackingEvent> trackingHistory;
-    private double weight;
-    private String description;
-
-    public Package(String trackingNumber, String senderName, String senderAddress, 
+    private final String trackingNumber;
+    private final String senderName;
+    private final String senderAddress;
+    private final String recipientName;
+    private final String recipientAddress;
+    private final PackageStatus status;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime lastUpdated;
+    private final TrackingHistory trackingHistory;
+    private final double weight;
+    private final String description;
+    private final long version;
+    private final long sequence;
+
+    public Package(String trackingNumber, String senderName, String senderAddress,
                    String recipientName, String recipientAddress, double weight, String description) {
+        this(trackingNumber, senderName, senderAddress, recipientName, recipientAddress, weight, description,
+             LocalDateTime.now());
+    }
+
+    public Package(String trackingNumber, String senderName, String senderAddress,
+                   String recipientName, String recipientAddress, double weight, String description,
+                   LocalDateTime createdAt) {
+        this(trackingNumber, senderName, senderAddress, recipientName, recipientAddress, weight, description,
+             PackageStatus.CREATED, createdAt, createdAt, TrackingHistory.created(EpochMillis.of(createdAt)), 1, 0);
+    }
+
+    // Rebuilds a package from persisted state. A TrackingHistory is kept as is; any
+    // other list is encoded into one.
+    public Package(String trackingNumber, String senderName, String senderAddress,
+                   String recipientName, String recipientAddress, double weight, String description,
+                   PackageStatus status, LocalDateTime createdAt, LocalDateTime lastUpdated,
+                   List<TrackingEvent> trackingHistory, long version, long sequence) {
         this.trackingNumber = trackingNumber;
         this.senderName = senderName;
         this.senderAddress = senderAddress;
@@ -24,21 +45,38 @@ public class Package {
         this.recipientAddress = recipientAddress;
         this.weight = weight;
         this.description = description;
-        this.status = PackageStatus.CREATED;
-        this.createdAt = LocalDateTime.now();
-        this.lastUpdated = LocalDateTime.now();
-        this.trackingHistory = new ArrayList<>();
-        addTrackingEvent("Package created", "Initial package creation");
+        this.status = status;
+        this.createdAt = createdAt;
+        this.lastUpdated = lastUpdated;
+        this.trackingHistory = TrackingHistory.of(trackingHistory);
+        this.version = version;
+        this.sequence = sequence;
+    }
+
+    public static Package created(PackageMutation mutation) {
+        LocalDateTime createdAt = EpochMillis.toLocalDateTime(mutation.getTimestamp());
+        return new Package(TrackingNumbers.format(mutation.getTrackingId()), mutation.getSenderName(),
+                mutation.getSenderAddress(), mutation.getRecipientName(), mutation.getRecipientAddress(),
+                mutation.getWeight(), mutation.getDescription(), PackageStatus.CREATED, createdAt, createdAt,
+                TrackingHistory.created(mutation.getTimestamp()), 1, mutation.getSequence());
+    }
+
+    // Returns the next version of this package with a STATUS_UPDATE mutation applied
+    public Package withStatusUpdate(PackageMutation mutation) {
+        LocalDateTime timestamp = EpochMillis.toLocalDateTime(mutation.getTimestamp());
+        return new Package(trackingNumber, senderName, senderAddress, recipientName, recipientAddress, weight,
+                description, mutation.getStatus(), createdAt, timestamp, statusHistory(trackingHistory, mutation),
+                version + 1, mutation.getSequence());
     }
 
-    public void updateStatus(PackageStatus newStatus, String location, String description) {
-        this.status = newStatus;
-        this.lastUpdated = LocalDateTime.now();
-        addTrackingEvent(newStatus.toString(), location + " - " + description);
+    static TrackingHistory statusHistory(TrackingHistory history, PackageMutation mutation) {
+        return history.withStatusEvent(mutation.getTimestamp(), mutation.getStatus(), mutation.getLocation(),
+                mutation.getDescription());
     }
 
-    private void addTrackingEvent(String event, String description) {
-        trackingHistory.add(new TrackingEvent(LocalDateTime.now(), event, description));
+    static TrackingEvent statusEvent(PackageMutation mutation) {
+        return new TrackingEvent(EpochMillis.toLocalDateTime(mutation.getTimestamp()),
+                mutation.getStatus().toString(), mutation.getLocation() + " - " + mutation.getDescription());
     }
 
     // Getters
@@ -50,13 +88,18 @@ public class Package {
     public PackageStatus getStatus() { return status; }
     public LocalDateTime getCreatedAt() { return createdAt; }
     public LocalDateTime getLastUpdated() { return lastUpdated; }
+    // Decoded on access; iterate rather than index into it
     public List<TrackingEvent> getTrackingHistory() { return trackingHistory; }
     public double getWeight() { return weight; }
     public String getDescription() { return description; }
+    // Starts at 1 and goes up by one with every status update
+    public long getVersion() { return version; }
+    // Sequence of the last logged mutation applied to this package, 0 if none
+    public long getSequence() { return sequence; }
 
     @Override
     public String toString() {
-        return String.format("Package[%s] from %s to %s - Status: %s", 
-                           trackingNumber, senderName, recipientName, status);
+        return String.format("Package[%s] from %s to %s - Status: %s",
+                           getTrackingNumber(), getSenderName(), getRecipientName(), getStatus());
     }
-}
\ No newline at end of file
+}
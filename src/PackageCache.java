@@ -0,0 +1,358 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Size-bounded read cache for DHLServer.findPackage with W-TinyLFU admission.
+//
+// New entries enter a small LRU window (1% of capacity). Entries falling out of the
+// window compete with the least recently used entry of the main area's probation
+// segment, and the one seen more often according to a count-min frequency sketch
+// stays. Entries hit again in probation move to the protected segment (80% of the
+// main area). A burst of one-off lookups therefore only churns the window, while
+// shipments that are refreshed constantly stay cached.
+//
+// Invalidation is per package. A lookup that misses reads its stripe's generation
+// before going to the store and fills the cache only if the generation is
+// unchanged, while invalidate bumps it. A lookup that raced with an update can
+// therefore never cache the state from before the update.
+//
+// Hits take no lock. Entries live in a concurrent map, and each lookup only records
+// its key in one of several small ring buffers, picked by thread. The buffers are
+// lossy: a full or contended buffer drops the record, which costs a little recency
+// and frequency information but never correctness. Whoever finds a buffer full
+// replays all of them into the sketch and the LRU queues, but only if it gets the
+// eviction lock without waiting. Fills, which may evict, take that lock; invalidate
+// removes the entry from the map at once and leaves unlinking it from its queue to
+// the next holder of the lock.
+public class PackageCache {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int GENERATION_STRIPES = 256;
+    private static final int READ_BUFFERS = 16;
+    private static final int READ_BUFFER_SIZE = 32;
+
+    private final int capacity;
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final ConcurrentHashMap<Long, Node> nodes;
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+    // Nodes invalidate took out of the map but not yet out of their queue
+    private final Queue<Node> removed = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // The queues and the sketch are guarded by evictionLock
+    private final Node[] queues = {new Node(), new Node(), new Node()};
+    private final int[] queueSizes = new int[3];
+    private final FrequencySketch sketch;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PackageCache(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Cache capacity must be at least 2: " + capacity);
+        }
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.protectedCapacity = (capacity - windowCapacity) * 4 / 5;
+        this.nodes = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+        this.sketch = new FrequencySketch(capacity);
+        for (Node head : queues) {
+            head.prev = head;
+            head.next = head;
+        }
+        for (int i = 0; i < READ_BUFFERS; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    public Package get(long trackingId) {
+        Node node = nodes.get(trackingId);
+        if (node == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        // Misses are recorded too, so the sketch knows how popular a candidate is
+        ReadBuffer buffer = readBuffers[bufferIndex()];
+        if (!buffer.offer(trackingId) && evictionLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return node == null ? null : node.value;
+    }
+
+    private static int bufferIndex() {
+        int hash = System.identityHashCode(Thread.currentThread()) * 0x9E3779B9;
+        return (hash >>> 16) & (READ_BUFFERS - 1);
+    }
+
+    // Read before going to the store on a miss and passed back to putIfCurrent
+    public long generation(long trackingId) {
+        return generations.get(stripeOf(trackingId));
+    }
+
+    public void putIfCurrent(long trackingId, Package pkg, long generation) {
+        int stripe = stripeOf(trackingId);
+        if (generations.get(stripe) != generation) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            drainBuffers();
+            Node node = new Node(trackingId, pkg);
+            if (nodes.putIfAbsent(trackingId, node) != null) {
+                return;
+            }
+            link(node, WINDOW);
+            // invalidate bumps the generation before removing from the map, so either
+            // it saw this node and removes it, or the generation has moved on here
+            if (generations.get(stripe) != generation) {
+                nodes.remove(trackingId, node);
+                unlink(node);
+                return;
+            }
+            if (queueSizes[WINDOW] > windowCapacity) {
+                Node candidate = queues[WINDOW].next;
+                unlink(candidate);
+                admit(candidate);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Called after every change to a package, while the package's lock is held
+    public void invalidate(long trackingId) {
+        generations.incrementAndGet(stripeOf(trackingId));
+        Node node = nodes.remove(trackingId);
+        if (node != null) {
+            removed.add(node);
+        }
+    }
+
+    // Caller holds evictionLock
+    private void drainBuffers() {
+        Node node;
+        while ((node = removed.poll()) != null) {
+            unlink(node);
+        }
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+    // Caller holds evictionLock
+    private void recordRead(long trackingId) {
+        sketch.increment(trackingId);
+        Node node = nodes.get(trackingId);
+        if (node == null || node.queue < 0) {
+            return;
+        }
+        if (node.queue == PROBATION) {
+            unlink(node);
+            link(node, PROTECTED);
+            if (queueSizes[PROTECTED] > protectedCapacity) {
+                Node demoted = queues[PROTECTED].next;
+                unlink(demoted);
+                link(demoted, PROBATION);
+            }
+        } else {
+            int queue = node.queue;
+            unlink(node);
+            link(node, queue);
+        }
+    }
+
+    private void admit(Node candidate) {
+        if (queueSizes[PROBATION] + queueSizes[PROTECTED] < capacity - windowCapacity) {
+            link(candidate, PROBATION);
+            return;
+        }
+        Node victim = queues[PROBATION].next;
+        if (victim == queues[PROBATION]) {
+            victim = queues[PROTECTED].next;
+        }
+        Node evicted = candidate;
+        if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            unlink(victim);
+            link(candidate, PROBATION);
+            evicted = victim;
+        }
+        nodes.remove(evicted.key, evicted);
+        evictions.increment();
+    }
+
+    // Most recently used entries sit at the tail, next to the sentinel's prev
+    private void link(Node node, int queue) {
+        Node head = queues[queue];
+        node.queue = queue;
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        queueSizes[queue]++;
+    }
+
+    // Nodes invalidated meanwhile may already be out of their queue
+    private void unlink(Node node) {
+        if (node.queue < 0) {
+            return;
+        }
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        queueSizes[node.queue]--;
+        node.queue = -1;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static int stripeOf(long trackingId) {
+        return (int) (trackingId & (GENERATION_STRIPES - 1));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static final class Node {
+        final long key;
+        final Package value;
+        int queue = -1;
+        Node prev;
+        Node next;
+
+        // Queue sentinel
+        Node() {
+            this(-1, null);
+        }
+
+        Node(long key, Package value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // Lossy ring of recorded keys. Slots hold key + 1 so that zero marks one not yet
+    // written; tracking ids are never negative.
+    private static final class ReadBuffer {
+        private final AtomicLongArray slots = new AtomicLongArray(READ_BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        private volatile long reads;   // only advanced under evictionLock
+
+        // False if the buffer is full; a lost race for a slot simply drops the record
+        boolean offer(long trackingId) {
+            long tail = writes.get();
+            if (tail - reads >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (writes.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), trackingId + 1);
+            }
+            return true;
+        }
+
+        void drain(PackageCache cache) {
+            long head = reads;
+            long tail = writes.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & (READ_BUFFER_SIZE - 1));
+                long slot = slots.get(index);
+                if (slot == 0) {
+                    // Claimed but not written yet; the rest waits for the next drain
+                    break;
+                }
+                slots.lazySet(index, 0);
+                cache.recordRead(slot - 1);
+            }
+            reads = head;
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, four per key, sixteen packed into each long.
+    // All counters are halved once the number of increments reaches ten times the
+    // cache capacity, so old popularity fades.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L
+        };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            this.table = new long[size];
+            this.sampleSize = 10 * capacity;
+        }
+
+        void increment(long key) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(key, i);
+                int shift = counterShift(key, i);
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(long key) {
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[indexOf(key, i)] >>> counterShift(key, i)) & 0xF));
+            }
+            return frequency;
+        }
+
+        private int indexOf(long key, int row) {
+            long hash = (key + SEEDS[row]) * SEEDS[row];
+            return (int) (hash >>> 40) & (table.length - 1);
+        }
+
+        // Each row uses its own quarter of the sixteen counters in a long
+        private static int counterShift(long key, int row) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return ((row << 2) + (int) ((hash >>> (row * 8 + 32)) & 3)) << 2;
+        }
+    }
+}
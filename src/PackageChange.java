@@ -0,0 +1,38 @@
+// One change to a package, as published by ChangeFeed. Sequences are assigned by the
+// feed as changes are published. Changes to one package always arrive in order, but
+// changes to different packages published at the same moment may not, so a gap only
+// hints at dropped changes; FeedSubscription.getDropped counts them exactly.
+public final class PackageChange {
+    public enum Type {
+        CREATED,
+        STATUS_CHANGED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final long trackingId;
+    private final PackageStatus previousStatus;
+    private final Package pkg;
+
+    PackageChange(long sequence, Type type, long trackingId, PackageStatus previousStatus, Package pkg) {
+        this.sequence = sequence;
+        this.type = type;
+        this.trackingId = trackingId;
+        this.previousStatus = previousStatus;
+        this.pkg = pkg;
+    }
+
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+    public long getTrackingId() { return trackingId; }
+    // Null for CREATED
+    public PackageStatus getPreviousStatus() { return previousStatus; }
+    // The package's state right after the change
+    public Package getPackage() { return pkg; }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " " + pkg.getTrackingNumber()
+                + (previousStatus == null ? "" : " " + previousStatus + " -> " + pkg.getStatus());
+    }
+}
@@ -181,49 +181,32 @@ public class PackageCreationPanel extends JPanel {
             }
             
         } catch (NumberFormatException e) {
-            JOptionPane.showMessageDialog(this, "Please enter a valid weight (decimal number)", 
+            JOptionPane.showMessageDialog(this, PackageSpec.INVALID_WEIGHT_MESSAGE, 
                                         "Invalid Weight", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     private boolean validateForm() {
-        if (senderNameField.getText().trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Sender name is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            senderNameField.requestFocus();
-            return false;
+        PackageSpec.Field missing = PackageSpec.findMissingField(senderNameField.getText(),
+                senderAddressField.getText(), recipientNameField.getText(), recipientAddressField.getText(),
+                weightField.getText(), descriptionField.getText());
+        if (missing == null) {
+            return true;
         }
-        
-        if (senderAddressField.getText().trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Sender address is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            senderAddressField.requestFocus();
-            return false;
-        }
-        
-        if (recipientNameField.getText().trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Recipient name is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            recipientNameField.requestFocus();
-            return false;
-        }
-        
-        if (recipientAddressField.getText().trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Recipient address is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            recipientAddressField.requestFocus();
-            return false;
-        }
-        
-        if (weightField.getText().trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Weight is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            weightField.requestFocus();
-            return false;
-        }
-        
-        if (descriptionField.getText().trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Description is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
-            descriptionField.requestFocus();
-            return false;
+        JOptionPane.showMessageDialog(this, missing.getLabel() + " is required", "Validation Error", JOptionPane.ERROR_MESSAGE);
+        fieldFor(missing).requestFocus();
+        return false;
+    }
+
+    private JTextField fieldFor(PackageSpec.Field field) {
+        switch (field) {
+            case SENDER_NAME: return senderNameField;
+            case SENDER_ADDRESS: return senderAddressField;
+            case RECIPIENT_NAME: return recipientNameField;
+            case RECIPIENT_ADDRESS: return recipientAddressField;
+            case WEIGHT: return weightField;
+            default: return descriptionField;
         }
-        
-        return true;
     }
 
     private void displayCreationResult(Package pkg) {
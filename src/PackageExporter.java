@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+// Streams packages with their tracking history to CSV or NDJSON, optionally gzipped.
+//
+// Packages come straight from DHLServer.forEachPackage with the filter pushed down
+// into the store scan, so nothing is collected up front. Each record is formatted
+// into one reused StringBuilder, encoded as UTF-8 into one reused buffer and written
+// to a FileChannel whenever the buffer fills, which keeps memory constant however
+// many packages are exported. The CSV header uses the importer's column names, so an
+// export can be loaded again with PackageImporter.
+public class PackageExporter {
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    private static final int BUFFER_BYTES = 256 << 10;
+    private static final String CSV_HEADER = "tracking_number,sender_name,sender_address,recipient_name,"
+            + "recipient_address,weight,description,status,created_at,last_updated,version,history";
+
+    private final DHLServer server;
+
+    public PackageExporter(DHLServer server) {
+        this.server = server;
+    }
+
+    public static Format formatOf(Path output) {
+        String name = output.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")
+                ? Format.NDJSON : Format.CSV;
+    }
+
+    // Writes every package matching the filter and returns how many were written
+    public long export(Path output, Format format, boolean gzip, PackageFilter filter) throws IOException {
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             RecordWriter writer = new RecordWriter(channel, gzip)) {
+            if (format == Format.CSV) {
+                writer.line().append(CSV_HEADER).append('\n');
+                writer.emit();
+            }
+            long[] count = {0};
+            try {
+                server.forEachPackage(filter, pkg -> {
+                    StringBuilder line = writer.line();
+                    if (format == Format.CSV) {
+                        appendCsv(line, pkg);
+                    } else {
+                        appendJson(line, pkg);
+                    }
+                    line.append('\n');
+                    try {
+                        writer.emit();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+            return count[0];
+        }
+    }
+
+    private static void appendCsv(StringBuilder line, Package pkg) {
+        appendCsvField(line, pkg.getTrackingNumber()).append(',');
+        appendCsvField(line, pkg.getSenderName()).append(',');
+        appendCsvField(line, pkg.getSenderAddress()).append(',');
+        appendCsvField(line, pkg.getRecipientName()).append(',');
+        appendCsvField(line, pkg.getRecipientAddress()).append(',');
+        line.append(pkg.getWeight()).append(',');
+        appendCsvField(line, pkg.getDescription()).append(',');
+        line.append(pkg.getStatus().name()).append(',');
+        line.append(pkg.getCreatedAt()).append(',');
+        line.append(pkg.getLastUpdated()).append(',');
+        line.append(pkg.getVersion()).append(',');
+        // One "[timestamp] event: description" entry per line inside a quoted cell
+        line.append('"');
+        List<TrackingEvent> history = pkg.getTrackingHistory();
+        for (int i = 0; i < history.size(); i++) {
+            TrackingEvent event = history.get(i);
+            if (i > 0) {
+                line.append('\n');
+            }
+            line.append('[').append(event.getTimestamp()).append("] ");
+            appendCsvQuoted(line, event.getEvent());
+            line.append(": ");
+            appendCsvQuoted(line, event.getDescription());
+        }
+        line.append('"');
+    }
+
+    private static StringBuilder appendCsvField(StringBuilder line, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                line.append('"');
+                appendCsvQuoted(line, value);
+                return line.append('"');
+            }
+        }
+        return line.append(value);
+    }
+
+    private static void appendCsvQuoted(StringBuilder line, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+    }
+
+    // Also used by TrackingHttpServer
+    static void appendJson(StringBuilder line, Package pkg) {
+        line.append("{\"trackingNumber\":");
+        appendJsonString(line, pkg.getTrackingNumber());
+        line.append(",\"senderName\":");
+        appendJsonString(line, pkg.getSenderName());
+        line.append(",\"senderAddress\":");
+        appendJsonString(line, pkg.getSenderAddress());
+        line.append(",\"recipientName\":");
+        appendJsonString(line, pkg.getRecipientName());
+        line.append(",\"recipientAddress\":");
+        appendJsonString(line, pkg.getRecipientAddress());
+        line.append(",\"weight\":").append(pkg.getWeight());
+        line.append(",\"description\":");
+        appendJsonString(line, pkg.getDescription());
+        line.append(",\"status\":\"").append(pkg.getStatus().name());
+        line.append("\",\"createdAt\":\"").append(pkg.getCreatedAt());
+        line.append("\",\"lastUpdated\":\"").append(pkg.getLastUpdated());
+        line.append("\",\"version\":").append(pkg.getVersion());
+        line.append(",\"history\":[");
+        boolean first = true;
+        for (TrackingEvent event : pkg.getTrackingHistory()) {
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            line.append("{\"timestamp\":\"").append(event.getTimestamp()).append("\",\"event\":");
+            appendJsonString(line, event.getEvent());
+            line.append(",\"description\":");
+            appendJsonString(line, event.getDescription());
+            line.append('}');
+        }
+        line.append("]}");
+    }
+
+    static void appendJsonString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': line.append("\\\""); break;
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\t': line.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    // Owns the reused line and byte buffer. Without gzip the buffer goes straight to the
+    // channel; with gzip it is compressed into the channel's stream.
+    private static final class RecordWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private final GZIPOutputStream gzip;
+        private final StringBuilder line = new StringBuilder(1024);
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        RecordWriter(FileChannel channel, boolean gzip) throws IOException {
+            this.channel = channel;
+            OutputStream out = Channels.newOutputStream(channel);
+            this.gzip = gzip ? new GZIPOutputStream(out, BUFFER_BYTES) : null;
+        }
+
+        StringBuilder line() {
+            return line;
+        }
+
+        // Encodes the current line into the buffer, draining it as often as needed
+        void emit() throws IOException {
+            CharBuffer chars = CharBuffer.wrap(line);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    drain();
+                } else {
+                    break;
+                }
+            }
+            encoder.reset();
+            line.setLength(0);
+        }
+
+        void finish() throws IOException {
+            drain();
+            if (gzip != null) {
+                gzip.finish();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            if (gzip != null) {
+                gzip.write(buffer.array(), 0, buffer.limit());
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (gzip != null) {
+                // Closing the stream also closes the channel; only the deflater needs releasing
+                gzip.close();
+            }
+        }
+    }
+
+    // Usage: java PackageExporter <file> [--format csv|ndjson] [--gzip] [--status S1,S2,...]
+    //        [--created-from <ISO time>] [--created-to <ISO time>]
+    //        [--updated-from <ISO time>] [--updated-to <ISO time>]
+    // A file name ending in .gz turns on --gzip. Reads the data directory used by the
+    // application, so run it while the application is stopped.
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java PackageExporter <file> [--format csv|ndjson] [--gzip]"
+                    + " [--status S1,S2,...] [--created-from <ISO time>] [--created-to <ISO time>]"
+                    + " [--updated-from <ISO time>] [--updated-to <ISO time>]");
+            System.exit(2);
+        }
+        Path output = Paths.get(args[0]);
+        Format format = formatOf(output);
+        boolean gzip = args[0].toLowerCase(Locale.ROOT).endsWith(".gz");
+        PackageFilter filter = PackageFilter.all();
+        LocalDateTime createdFrom = null;
+        LocalDateTime createdTo = null;
+        LocalDateTime updatedFrom = null;
+        LocalDateTime updatedTo = null;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--gzip": gzip = true; break;
+                    case "--format": format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT)); break;
+                    case "--status": filter = filter.withStatuses(parseStatuses(args[++i])); break;
+                    case "--created-from": createdFrom = LocalDateTime.parse(args[++i]); break;
+                    case "--created-to": createdTo = LocalDateTime.parse(args[++i]); break;
+                    case "--updated-from": updatedFrom = LocalDateTime.parse(args[++i]); break;
+                    case "--updated-to": updatedTo = LocalDateTime.parse(args[++i]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error parsing arguments: " + e.getMessage());
+            System.exit(2);
+        }
+        if (createdFrom != null || createdTo != null) {
+            filter = filter.createdBetween(createdFrom, createdTo);
+        }
+        if (updatedFrom != null || updatedTo != null) {
+            filter = filter.updatedBetween(updatedFrom, updatedTo);
+        }
+
+        DHLServer server = new DHLServer();
+        // A one-off tool, so no network endpoints
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        int exitCode = 0;
+        try {
+            long startNanos = System.nanoTime();
+            long count = new PackageExporter(server).export(output, format, gzip, filter);
+            System.out.printf("Exported %,d packages to %s in %.1f s%n", count, output,
+                    (System.nanoTime() - startNanos) / 1e9);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error exporting to " + output + ": " + e.getMessage());
+            exitCode = 1;
+        } finally {
+            server.stop();
+        }
+        System.exit(exitCode);
+    }
+
+    // Comma-separated names, either PackageStatus constants or their display form
+    static PackageStatus[] parseStatuses(String value) {
+        String[] names = value.split(",");
+        PackageStatus[] statuses = new PackageStatus[names.length];
+        for (int i = 0; i < names.length; i++) {
+            statuses[i] = PackageStatus.valueOf(names[i].trim().toUpperCase(Locale.ROOT).replace(' ', '_'));
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,94 @@
+import java.time.LocalDateTime;
+
+// Selects packages by status and by createdAt and lastUpdated windows. DHLServer
+// and the stores push it down into their scans, so packages that do not match are
+// never materialized.
+public final class PackageFilter {
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+    private static final int ALL_STATUSES = (1 << STATUSES.length) - 1;
+    private static final PackageFilter ALL = new PackageFilter(ALL_STATUSES, Long.MIN_VALUE, Long.MAX_VALUE,
+            Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final int statusMask;
+    private final long createdFrom;
+    private final long createdTo;
+    private final long updatedFrom;
+    private final long updatedTo;
+
+    private PackageFilter(int statusMask, long createdFrom, long createdTo, long updatedFrom, long updatedTo) {
+        this.statusMask = statusMask;
+        this.createdFrom = createdFrom;
+        this.createdTo = createdTo;
+        this.updatedFrom = updatedFrom;
+        this.updatedTo = updatedTo;
+    }
+
+    public static PackageFilter all() {
+        return ALL;
+    }
+
+    public PackageFilter withStatuses(PackageStatus... statuses) {
+        int mask = 0;
+        for (PackageStatus status : statuses) {
+            mask |= 1 << status.ordinal();
+        }
+        return new PackageFilter(mask, createdFrom, createdTo, updatedFrom, updatedTo);
+    }
+
+    // Keeps packages created in [from, to); either bound may be null for no limit
+    public PackageFilter createdBetween(LocalDateTime from, LocalDateTime to) {
+        return new PackageFilter(statusMask, lowerBound(from), upperBound(to), updatedFrom, updatedTo);
+    }
+
+    // Keeps packages last updated in [from, to); either bound may be null for no limit
+    public PackageFilter updatedBetween(LocalDateTime from, LocalDateTime to) {
+        return new PackageFilter(statusMask, createdFrom, createdTo, lowerBound(from), upperBound(to));
+    }
+
+    private static long lowerBound(LocalDateTime from) {
+        return from == null ? Long.MIN_VALUE : EpochMillis.of(from);
+    }
+
+    private static long upperBound(LocalDateTime to) {
+        return to == null ? Long.MAX_VALUE : EpochMillis.of(to);
+    }
+
+    public int getStatusMask() { return statusMask; }
+    // Bounds are in epoch millis; the lower one inclusive, the upper one exclusive
+    public long getCreatedFrom() { return createdFrom; }
+    public long getCreatedTo() { return createdTo; }
+    public long getUpdatedFrom() { return updatedFrom; }
+    public long getUpdatedTo() { return updatedTo; }
+
+    public boolean includes(PackageStatus status) {
+        return ((statusMask >>> status.ordinal()) & 1) != 0;
+    }
+
+    public boolean restrictsStatus() {
+        return statusMask != ALL_STATUSES;
+    }
+
+    public boolean restrictsCreated() {
+        return createdFrom != Long.MIN_VALUE || createdTo != Long.MAX_VALUE;
+    }
+
+    public boolean restrictsUpdated() {
+        return updatedFrom != Long.MIN_VALUE || updatedTo != Long.MAX_VALUE;
+    }
+
+    public boolean matches(Package pkg) {
+        return includes(pkg.getStatus())
+                && (!restrictsCreated() || inRange(EpochMillis.of(pkg.getCreatedAt()), createdFrom, createdTo))
+                && (!restrictsUpdated() || inRange(EpochMillis.of(pkg.getLastUpdated()), updatedFrom, updatedTo));
+    }
+
+    public boolean matches(int statusOrdinal, long createdMillis, long lastUpdatedMillis) {
+        return ((statusMask >>> statusOrdinal) & 1) != 0
+                && inRange(createdMillis, createdFrom, createdTo)
+                && inRange(lastUpdatedMillis, updatedFrom, updatedTo);
+    }
+
+    private static boolean inRange(long millis, long from, long to) {
+        return millis >= from && millis < to;
+    }
+}
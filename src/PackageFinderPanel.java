@@ -4,14 +4,19 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 public class PackageFinderPanel extends JPanel {
     private DHLServer server;
     private DHLApp parentApp;
-    private JComboBox<String> searchTypeCombo;
-    private JTextField searchField;
-    private JComboBox<PackageStatus> statusCombo;
+    private JTextField senderField;
+    private JTextField recipientField;
+    private JCheckBox[] statusChecks;
+    private JComboBox<String> updatedCombo;
+    private JComboBox<String> orderCombo;
+    private JSpinner limitSpinner;
     private JButton searchButton;
     private JButton clearButton;
     private JTable resultsTable;
@@ -26,14 +31,27 @@ public class PackageFinderPanel extends JPanel {
         setupEventHandlers();
     }
 
+    // Labels of updatedCombo and how far back each reaches, in hours; 0 for no limit
+    private static final String[] UPDATED_WINDOWS = {"Any time", "Last hour", "Last 24 hours", "Last 7 days"};
+    private static final int[] UPDATED_HOURS = {0, 1, 24, 7 * 24};
+    private static final String[] ORDERS = {"Any order", "Tracking number", "Last updated, newest first",
+            "Last updated, oldest first"};
+    private static final ScanOrder[] ORDER_VALUES = {null, ScanOrder.TRACKING_NUMBER,
+            ScanOrder.LAST_UPDATED_DESCENDING, ScanOrder.LAST_UPDATED};
+
     private void initializeComponents() {
-        String[] searchTypes = {"Sender Name", "Recipient Name", "Package Status"};
-        searchTypeCombo = new JComboBox<>(searchTypes);
+        senderField = new JTextField(20);
+        recipientField = new JTextField(20);
         
-        searchField = new JTextField(20);
+        PackageStatus[] statuses = PackageStatus.values();
+        statusChecks = new JCheckBox[statuses.length];
+        for (int i = 0; i < statuses.length; i++) {
+            statusChecks[i] = new JCheckBox(statuses[i].toString());
+        }
         
-        statusCombo = new JComboBox<>(PackageStatus.values());
-        statusCombo.setVisible(false);
+        updatedCombo = new JComboBox<>(UPDATED_WINDOWS);
+        orderCombo = new JComboBox<>(ORDERS);
+        limitSpinner = new JSpinner(new SpinnerNumberModel(100, 1, 100_000, 50));
         
         searchButton = new JButton("Search");
         searchButton.setBackground(new Color(255, 204, 0)); // DHL Yellow
@@ -88,24 +106,50 @@ public class PackageFinderPanel extends JPanel {
         gbc.anchor = GridBagConstraints.WEST;
         
         gbc.gridx = 0; gbc.gridy = 0;
-        searchPanel.add(new JLabel("Search by:"), gbc);
+        searchPanel.add(new JLabel("Sender contains:"), gbc);
         
         gbc.gridx = 1;
-        searchPanel.add(searchTypeCombo, gbc);
+        searchPanel.add(senderField, gbc);
         
         gbc.gridx = 0; gbc.gridy = 1;
-        searchPanel.add(new JLabel("Search term:"), gbc);
+        searchPanel.add(new JLabel("Recipient contains:"), gbc);
         
         gbc.gridx = 1;
-        searchPanel.add(searchField, gbc);
+        searchPanel.add(recipientField, gbc);
         
-        gbc.gridx = 1; gbc.gridy = 2;
-        searchPanel.add(statusCombo, gbc);
+        gbc.gridx = 0; gbc.gridy = 2;
+        searchPanel.add(new JLabel("Status (none = any):"), gbc);
         
-        gbc.gridx = 2; gbc.gridy = 1;
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        for (JCheckBox statusCheck : statusChecks) {
+            statusPanel.add(statusCheck);
+        }
+        gbc.gridx = 1; gbc.gridwidth = 3;
+        searchPanel.add(statusPanel, gbc);
+        gbc.gridwidth = 1;
+        
+        gbc.gridx = 0; gbc.gridy = 3;
+        searchPanel.add(new JLabel("Last updated:"), gbc);
+        
+        gbc.gridx = 1;
+        searchPanel.add(updatedCombo, gbc);
+        
+        gbc.gridx = 0; gbc.gridy = 4;
+        searchPanel.add(new JLabel("Order by:"), gbc);
+        
+        gbc.gridx = 1;
+        searchPanel.add(orderCombo, gbc);
+        
+        gbc.gridx = 2;
+        searchPanel.add(new JLabel("Limit:"), gbc);
+        
+        gbc.gridx = 3;
+        searchPanel.add(limitSpinner, gbc);
+        
+        gbc.gridx = 2; gbc.gridy = 0;
         searchPanel.add(searchButton, gbc);
         
-        gbc.gridx = 2; gbc.gridy = 2;
+        gbc.gridx = 2; gbc.gridy = 1;
         searchPanel.add(clearButton, gbc);
         
         return searchPanel;
@@ -155,13 +199,6 @@ public class PackageFinderPanel extends JPanel {
     }
 
     private void setupEventHandlers() {
-        searchTypeCombo.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                updateSearchFieldVisibility();
-            }
-        });
-        
         searchButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -176,14 +213,14 @@ public class PackageFinderPanel extends JPanel {
             }
         });
         
-        searchField.addActionListener(new ActionListener() {
+        ActionListener searchOnEnter = new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (searchField.isVisible()) {
-                    performSearch();
-                }
+                performSearch();
             }
-        });
+        };
+        senderField.addActionListener(searchOnEnter);
+        recipientField.addActionListener(searchOnEnter);
         
         // Add double-click functionality to the results table
         resultsTable.addMouseListener(new java.awt.event.MouseAdapter() {
@@ -202,58 +239,44 @@ public class PackageFinderPanel extends JPanel {
         });
     }
 
-    private void updateSearchFieldVisibility() {
-        String searchType = (String) searchTypeCombo.getSelectedItem();
-        boolean isStatusSearch = "Package Status".equals(searchType);
-        
-        searchField.setVisible(!isStatusSearch);
-        statusCombo.setVisible(isStatusSearch);
-        
-        revalidate();
-        repaint();
+    // Every filled-in field narrows the search; the server picks the indexes to use
+    private PackageQuery buildQuery() {
+        PackageQuery query = PackageQuery.all()
+                .senderContains(senderField.getText())
+                .recipientContains(recipientField.getText())
+                .orderBy(ORDER_VALUES[orderCombo.getSelectedIndex()])
+                .limit((Integer) limitSpinner.getValue());
+        List<PackageStatus> statuses = new ArrayList<>();
+        for (int i = 0; i < statusChecks.length; i++) {
+            if (statusChecks[i].isSelected()) {
+                statuses.add(PackageStatus.values()[i]);
+            }
+        }
+        if (!statuses.isEmpty()) {
+            query = query.withStatuses(statuses.toArray(new PackageStatus[0]));
+        }
+        int hours = UPDATED_HOURS[updatedCombo.getSelectedIndex()];
+        if (hours > 0) {
+            query = query.updatedBetween(LocalDateTime.now().minusHours(hours), null);
+        }
+        return query;
     }
 
     private void performSearch() {
-        String searchType = (String) searchTypeCombo.getSelectedItem();
-        List<Package> results = null;
-        
         try {
-            switch (searchType) {
-                case "Sender Name":
-                    String senderName = searchField.getText().trim();
-                    if (senderName.isEmpty()) {
-                        JOptionPane.showMessageDialog(this, "Please enter a sender name", "Search Error", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                    results = server.findPackagesBySender(senderName);
-                    break;
-                    
-                case "Recipient Name":
-                    String recipientName = searchField.getText().trim();
-                    if (recipientName.isEmpty()) {
-                        JOptionPane.showMessageDialog(this, "Please enter a recipient name", "Search Error", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                    results = server.findPackagesByRecipient(recipientName);
-                    break;
-                    
-                case "Package Status":
-                    PackageStatus selectedStatus = (PackageStatus) statusCombo.getSelectedItem();
-                    results = server.findPackagesByStatus(selectedStatus);
-                    break;
-            }
-            
-            displayResults(results, searchType);
-            
+            PackageQuery query = buildQuery();
+            QueryResult result = server.query(query);
+            displayResults(result);
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Search error: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private void displayResults(List<Package> packages, String searchType) {
+    private void displayResults(QueryResult result) {
         resultsTableModel.setRowCount(0);
+        List<Package> packages = result.getPackages();
         
-        if (packages != null && !packages.isEmpty()) {
+        if (!packages.isEmpty()) {
             for (Package pkg : packages) {
                 resultsTableModel.addRow(new Object[]{
                     pkg.getTrackingNumber(),
@@ -265,7 +288,8 @@ public class PackageFinderPanel extends JPanel {
                 });
             }
             
-            resultsCountLabel.setText(String.format("Found %d package(s) for %s search", packages.size(), searchType.toLowerCase()));
+            resultsCountLabel.setText(String.format("Found %d package(s), %d examined via %s", packages.size(),
+                    result.getExamined(), result.getPlan()));
             resultsCountLabel.setForeground(Color.BLACK);
         } else {
             resultsCountLabel.setText("No packages found for the search criteria");
@@ -275,10 +299,16 @@ public class PackageFinderPanel extends JPanel {
 
     private void clearResults() {
         resultsTableModel.setRowCount(0);
-        searchField.setText("");
+        senderField.setText("");
+        recipientField.setText("");
+        for (JCheckBox statusCheck : statusChecks) {
+            statusCheck.setSelected(false);
+        }
+        updatedCombo.setSelectedIndex(0);
+        orderCombo.setSelectedIndex(0);
+        limitSpinner.setValue(100);
         resultsCountLabel.setText("No search performed yet");
         resultsCountLabel.setForeground(Color.GRAY);
-        statusCombo.setSelectedIndex(0);
     }
 
     private void viewSelectedPackageDetails() {
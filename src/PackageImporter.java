@@ -0,0 +1,675 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+// Headless bulk loader for legacy shipments in CSV (with a header row) or NDJSON.
+//
+// The input is memory-mapped and cut into chunks of about CHUNK_BYTES that end on
+// record boundaries; for CSV the cut tracks quoting so a quoted newline never splits
+// a record. Chunks are parsed in parallel on a fork-join pool and validated with the
+// same rules as the package creation form, while the calling thread takes parsed
+// chunks back in file order and feeds them to DHLServer.createPackages in batches.
+// At most a few chunks per worker are in flight, so memory stays bounded however
+// large the file is. Rejected records go to a tab-separated reject file with their
+// line number and reason.
+public class PackageImporter {
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    private static final long CHUNK_BYTES = 8L << 20;
+    private static final long SCAN_WINDOW_BYTES = 256L << 20;
+    private static final int CHUNKS_PER_WORKER = 2;
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+    private static final PackageSpec.Field[] FIELDS = PackageSpec.Field.values();
+    private static final String[] FIELD_KEYS = {
+        "sendername", "senderaddress", "recipientname", "recipientaddress", "weight", "description"
+    };
+
+    private final DHLServer server;
+    private final int batchSize;
+    private final ForkJoinPool pool;
+    private final Consumer<Progress> progressListener;
+    private final long chunkBytes;
+
+    public PackageImporter(DHLServer server) {
+        this(server, DEFAULT_BATCH_SIZE, ForkJoinPool.commonPool(), null);
+    }
+
+    public PackageImporter(DHLServer server, int batchSize, ForkJoinPool pool, Consumer<Progress> progressListener) {
+        this(server, batchSize, pool, progressListener, CHUNK_BYTES);
+    }
+
+    // Smaller chunks let a check put many chunk boundaries into a small file
+    PackageImporter(DHLServer server, int batchSize, ForkJoinPool pool, Consumer<Progress> progressListener,
+                    long chunkBytes) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.server = server;
+        this.batchSize = batchSize;
+        this.pool = pool;
+        this.progressListener = progressListener;
+        this.chunkBytes = chunkBytes;
+    }
+
+    public static Format formatOf(Path input) {
+        String name = input.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")
+                ? Format.NDJSON : Format.CSV;
+    }
+
+    // Imports every valid record and returns the final counts. The reject file is only
+    // created if something is rejected.
+    public Progress importFile(Path input, Format format, Path rejectFile) throws IOException {
+        long startNanos = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+             RejectWriter rejects = new RejectWriter(rejectFile)) {
+            long size = channel.size();
+            long dataStart = 0;
+            int[] columns = null;
+            if (format == Format.CSV) {
+                dataStart = headerEnd(channel, size);
+                columns = mapColumns(parseCsvHeader(readRange(channel, 0, dataStart)));
+            }
+            Splitter splitter = new Splitter(channel, dataStart, size, dataStart == 0 ? 1 : 2,
+                    format == Format.CSV, chunkBytes);
+            int maxInFlight = Math.max(1, pool.getParallelism()) * CHUNKS_PER_WORKER;
+            Deque<ForkJoinTask<ParsedChunk>> inFlight = new ArrayDeque<>();
+            List<PackageSpec> batch = new ArrayList<>(batchSize);
+            long imported = 0;
+            long rejected = 0;
+            long bytesDone = dataStart;
+            long lastReport = startNanos;
+            final int[] csvColumns = columns;
+            while (true) {
+                Chunk next;
+                while (inFlight.size() < maxInFlight && (next = splitter.next()) != null) {
+                    Chunk chunk = next;
+                    inFlight.add(pool.submit(() -> parseChunk(channel, chunk, format, csvColumns)));
+                }
+                ForkJoinTask<ParsedChunk> task = inFlight.poll();
+                if (task == null) {
+                    break;
+                }
+                ParsedChunk parsed = task.join();
+                for (String reject : parsed.rejects) {
+                    rejects.write(reject);
+                }
+                rejected += parsed.rejects.size();
+                for (PackageSpec spec : parsed.specs) {
+                    batch.add(spec);
+                    if (batch.size() == batchSize) {
+                        server.createPackages(batch);
+                        imported += batch.size();
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                bytesDone += parsed.length;
+                long now = System.nanoTime();
+                if (progressListener != null && now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                    progressListener.accept(new Progress(imported, rejected, bytesDone, size, now - startNanos));
+                    lastReport = now;
+                }
+            }
+            if (!batch.isEmpty()) {
+                server.createPackages(batch);
+                imported += batch.size();
+            }
+            Progress done = new Progress(imported, rejected, size, size, System.nanoTime() - startNanos);
+            if (progressListener != null) {
+                progressListener.accept(done);
+            }
+            return done;
+        }
+    }
+
+    private static ParsedChunk parseChunk(FileChannel channel, Chunk chunk, Format format, int[] columns) {
+        String text;
+        try {
+            text = readRange(channel, chunk.offset, chunk.offset + chunk.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ParsedChunk parsed = new ParsedChunk(chunk.length);
+        if (format == Format.CSV) {
+            parseCsv(text, chunk.firstLine, columns, parsed);
+        } else {
+            parseNdjson(text, chunk.firstLine, parsed);
+        }
+        return parsed;
+    }
+
+    private static String readRange(FileChannel channel, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("Record at offset " + from + " is too large to import");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Offset just past the first line, which holds the CSV header
+    private static long headerEnd(FileChannel channel, long size) throws IOException {
+        long windowStart = 0;
+        while (windowStart < size) {
+            long length = Math.min(SCAN_WINDOW_BYTES, size - windowStart);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            for (int i = 0; i < length; i++) {
+                if (window.get(i) == '\n') {
+                    return windowStart + i + 1;
+                }
+            }
+            windowStart += length;
+        }
+        return size;
+    }
+
+    private static List<String> parseCsvHeader(String header) throws IOException {
+        ParsedChunk scratch = new ParsedChunk(0);
+        List<List<String>> records = new ArrayList<>();
+        parseCsvRecords(header, 1, scratch, (line, raw, fields) -> records.add(new ArrayList<>(fields)));
+        if (records.isEmpty()) {
+            throw new IOException("CSV input has no header row");
+        }
+        return records.get(0);
+    }
+
+    // Position of each PackageSpec.Field in a CSV record. Header names are matched
+    // ignoring case, spaces and punctuation, so "Sender Name" and sender_name both work.
+    private static int[] mapColumns(List<String> header) throws IOException {
+        int[] columns = new int[FIELDS.length];
+        for (int f = 0; f < FIELDS.length; f++) {
+            columns[f] = -1;
+            for (int c = 0; c < header.size(); c++) {
+                if (normalizeKey(header.get(c)).equals(FIELD_KEYS[f])) {
+                    columns[f] = c;
+                }
+            }
+            if (columns[f] < 0) {
+                throw new IOException("CSV header has no column for " + FIELDS[f].getLabel());
+            }
+        }
+        return columns;
+    }
+
+    private static String normalizeKey(String key) {
+        StringBuilder normalized = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = Character.toLowerCase(key.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static void parseCsv(String text, long firstLine, int[] columns, ParsedChunk out) {
+        String[] values = new String[FIELDS.length];
+        parseCsvRecords(text, firstLine, out, (line, raw, fields) -> {
+            for (int f = 0; f < FIELDS.length; f++) {
+                values[f] = columns[f] < fields.size() ? fields.get(columns[f]) : null;
+            }
+            accept(values, line, raw, out);
+        });
+    }
+
+    private interface CsvRecordHandler {
+        void handle(long line, String raw, List<String> fields);
+    }
+
+    // RFC 4180: fields may be quoted, quotes inside are doubled, and quoted fields may
+    // span lines. Blank lines are skipped; malformed records are rejected into out.
+    private static void parseCsvRecords(String text, long firstLine, ParsedChunk out, CsvRecordHandler handler) {
+        int n = text.length();
+        int i = 0;
+        long line = firstLine;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        while (i < n) {
+            int recordStart = i;
+            long recordLine = line;
+            boolean malformed = false;
+            fields.clear();
+            while (true) {
+                field.setLength(0);
+                if (i < n && text.charAt(i) == '"') {
+                    i++;
+                    boolean closed = false;
+                    while (i < n) {
+                        char c = text.charAt(i++);
+                        if (c == '"') {
+                            if (i < n && text.charAt(i) == '"') {
+                                field.append('"');
+                                i++;
+                            } else {
+                                closed = true;
+                                break;
+                            }
+                        } else {
+                            if (c == '\n') {
+                                line++;
+                            }
+                            field.append(c);
+                        }
+                    }
+                    malformed |= !closed;
+                    while (i < n && text.charAt(i) != ',' && text.charAt(i) != '\n') {
+                        malformed |= text.charAt(i) != '\r';
+                        i++;
+                    }
+                } else {
+                    while (i < n && text.charAt(i) != ',' && text.charAt(i) != '\n') {
+                        field.append(text.charAt(i++));
+                    }
+                    int last = field.length() - 1;
+                    if (last >= 0 && field.charAt(last) == '\r' && (i == n || text.charAt(i) == '\n')) {
+                        field.setLength(last);
+                    }
+                }
+                fields.add(field.toString());
+                if (i < n && text.charAt(i) == ',') {
+                    i++;
+                    continue;
+                }
+                if (i < n) {
+                    i++;
+                    line++;
+                }
+                break;
+            }
+            String raw = stripLineEnd(text.substring(recordStart, i));
+            if (fields.size() == 1 && fields.get(0).isEmpty() && !malformed) {
+                continue;
+            }
+            if (malformed) {
+                out.reject(recordLine, "Malformed quoted field", raw);
+            } else {
+                handler.handle(recordLine, raw, fields);
+            }
+        }
+    }
+
+    private static void parseNdjson(String text, long firstLine, ParsedChunk out) {
+        String[] values = new String[FIELDS.length];
+        long line = firstLine;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String raw = stripLineEnd(text.substring(start, end));
+            if (!raw.trim().isEmpty()) {
+                try {
+                    Map<String, String> object = new JsonObjectParser(raw).parse();
+                    for (int f = 0; f < FIELDS.length; f++) {
+                        values[f] = object.get(FIELD_KEYS[f]);
+                    }
+                    accept(values, line, raw, out);
+                } catch (IllegalArgumentException e) {
+                    out.reject(line, e.getMessage(), raw);
+                }
+            }
+            start = end + 1;
+            line++;
+        }
+    }
+
+    private static void accept(String[] values, long line, String raw, ParsedChunk out) {
+        try {
+            out.specs.add(PackageSpec.parse(values[0], values[1], values[2], values[3], values[4], values[5]));
+        } catch (IllegalArgumentException e) {
+            out.reject(line, e.getMessage(), raw);
+        }
+    }
+
+    private static String stripLineEnd(String record) {
+        int end = record.length();
+        while (end > 0 && (record.charAt(end - 1) == '\n' || record.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return record.substring(0, end);
+    }
+
+    // Hands out chunks lazily, so parsing starts while the rest of the file is still
+    // being scanned for boundaries
+    private static final class Splitter {
+        private final FileChannel channel;
+        private final long size;
+        private final boolean quoted;
+        private final long chunkBytes;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long position;
+        private long chunkStart;
+        private long line;
+        private long chunkLine;
+        private boolean inQuotes;
+
+        Splitter(FileChannel channel, long start, long size, long firstLine, boolean quoted, long chunkBytes) {
+            this.channel = channel;
+            this.size = size;
+            this.quoted = quoted;
+            this.chunkBytes = chunkBytes;
+            this.position = start;
+            this.chunkStart = start;
+            this.line = firstLine;
+            this.chunkLine = firstLine;
+        }
+
+        Chunk next() throws IOException {
+            while (position < size) {
+                if (window == null || position >= windowStart + window.capacity()) {
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                            Math.min(SCAN_WINDOW_BYTES, size - windowStart));
+                }
+                byte b = window.get((int) (position - windowStart));
+                position++;
+                if (b == '"' && quoted) {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n') {
+                    line++;
+                    if (!inQuotes && position - chunkStart >= chunkBytes) {
+                        return cut();
+                    }
+                }
+            }
+            return chunkStart < size ? cut() : null;
+        }
+
+        private Chunk cut() {
+            Chunk chunk = new Chunk(chunkStart, position - chunkStart, chunkLine);
+            chunkStart = position;
+            chunkLine = line;
+            return chunk;
+        }
+    }
+
+    private static final class Chunk {
+        final long offset;
+        final long length;
+        final long firstLine;
+
+        Chunk(long offset, long length, long firstLine) {
+            this.offset = offset;
+            this.length = length;
+            this.firstLine = firstLine;
+        }
+    }
+
+    private static final class ParsedChunk {
+        final long length;
+        final List<PackageSpec> specs = new ArrayList<>();
+        final List<String> rejects = new ArrayList<>();
+
+        ParsedChunk(long length) {
+            this.length = length;
+        }
+
+        void reject(long line, String reason, String raw) {
+            rejects.add(line + "\t" + reason + "\t" + raw.replace("\\", "\\\\").replace("\t", "\\t")
+                    .replace("\r", "\\r").replace("\n", "\\n"));
+        }
+    }
+
+    private static final class RejectWriter implements AutoCloseable {
+        private final Path path;
+        private BufferedWriter writer;
+
+        RejectWriter(Path path) {
+            this.path = path;
+        }
+
+        void write(String reject) throws IOException {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                writer.write("line\treason\trecord");
+                writer.newLine();
+            }
+            writer.write(reject);
+            writer.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    // Just enough JSON for one flat object per line; keys are normalized like CSV
+    // headers and every scalar comes back as its text, null stays null
+    private static final class JsonObjectParser {
+        private final String text;
+        private int pos;
+
+        JsonObjectParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, String> parse() {
+            Map<String, String> object = new HashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    String key = parseString();
+                    expect(':');
+                    object.put(normalizeKey(key), parseValue());
+                    skipWhitespace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("Expected ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected trailing characters");
+            }
+            return object;
+        }
+
+        private String parseValue() {
+            skipWhitespace();
+            char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                int start = pos;
+                while (pos < text.length() && "+-.eE0123456789".indexOf(text.charAt(pos)) >= 0) {
+                    pos++;
+                }
+                return text.substring(start, pos);
+            }
+            for (String literal : new String[] {"true", "false", "null"}) {
+                if (text.startsWith(literal, pos)) {
+                    pos += literal.length();
+                    return literal.equals("null") ? null : literal;
+                }
+            }
+            if (c == '{' || c == '[') {
+                throw error("Nested values are not supported");
+            }
+            throw error("Unexpected character '" + c + "'");
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("Truncated unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            skipWhitespace();
+            if (next() != expected) {
+                throw error("Expected '" + expected + "'");
+            }
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("Unexpected end of line");
+            }
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Malformed JSON at column " + (pos + 1) + ": " + message);
+        }
+    }
+
+    public static final class Progress {
+        private final long imported;
+        private final long rejected;
+        private final long bytesRead;
+        private final long totalBytes;
+        private final long elapsedNanos;
+
+        Progress(long imported, long rejected, long bytesRead, long totalBytes, long elapsedNanos) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getImported() { return imported; }
+        public long getRejected() { return rejected; }
+        public long getBytesRead() { return bytesRead; }
+        public long getTotalBytes() { return totalBytes; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("Imported %,d packages, rejected %,d (%d%% of %,d bytes, %.1f s, %,.0f records/s)",
+                    imported, rejected, totalBytes == 0 ? 100 : bytesRead * 100 / totalBytes, totalBytes, seconds,
+                    seconds == 0 ? 0 : (imported + rejected) / seconds);
+        }
+    }
+
+    // Usage: java PackageImporter <file> [--format csv|ndjson] [--rejects <file>] [--batch <size>]
+    // Imports into the data directory used by the application, so run it while the
+    // application is stopped.
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java PackageImporter <file> [--format csv|ndjson] [--rejects <file>]"
+                    + " [--batch <size>]");
+            System.exit(2);
+        }
+        Path input = Paths.get(args[0]);
+        Format format = formatOf(input);
+        Path rejectFile = Paths.get(args[0] + ".rejects.tsv");
+        int batchSize = DEFAULT_BATCH_SIZE;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--format": format = Format.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                    case "--rejects": rejectFile = Paths.get(value); break;
+                    case "--batch": batchSize = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error parsing arguments: " + e.getMessage());
+            System.exit(2);
+        }
+
+        DHLServer server = new DHLServer();
+        // A one-off tool, so no network endpoints
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        int exitCode = 0;
+        try {
+            PackageImporter importer = new PackageImporter(server, batchSize, ForkJoinPool.commonPool(),
+                    System.out::println);
+            Progress result = importer.importFile(input, format, rejectFile);
+            if (result.getRejected() > 0) {
+                System.out.println("Rejected records written to " + rejectFile);
+            }
+            // Otherwise the next start would replay the whole import from the log
+            System.out.println("Snapshot written to " + server.writeSnapshot());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error importing " + input + ": " + e.getMessage());
+            exitCode = 1;
+        } finally {
+            server.stop();
+        }
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,55 @@
+// The indexes behind DHLServer's queries, maintained together as one projection of the
+// mutation stream. DHLServer.rebuildIndexes builds a fresh set by backfilling it
+// while the current one keeps serving, then swaps it in.
+public class PackageIndexes implements PackageProjection {
+    private final TrigramIndex senderIndex = new TrigramIndex();
+    private final TrigramIndex recipientIndex = new TrigramIndex();
+    private final StatusIndex statusIndex = new StatusIndex();
+    private final ConcurrentSortedLongSet trackingIdOrder = new ConcurrentSortedLongSet();
+    private final TimeIndex createdIndex = new TimeIndex();
+    private final TimeIndex lastUpdatedIndex = new TimeIndex();
+
+    @Override
+    public void added(long trackingId, Package pkg) {
+        statusIndex.add(trackingId, pkg.getStatus());
+        trackingIdOrder.add(trackingId);
+        createdIndex.add(EpochMillis.of(pkg.getCreatedAt()), trackingId);
+        lastUpdatedIndex.add(EpochMillis.of(pkg.getLastUpdated()), trackingId);
+        senderIndex.add(pkg.getSenderName(), trackingId);
+        recipientIndex.add(pkg.getRecipientName(), trackingId);
+    }
+
+    @Override
+    public void updated(PackageMutation mutation, Package before, Package after) {
+        long trackingId = mutation.getTrackingId();
+        statusIndex.move(trackingId, before.getStatus(), after.getStatus());
+        lastUpdatedIndex.move(trackingId, EpochMillis.of(before.getLastUpdated()),
+                EpochMillis.of(after.getLastUpdated()));
+    }
+
+    // Senders and recipients of the batch go into their trigram indexes in one pass each
+    @Override
+    public void addedAll(long[] trackingIds, Package[] pkgs) {
+        String[] senders = new String[pkgs.length];
+        String[] recipients = new String[pkgs.length];
+        for (int i = 0; i < pkgs.length; i++) {
+            Package pkg = pkgs[i];
+            long trackingId = trackingIds[i];
+            statusIndex.add(trackingId, pkg.getStatus());
+            trackingIdOrder.add(trackingId);
+            createdIndex.add(EpochMillis.of(pkg.getCreatedAt()), trackingId);
+            lastUpdatedIndex.add(EpochMillis.of(pkg.getLastUpdated()), trackingId);
+            senders[i] = pkg.getSenderName();
+            recipients[i] = pkg.getRecipientName();
+        }
+        senderIndex.addAll(senders, trackingIds);
+        recipientIndex.addAll(recipients, trackingIds);
+    }
+
+    public TrigramIndex getSenderIndex() { return senderIndex; }
+    public TrigramIndex getRecipientIndex() { return recipientIndex; }
+    public StatusIndex getStatusIndex() { return statusIndex; }
+    public ConcurrentSortedLongSet getTrackingIdOrder() { return trackingIdOrder; }
+    public TimeIndex getCreatedIndex() { return createdIndex; }
+    public TimeIndex getLastUpdatedIndex() { return lastUpdatedIndex; }
+}
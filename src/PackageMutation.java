@@ -0,0 +1,143 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One state change applied to DHLServer, in the form it is logged and replayed.
+// Timestamps are carried in the mutation so that replay rebuilds exactly the state
+// that was observed when it was first applied.
+public final class PackageMutation {
+    public enum Type {
+        CREATE,
+        STATUS_UPDATE
+    }
+
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+
+    private final Type type;
+    private final long sequence;
+    private final long trackingId;
+    private final long timestamp;
+    private final String senderName;
+    private final String senderAddress;
+    private final String recipientName;
+    private final String recipientAddress;
+    private final double weight;
+    private final PackageStatus status;
+    private final String location;
+    private final String description;
+
+    private PackageMutation(Type type, long sequence, long trackingId, long timestamp,
+                            String senderName, String senderAddress, String recipientName,
+                            String recipientAddress, double weight, PackageStatus status,
+                            String location, String description) {
+        this.type = type;
+        this.sequence = sequence;
+        this.trackingId = trackingId;
+        this.timestamp = timestamp;
+        this.senderName = senderName;
+        this.senderAddress = senderAddress;
+        this.recipientName = recipientName;
+        this.recipientAddress = recipientAddress;
+        this.weight = weight;
+        this.status = status;
+        this.location = location;
+        this.description = description;
+    }
+
+    public static PackageMutation create(long trackingId, long timestamp, String senderName, String senderAddress,
+                                         String recipientName, String recipientAddress, double weight,
+                                         String description) {
+        return new PackageMutation(Type.CREATE, 0, trackingId, timestamp, senderName, senderAddress,
+                recipientName, recipientAddress, weight, PackageStatus.CREATED, null, description);
+    }
+
+    public static PackageMutation statusUpdate(long trackingId, long timestamp, PackageStatus status,
+                                               String location, String description) {
+        return new PackageMutation(Type.STATUS_UPDATE, 0, trackingId, timestamp, null, null, null, null,
+                0, status, location, description);
+    }
+
+    public PackageMutation withSequence(long newSequence) {
+        return new PackageMutation(type, newSequence, trackingId, timestamp, senderName, senderAddress,
+                recipientName, recipientAddress, weight, status, location, description);
+    }
+
+    public Type getType() { return type; }
+    public long getSequence() { return sequence; }
+    public long getTrackingId() { return trackingId; }
+    public long getTimestamp() { return timestamp; }
+    public String getSenderName() { return senderName; }
+    public String getSenderAddress() { return senderAddress; }
+    public String getRecipientName() { return recipientName; }
+    public String getRecipientAddress() { return recipientAddress; }
+    public double getWeight() { return weight; }
+    public PackageStatus getStatus() { return status; }
+    public String getLocation() { return location; }
+    public String getDescription() { return description; }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type.ordinal());
+            out.writeLong(sequence);
+            out.writeLong(trackingId);
+            out.writeLong(timestamp);
+            if (type == Type.CREATE) {
+                writeString(out, senderName);
+                writeString(out, senderAddress);
+                writeString(out, recipientName);
+                writeString(out, recipientAddress);
+                out.writeDouble(weight);
+            } else {
+                out.writeByte(status.ordinal());
+                writeString(out, location);
+            }
+            writeString(out, description);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static PackageMutation decode(ByteBuffer in) {
+        Type type = Type.values()[in.get()];
+        long sequence = in.getLong();
+        long trackingId = in.getLong();
+        long timestamp = in.getLong();
+        if (type == Type.CREATE) {
+            String senderName = readString(in);
+            String senderAddress = readString(in);
+            String recipientName = readString(in);
+            String recipientAddress = readString(in);
+            double weight = in.getDouble();
+            String description = readString(in);
+            return new PackageMutation(type, sequence, trackingId, timestamp, senderName, senderAddress,
+                    recipientName, recipientAddress, weight, PackageStatus.CREATED, null, description);
+        }
+        PackageStatus status = STATUSES[in.get()];
+        String location = readString(in);
+        String description = readString(in);
+        return new PackageMutation(type, sequence, trackingId, timestamp, null, null, null, null,
+                0, status, location, description);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] encoded = new byte[in.getInt()];
+        in.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Mutation[#%d %s %s]", sequence, type, TrackingNumbers.format(trackingId));
+    }
+}
@@ -0,0 +1,24 @@
+// A read model derived from the package mutation stream. The log is the source of
+// truth: the package store, every index behind DHLServer's queries and any projection
+// added through DHLServer.addProjection are all folds over it, and can be thrown away
+// and rebuilt by replaying it.
+//
+// A log compacted by a snapshot no longer holds each package's early mutations, so a
+// package can also enter a projection as a whole state through added, be it on
+// create, from a snapshot or in a backfill. DHLServer calls a projection while holding
+// the package's lock, so calls for one package never overlap and arrive in log order;
+// calls for different packages run concurrently.
+public interface PackageProjection {
+    void added(long trackingId, Package pkg);
+
+    // A STATUS_UPDATE mutation took the package from before to after
+    void updated(PackageMutation mutation, Package before, Package after);
+
+    // Packages created together under one lock; projections that can index a batch
+    // more cheaply than one package at a time override this
+    default void addedAll(long[] trackingIds, Package[] pkgs) {
+        for (int i = 0; i < trackingIds.length; i++) {
+            added(trackingIds[i], pkgs[i]);
+        }
+    }
+}
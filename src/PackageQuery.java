@@ -0,0 +1,125 @@
+import java.time.LocalDateTime;
+
+// A query combining substring matches on sender and recipient with a PackageFilter's
+// status and time windows, an optional order and a limit, as in
+//   sender contains "acme" AND status IN (IN_TRANSIT, OUT_FOR_DELIVERY)
+//   AND lastUpdated >= T ORDER BY lastUpdated DESC LIMIT 100
+// Built like PackageFilter, each method returning a new query. DHLServer.query picks
+// the indexes to run it through.
+public final class PackageQuery {
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private static final PackageQuery ALL = new PackageQuery(null, null, PackageFilter.all(), null, NO_LIMIT);
+
+    private final String senderContains;
+    private final String recipientContains;
+    private final PackageFilter filter;
+    private final ScanOrder order;
+    private final int limit;
+
+    private PackageQuery(String senderContains, String recipientContains, PackageFilter filter, ScanOrder order,
+                         int limit) {
+        this.senderContains = senderContains;
+        this.recipientContains = recipientContains;
+        this.filter = filter;
+        this.order = order;
+        this.limit = limit;
+    }
+
+    public static PackageQuery all() {
+        return ALL;
+    }
+
+    // Case-insensitive; null or blank drops the condition
+    public PackageQuery senderContains(String text) {
+        return new PackageQuery(normalize(text), recipientContains, filter, order, limit);
+    }
+
+    public PackageQuery recipientContains(String text) {
+        return new PackageQuery(senderContains, normalize(text), filter, order, limit);
+    }
+
+    public PackageQuery withStatuses(PackageStatus... statuses) {
+        return new PackageQuery(senderContains, recipientContains, filter.withStatuses(statuses), order, limit);
+    }
+
+    // Bounds as in PackageFilter: from inclusive, to exclusive, either may be null
+    public PackageQuery createdBetween(LocalDateTime from, LocalDateTime to) {
+        return new PackageQuery(senderContains, recipientContains, filter.createdBetween(from, to), order, limit);
+    }
+
+    public PackageQuery updatedBetween(LocalDateTime from, LocalDateTime to) {
+        return new PackageQuery(senderContains, recipientContains, filter.updatedBetween(from, to), order, limit);
+    }
+
+    // Without an order, results come in whatever order the chosen index yields them
+    public PackageQuery orderBy(ScanOrder newOrder) {
+        return new PackageQuery(senderContains, recipientContains, filter, newOrder, limit);
+    }
+
+    public PackageQuery limit(int newLimit) {
+        if (newLimit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + newLimit);
+        }
+        return new PackageQuery(senderContains, recipientContains, filter, order, newLimit);
+    }
+
+    private static String normalize(String text) {
+        return text == null || text.trim().isEmpty() ? null : TrigramIndex.normalize(text.trim());
+    }
+
+    // Normalized, or null if the query has no such condition
+    public String getSenderContains() { return senderContains; }
+    public String getRecipientContains() { return recipientContains; }
+    public PackageFilter getFilter() { return filter; }
+    // Null for no particular order
+    public ScanOrder getOrder() { return order; }
+    public int getLimit() { return limit; }
+
+    public boolean matches(Package pkg) {
+        return filter.matches(pkg)
+                && (senderContains == null || TrigramIndex.normalize(pkg.getSenderName()).contains(senderContains))
+                && (recipientContains == null
+                        || TrigramIndex.normalize(pkg.getRecipientName()).contains(recipientContains));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (senderContains != null) {
+            text.append("sender contains \"").append(senderContains).append("\" AND ");
+        }
+        if (recipientContains != null) {
+            text.append("recipient contains \"").append(recipientContains).append("\" AND ");
+        }
+        if (filter.restrictsStatus()) {
+            text.append("status IN (");
+            String separator = "";
+            for (PackageStatus status : PackageStatus.values()) {
+                if (filter.includes(status)) {
+                    text.append(separator).append(status.name());
+                    separator = ", ";
+                }
+            }
+            text.append(") AND ");
+        }
+        if (filter.restrictsCreated()) {
+            text.append("created in window AND ");
+        }
+        if (filter.restrictsUpdated()) {
+            text.append("lastUpdated in window AND ");
+        }
+        if (text.length() == 0) {
+            text.append("all packages");
+        } else {
+            text.setLength(text.length() - " AND ".length());
+        }
+        if (order != null) {
+            text.append(" ORDER BY ").append(order);
+        }
+        if (limit != NO_LIMIT) {
+            text.append(" LIMIT ").append(limit);
+        }
+        return text.toString();
+    }
+}
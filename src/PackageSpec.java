@@ -0,0 +1,81 @@
+// Everything needed to create a package, for batch creation through
+// DHLServer.createPackages
+public final class PackageSpec {
+    // The creation form's fields, in form order
+    public enum Field {
+        SENDER_NAME("Sender name"),
+        SENDER_ADDRESS("Sender address"),
+        RECIPIENT_NAME("Recipient name"),
+        RECIPIENT_ADDRESS("Recipient address"),
+        WEIGHT("Weight"),
+        DESCRIPTION("Description");
+
+        private final String label;
+
+        Field(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public static final String INVALID_WEIGHT_MESSAGE = "Please enter a valid weight (decimal number)";
+
+    private final String senderName;
+    private final String senderAddress;
+    private final String recipientName;
+    private final String recipientAddress;
+    private final double weight;
+    private final String description;
+
+    public PackageSpec(String senderName, String senderAddress, String recipientName, String recipientAddress,
+                       double weight, String description) {
+        this.senderName = senderName;
+        this.senderAddress = senderAddress;
+        this.recipientName = recipientName;
+        this.recipientAddress = recipientAddress;
+        this.weight = weight;
+        this.description = description;
+    }
+
+    // The rules PackageCreationPanel applies: every field is required once trimmed.
+    // Returns the first missing field in form order, or null if none is missing.
+    public static Field findMissingField(String senderName, String senderAddress, String recipientName,
+                                         String recipientAddress, String weight, String description) {
+        String[] values = {senderName, senderAddress, recipientName, recipientAddress, weight, description};
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null || values[i].trim().isEmpty()) {
+                return Field.values()[i];
+            }
+        }
+        return null;
+    }
+
+    // Builds a spec from raw text under the creation form's rules, trimming every value.
+    // Throws IllegalArgumentException carrying the message the form would show.
+    public static PackageSpec parse(String senderName, String senderAddress, String recipientName,
+                                    String recipientAddress, String weight, String description) {
+        Field missing = findMissingField(senderName, senderAddress, recipientName, recipientAddress, weight,
+                description);
+        if (missing != null) {
+            throw new IllegalArgumentException(missing.getLabel() + " is required");
+        }
+        double parsedWeight;
+        try {
+            parsedWeight = Double.parseDouble(weight.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(INVALID_WEIGHT_MESSAGE);
+        }
+        return new PackageSpec(senderName.trim(), senderAddress.trim(), recipientName.trim(),
+                recipientAddress.trim(), parsedWeight, description.trim());
+    }
+
+    public String getSenderName() { return senderName; }
+    public String getSenderAddress() { return senderAddress; }
+    public String getRecipientName() { return recipientName; }
+    public String getRecipientAddress() { return recipientAddress; }
+    public double getWeight() { return weight; }
+    public String getDescription() { return description; }
+}
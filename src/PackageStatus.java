@@ -21,6 +21,11 @@ public enum PackageStatus {
         return description;
     }
 
+    // The shipment is finished and its package is only looked up now and then
+    public boolean isTerminal() {
+        return this == DELIVERED || this == RETURNED_TO_SENDER;
+    }
+
     @Override
     public String toString() {
         return name().replace("_", " ");
@@ -0,0 +1,37 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Primary storage behind DHLServer, keyed by the numeric tracking id. DHLServer
+// serializes writes to the same id, so implementations only need to be safe for
+// concurrent writes to different ids and for readers racing with writers. Packages
+// handed out by get and forEach are immutable states; a reader never sees part of
+// an update.
+public interface PackageStore {
+    Package get(long trackingId);
+
+    // Returns false if the id is already taken
+    boolean insert(long trackingId, Package pkg);
+
+    // Applies a STATUS_UPDATE mutation; returns the new state, or null if the id is unknown
+    Package updateStatus(PackageMutation mutation);
+
+    int size();
+
+    void forEach(Consumer<Package> action);
+
+    // Stores that can test the filter without materializing a package override this
+    default void forEachMatching(PackageFilter filter, Consumer<Package> action) {
+        forEach(pkg -> {
+            if (filter.matches(pkg)) {
+                action.accept(pkg);
+            }
+        });
+    }
+
+    default Map<PackageStatus, Double> weightByStatus() {
+        Map<PackageStatus, Double> totals = new EnumMap<>(PackageStatus.class);
+        forEach(pkg -> totals.merge(pkg.getStatus(), pkg.getWeight(), Double::sum));
+        return totals;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+// Applies a mutation stream on several worker threads. Mutations are partitioned by
+// tracking id, so each package's mutations are applied by one worker in stream order
+// while different packages replay in parallel. The target must therefore be safe to
+// call concurrently for different packages. Mutations reach the workers in batches
+// to keep the hand-off cheap; with a single worker everything runs on the caller.
+final class ParallelReplay implements Consumer<PackageMutation> {
+    private static final int BATCH = 1024;
+    private static final int QUEUED_BATCHES = 8;
+    private static final PackageMutation[] END = new PackageMutation[0];
+
+    private final Consumer<PackageMutation> target;
+    private final Worker[] workers;
+    private volatile RuntimeException failure;
+
+    ParallelReplay(int parallelism, Consumer<PackageMutation> target) {
+        this.target = target;
+        this.workers = new Worker[parallelism > 1 ? parallelism : 0];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i);
+            workers[i].thread.start();
+        }
+    }
+
+    @Override
+    public void accept(PackageMutation mutation) {
+        if (workers.length == 0) {
+            target.accept(mutation);
+            return;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        workers[(int) (mutation.getTrackingId() % workers.length)].add(mutation);
+    }
+
+    // Waits for every mutation handed over so far to be applied. Rethrows a worker's
+    // failure once every worker has drained its queue.
+    void finish() {
+        for (Worker worker : workers) {
+            worker.handOver();
+            worker.put(END);
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for log replay", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingQueue<PackageMutation[]> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        private final Thread thread;
+        private PackageMutation[] batch = new PackageMutation[BATCH];
+        private int count;
+
+        Worker(int index) {
+            this.thread = new Thread(this, "ehc-replay-" + index);
+            thread.setDaemon(true);
+        }
+
+        void add(PackageMutation mutation) {
+            batch[count++] = mutation;
+            if (count == BATCH) {
+                handOver();
+            }
+        }
+
+        void handOver() {
+            if (count > 0) {
+                put(count == BATCH ? batch : Arrays.copyOf(batch, count));
+                batch = new PackageMutation[BATCH];
+                count = 0;
+            }
+        }
+
+        void put(PackageMutation[] mutations) {
+            try {
+                queue.put(mutations);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while replaying the log", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PackageMutation[] mutations = queue.take();
+                    if (mutations == END) {
+                        return;
+                    }
+                    // After a failure the queue is still drained so that the reader never blocks
+                    for (int i = 0; i < mutations.length && failure == null; i++) {
+                        target.accept(mutations[i]);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                failure = e;
+                drain();
+            }
+        }
+
+        private void drain() {
+            try {
+                while (queue.take() != END) {
+                    // Discarding
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
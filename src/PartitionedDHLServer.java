@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Splits the packages across N in-process DHLServer shards by a hash of the tracking
+// number. Every shard has its own store, locks, indexes, write-ahead log and
+// snapshots, so writes to different shards never contend, and a shard is the unit
+// that persistence and replication work on. Tracking numbers come from one
+// allocator shared with the shards, which therefore sees every id they recover.
+//
+// Calls about one package go to the shard that owns it. Batches are split by shard
+// and the shards run in parallel; queries fan out to every shard in parallel and
+// the results are merged. A shard's data only makes sense for the shard count it
+// was written with, so the count is recorded next to the shard directories.
+public class PartitionedDHLServer {
+    public interface ShardFactory {
+        DHLServer create(int shard, TrackingNumberAllocator allocator);
+    }
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final DHLServer[] shards;
+    private final TrackingNumberAllocator allocator;
+
+    // Persistent shards under DATA_DIRECTORY/shards/<n>
+    public PartitionedDHLServer(int shardCount) {
+        this(shardCount, new ShardedSequenceAllocator(),
+             persistentShards(Paths.get(DHLServer.DATA_DIRECTORY, "shards"), shardCount));
+    }
+
+    public PartitionedDHLServer(int shardCount, TrackingNumberAllocator allocator, ShardFactory factory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+        this.allocator = allocator;
+        this.shards = new DHLServer[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = factory.create(i, allocator);
+        }
+    }
+
+    // Heap-only shards without a log, for tests and tools
+    public static PartitionedDHLServer inMemory(int shardCount) {
+        return new PartitionedDHLServer(shardCount, new ShardedSequenceAllocator(),
+                (shard, allocator) -> new DHLServer(allocator));
+    }
+
+    public static ShardFactory persistentShards(Path directory, int shardCount) {
+        checkLayout(directory, shardCount);
+        return (shard, allocator) -> {
+            Path shardDirectory = directory.resolve(Integer.toString(shard));
+            return new DHLServer(DHLServer.configuredStore(shardDirectory.resolve("archive")), allocator,
+                    new WriteAheadLog(shardDirectory.resolve("wal"), WriteAheadLog.Durability.PER_BATCH),
+                    new SnapshotManager(shardDirectory.resolve("snapshots")));
+        };
+    }
+
+    private static void checkLayout(Path directory, int shardCount) {
+        Path layout = directory.resolve("shard-count");
+        try {
+            if (Files.exists(layout)) {
+                int existing = Integer.parseInt(new String(Files.readAllBytes(layout), StandardCharsets.UTF_8).trim());
+                if (existing != shardCount) {
+                    throw new IllegalStateException(directory + " holds " + existing + " shards, not " + shardCount);
+                }
+            } else {
+                Files.createDirectories(directory);
+                Files.write(layout, Integer.toString(shardCount).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public DHLServer getShard(int shard) {
+        return shards[shard];
+    }
+
+    // Sequential ids would otherwise land on the shards round-robin in lockstep with
+    // the lock stripes inside each shard
+    public int shardOf(long trackingId) {
+        return (int) Long.remainderUnsigned((trackingId * HASH_MULTIPLIER) >>> 32, shards.length);
+    }
+
+    private DHLServer shardFor(long trackingId) {
+        return shards[shardOf(trackingId)];
+    }
+
+    public String generateTrackingNumber() {
+        return TrackingNumbers.format(allocator.allocate());
+    }
+
+    public Package createPackage(String senderName, String senderAddress,
+                                 String recipientName, String recipientAddress,
+                                 double weight, String description) {
+        long trackingId = allocator.allocate();
+        return shardFor(trackingId).createPackage(trackingId, senderName, senderAddress, recipientName,
+                recipientAddress, weight, description);
+    }
+
+    // Creates a package per spec and returns them in the same order
+    public List<Package> createPackages(List<PackageSpec> specs) {
+        long[] trackingIds = new long[specs.size()];
+        for (int i = 0; i < trackingIds.length; i++) {
+            trackingIds[i] = allocator.allocate();
+        }
+        int[][] groups = groupByShard(trackingIds);
+        Package[] created = new Package[trackingIds.length];
+        IntStream.range(0, shards.length).parallel().filter(shard -> groups[shard] != null).forEach(shard -> {
+            int[] group = groups[shard];
+            long[] ids = new long[group.length];
+            List<PackageSpec> shardSpecs = new ArrayList<>(group.length);
+            for (int k = 0; k < group.length; k++) {
+                ids[k] = trackingIds[group[k]];
+                shardSpecs.add(specs.get(group[k]));
+            }
+            List<Package> shardCreated = shards[shard].createPackages(ids, shardSpecs);
+            for (int k = 0; k < group.length; k++) {
+                created[group[k]] = shardCreated.get(k);
+            }
+        });
+        return Arrays.asList(created);
+    }
+
+    public Package findPackage(String trackingNumber) {
+        long trackingId = TrackingNumbers.parse(trackingNumber);
+        return trackingId < 0 ? null : shardFor(trackingId).findPackage(trackingId);
+    }
+
+    public Package findPackage(long trackingId) {
+        if (trackingId < 0 || trackingId >= TrackingNumbers.BODY_SPACE) {
+            return null;
+        }
+        return shardFor(trackingId).findPackage(trackingId);
+    }
+
+    public boolean updatePackageStatus(String trackingNumber, PackageStatus newStatus, String location,
+                                       String description) {
+        return updatePackageStatusIfVersion(trackingNumber, DHLServer.ANY_VERSION, newStatus, location, description);
+    }
+
+    public boolean updatePackageStatusIfVersion(String trackingNumber, long expectedVersion, PackageStatus newStatus,
+                                                String location, String description) {
+        long trackingId = TrackingNumbers.parse(trackingNumber);
+        return trackingId >= 0 && shardFor(trackingId).updatePackageStatusIfVersion(trackingNumber,
+                expectedVersion, newStatus, location, description);
+    }
+
+    // Returns one result per update, in the same order; each shard applies its part
+    // of the batch as DHLServer.applyStatusUpdates does
+    public List<StatusUpdate.Result> applyStatusUpdates(List<StatusUpdate> updates) {
+        long[] trackingIds = new long[updates.size()];
+        StatusUpdate.Result[] results = new StatusUpdate.Result[updates.size()];
+        for (int i = 0; i < trackingIds.length; i++) {
+            trackingIds[i] = TrackingNumbers.parse(updates.get(i).getTrackingNumber());
+            if (trackingIds[i] < 0) {
+                results[i] = new StatusUpdate.Result(StatusUpdate.Outcome.NOT_FOUND, null);
+            }
+        }
+        int[][] groups = groupByShard(trackingIds);
+        IntStream.range(0, shards.length).parallel().filter(shard -> groups[shard] != null).forEach(shard -> {
+            int[] group = groups[shard];
+            List<StatusUpdate> shardUpdates = new ArrayList<>(group.length);
+            for (int i : group) {
+                shardUpdates.add(updates.get(i));
+            }
+            List<StatusUpdate.Result> shardResults = shards[shard].applyStatusUpdates(shardUpdates);
+            for (int k = 0; k < group.length; k++) {
+                results[group[k]] = shardResults.get(k);
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    // Indexes into trackingIds per shard, in batch order; invalid ids are left out
+    private int[][] groupByShard(long[] trackingIds) {
+        int[] counts = new int[shards.length];
+        for (long trackingId : trackingIds) {
+            if (trackingId >= 0) {
+                counts[shardOf(trackingId)]++;
+            }
+        }
+        int[][] groups = new int[shards.length][];
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (counts[shard] > 0) {
+                groups[shard] = new int[counts[shard]];
+                counts[shard] = 0;
+            }
+        }
+        for (int i = 0; i < trackingIds.length; i++) {
+            if (trackingIds[i] >= 0) {
+                int shard = shardOf(trackingIds[i]);
+                groups[shard][counts[shard]++] = i;
+            }
+        }
+        return groups;
+    }
+
+    public List<Package> findPackagesBySender(String senderName) {
+        return concat(fanOut(shard -> shard.findPackagesBySender(senderName)));
+    }
+
+    public List<Package> findPackagesByRecipient(String recipientName) {
+        return concat(fanOut(shard -> shard.findPackagesByRecipient(recipientName)));
+    }
+
+    public List<Package> findPackagesByStatus(PackageStatus status) {
+        return concat(fanOut(shard -> shard.findPackagesByStatus(status)));
+    }
+
+    // Results come shard by shard; within a shard they are ordered as in DHLServer.findPackages
+    public List<Package> findPackages(PackageFilter filter) {
+        return concat(fanOut(shard -> shard.findPackages(filter)));
+    }
+
+    // Visits the shards one after another, so the action needs no synchronization
+    public void forEachPackage(PackageFilter filter, Consumer<Package> action) {
+        for (DHLServer shard : shards) {
+            shard.forEachPackage(filter, action);
+        }
+    }
+
+    // Merges the shards' pages for the same cursor. Cursors hold the sort key of the
+    // last package passed, which is the same in every shard, so one global cursor
+    // serves all of them.
+    public ScanPage scan(Cursor cursor, int limit, ScanOrder order) {
+        List<ScanPage> pages = fanOut(shard -> shard.scan(cursor, limit, order));
+        Comparator<Package> comparator = Comparator.comparingLong(PartitionedDHLServer::trackingIdOf);
+        if (order != ScanOrder.TRACKING_NUMBER) {
+            comparator = Comparator.comparingLong((Package pkg) -> EpochMillis.of(pkg.getLastUpdated()))
+                    .thenComparing(comparator);
+            if (order == ScanOrder.LAST_UPDATED_DESCENDING) {
+                comparator = comparator.reversed();
+            }
+        }
+        List<Package> merged = new ArrayList<>();
+        boolean more = false;
+        for (ScanPage page : pages) {
+            merged.addAll(page.getPackages());
+            more |= page.hasMore();
+        }
+        merged.sort(comparator);
+        // Every shard returned up to limit packages from the same position, so the
+        // first limit of the merged list are the first limit overall
+        if (merged.size() > limit) {
+            merged = new ArrayList<>(merged.subList(0, limit));
+            more = true;
+        }
+        if (!more || merged.isEmpty()) {
+            return new ScanPage(merged, null);
+        }
+        Package last = merged.get(merged.size() - 1);
+        long millis = order == ScanOrder.TRACKING_NUMBER ? 0 : EpochMillis.of(last.getLastUpdated());
+        return new ScanPage(merged, Cursor.after(order, millis, trackingIdOf(last)));
+    }
+
+    private static long trackingIdOf(Package pkg) {
+        return TrackingNumbers.parse(pkg.getTrackingNumber());
+    }
+
+    // Each shard plans the query for its own indexes; the results are merged in the
+    // query's order and cut to its limit
+    public QueryResult query(PackageQuery query) {
+        List<QueryResult> parts = fanOut(shard -> shard.query(query));
+        List<Package> merged = new ArrayList<>();
+        long examined = 0;
+        for (QueryResult part : parts) {
+            merged.addAll(part.getPackages());
+            examined += part.getExamined();
+        }
+        if (query.getOrder() != null) {
+            merged.sort(QueryPlanner.comparator(query.getOrder()));
+        }
+        if (merged.size() > query.getLimit()) {
+            merged = new ArrayList<>(merged.subList(0, query.getLimit()));
+        }
+        return new QueryResult(merged, shards.length + " shards, shard 0: " + parts.get(0).getPlan(), examined);
+    }
+
+    public int getTotalPackages() {
+        return fanOut(DHLServer::getTotalPackages).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public int getArchivedPackageCount() {
+        return fanOut(DHLServer::getArchivedPackageCount).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public Map<PackageStatus, Long> getPackageStatusSummary() {
+        Map<PackageStatus, Long> summary = new EnumMap<>(PackageStatus.class);
+        for (Map<PackageStatus, Long> shardSummary : fanOut(DHLServer::getPackageStatusSummary)) {
+            shardSummary.forEach((status, count) -> summary.merge(status, count, Long::sum));
+        }
+        return summary;
+    }
+
+    public Map<PackageStatus, Double> getPackageWeightSummary() {
+        Map<PackageStatus, Double> summary = new EnumMap<>(PackageStatus.class);
+        for (Map<PackageStatus, Double> shardSummary : fanOut(DHLServer::getPackageWeightSummary)) {
+            shardSummary.forEach((status, weight) -> summary.merge(status, weight, Double::sum));
+        }
+        return summary;
+    }
+
+    // Snapshots every shard in parallel and returns the paths in shard order
+    public List<Path> writeSnapshots() throws IOException {
+        try {
+            return fanOut(shard -> {
+                try {
+                    return shard.writeSnapshot();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Every shard feeds and backfills the projection on its own, so it sees the
+    // packages of all shards, each shard's concurrently with the others
+    public CompletableFuture<Void> addProjection(PackageProjection projection) {
+        return allOf(fanOut(shard -> shard.addProjection(projection)));
+    }
+
+    public void removeProjection(PackageProjection projection) {
+        for (DHLServer shard : shards) {
+            shard.removeProjection(projection);
+        }
+    }
+
+    public CompletableFuture<Void> rebuildIndexes() {
+        return allOf(fanOut(DHLServer::rebuildIndexes));
+    }
+
+    private static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // Results in shard order
+    private <T> List<T> fanOut(Function<DHLServer, T> query) {
+        return Arrays.stream(shards).parallel().map(query).collect(Collectors.toList());
+    }
+
+    private static List<Package> concat(List<List<Package>> parts) {
+        int size = 0;
+        for (List<Package> part : parts) {
+            size += part.size();
+        }
+        List<Package> results = new ArrayList<>(size);
+        for (List<Package> part : parts) {
+            results.addAll(part);
+        }
+        return results;
+    }
+
+    // Shards recover their logs in parallel
+    public void start() {
+        Arrays.stream(shards).parallel().forEach(DHLServer::start);
+    }
+
+    public void stop() {
+        Arrays.stream(shards).parallel().forEach(DHLServer::stop);
+    }
+
+    public boolean isRunning() {
+        return Arrays.stream(shards).allMatch(DHLServer::isRunning);
+    }
+}
@@ -0,0 +1,373 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// Runs a PackageQuery for DHLServer. Every condition an index can serve is an access
+// path with an estimated candidate count: the smallest trigram posting for a sender
+// or recipient substring, the selected status sets, and a created or lastUpdated
+// window, counted only as far as the best estimate so far. With a limit, walking the
+// requested order (or tracking numbers) is a path too; it stops at the limit, so its
+// cost is the limit divided by the combined selectivity of the other conditions.
+//
+// The cheapest path drives. Its candidates are intersected with the other trigram
+// postings unless those are more than INTERSECT_RATIO times larger, and pruned by the
+// status sets, before any package is read; every remaining condition is then tested
+// on the package itself. Packages updated while a query runs are seen in either
+// their old or their new state.
+final class QueryPlanner {
+    private static final int INTERSECT_RATIO = 8;
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+
+    private enum Access {
+        SENDER,
+        RECIPIENT,
+        STATUS,
+        CREATED,
+        UPDATED,
+        WALK,
+        SCAN
+    }
+
+    private final PackageStore packages;
+    private final PackageIndexes indexes;
+    private final StringBuilder plan = new StringBuilder();
+    private long examined;
+
+    QueryPlanner(PackageStore packages, PackageIndexes indexes) {
+        this.packages = packages;
+        this.indexes = indexes;
+    }
+
+    QueryResult execute(PackageQuery query) {
+        PackageFilter filter = query.getFilter();
+        long storeSize = packages.size();
+        LongPostingList senderPosting = posting(indexes.getSenderIndex(), query.getSenderContains());
+        LongPostingList recipientPosting = posting(indexes.getRecipientIndex(), query.getRecipientContains());
+        long statusCount = indexes.getStatusIndex().count(filter);
+
+        boolean walkable = query.getOrder() != null || query.getLimit() != PackageQuery.NO_LIMIT;
+        Access best = walkable ? Access.WALK : Access.SCAN;
+        long bestCost = storeSize;
+        // Fraction of the store the conditions other than an order walk's keep
+        double selectivity = 1;
+        if (senderPosting != null) {
+            selectivity *= fraction(senderPosting.size(), storeSize);
+            if (senderPosting.size() < bestCost) {
+                best = Access.SENDER;
+                bestCost = senderPosting.size();
+            }
+        }
+        if (recipientPosting != null) {
+            selectivity *= fraction(recipientPosting.size(), storeSize);
+            if (recipientPosting.size() < bestCost) {
+                best = Access.RECIPIENT;
+                bestCost = recipientPosting.size();
+            }
+        }
+        if (filter.restrictsStatus()) {
+            selectivity *= fraction(statusCount, storeSize);
+            if (statusCount < bestCost) {
+                best = Access.STATUS;
+                bestCost = statusCount;
+            }
+        }
+        if (filter.restrictsUpdated()) {
+            long count = countUpTo(updatedWindow(filter, false), bestCost);
+            if (count < bestCost) {
+                selectivity *= fraction(count, storeSize);
+                best = Access.UPDATED;
+                bestCost = count;
+            }
+        }
+        if (filter.restrictsCreated()) {
+            long count = countUpTo(createdWindow(filter), bestCost);
+            if (count < bestCost) {
+                selectivity *= fraction(count, storeSize);
+                best = Access.CREATED;
+                bestCost = count;
+            }
+        }
+        if (walkable && best != Access.WALK) {
+            double walkCost = selectivity == 0 ? storeSize : query.getLimit() / selectivity;
+            if (walkCost < bestCost) {
+                best = Access.WALK;
+            }
+        }
+
+        List<Package> results;
+        if (best == Access.WALK) {
+            results = walk(query);
+        } else if (best == Access.SCAN) {
+            results = scan(query);
+        } else {
+            long[] candidates = candidates(best, query, senderPosting, recipientPosting);
+            results = fetch(query, candidates);
+        }
+        return new QueryResult(results, plan.toString(), examined);
+    }
+
+    private static LongPostingList posting(TrigramIndex index, String text) {
+        return text != null && index.canServe(text) ? index.candidates(text) : null;
+    }
+
+    private static double fraction(long count, long storeSize) {
+        return storeSize == 0 ? 0 : (double) count / storeSize;
+    }
+
+    private ConcurrentSortedLongSet.Walk updatedWindow(PackageFilter filter, boolean descending) {
+        return indexes.getLastUpdatedIndex().range(filter.getUpdatedFrom(), filter.getUpdatedTo(), descending);
+    }
+
+    private ConcurrentSortedLongSet.Walk createdWindow(PackageFilter filter) {
+        return indexes.getCreatedIndex().range(filter.getCreatedFrom(), filter.getCreatedTo(), false);
+    }
+
+    // Counts at most cap entries, so probing a large window stays cheap
+    private static long countUpTo(ConcurrentSortedLongSet.Walk window, long cap) {
+        long count = 0;
+        while (count < cap && window.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private long[] candidates(Access driver, PackageQuery query, LongPostingList senderPosting,
+                              LongPostingList recipientPosting) {
+        PackageFilter filter = query.getFilter();
+        long[] ids;
+        switch (driver) {
+            case SENDER:
+                ids = toArray(senderPosting);
+                plan.append("sender index: ").append(ids.length);
+                break;
+            case RECIPIENT:
+                ids = toArray(recipientPosting);
+                plan.append("recipient index: ").append(ids.length);
+                break;
+            case STATUS:
+                ids = statusIds(filter);
+                plan.append("status index: ").append(ids.length);
+                break;
+            case UPDATED:
+                ids = windowIds(updatedWindow(filter, false));
+                plan.append("lastUpdated index: ").append(ids.length);
+                break;
+            default:
+                ids = windowIds(createdWindow(filter));
+                plan.append("created index: ").append(ids.length);
+                break;
+        }
+        if (driver != Access.SENDER && driver != Access.RECIPIENT) {
+            // A package being moved can sit under two statuses or timestamps for a moment
+            ids = distinct(ids);
+        }
+        if (driver != Access.SENDER && senderPosting != null
+                && senderPosting.size() <= (long) ids.length * INTERSECT_RATIO) {
+            ids = intersect(ids, senderPosting);
+            plan.append(", intersected with sender index: ").append(ids.length);
+        }
+        if (driver != Access.RECIPIENT && recipientPosting != null
+                && recipientPosting.size() <= (long) ids.length * INTERSECT_RATIO) {
+            ids = intersect(ids, recipientPosting);
+            plan.append(", intersected with recipient index: ").append(ids.length);
+        }
+        if (driver != Access.STATUS && filter.restrictsStatus()) {
+            ids = retainStatuses(ids, filter);
+            plan.append(", status index: ").append(ids.length);
+        }
+        return ids;
+    }
+
+    private static long[] toArray(LongPostingList posting) {
+        IdBuffer ids = new IdBuffer(posting.size());
+        posting.forEach(ids);
+        return ids.toArray();
+    }
+
+    private long[] statusIds(PackageFilter filter) {
+        IdBuffer ids = new IdBuffer((int) Math.min(indexes.getStatusIndex().count(filter), Integer.MAX_VALUE - 8));
+        for (PackageStatus status : STATUSES) {
+            if (filter.includes(status)) {
+                indexes.getStatusIndex().getTrackingIds(status).forEach(ids);
+            }
+        }
+        return ids.toArray();
+    }
+
+    private static long[] windowIds(ConcurrentSortedLongSet.Walk window) {
+        IdBuffer ids = new IdBuffer(64);
+        while (window.next()) {
+            ids.accept(window.second());
+        }
+        return ids.toArray();
+    }
+
+    // Sorted, without duplicates
+    private static long[] distinct(long[] ids) {
+        Arrays.sort(ids);
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    // Postings are in insertion order, so the candidates are sorted and each posted id
+    // looked up in them
+    private static long[] intersect(long[] ids, LongPostingList posting) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        boolean[] hit = new boolean[sorted.length];
+        posting.forEach(id -> {
+            int index = Arrays.binarySearch(sorted, id);
+            if (index >= 0) {
+                hit[index] = true;
+            }
+        });
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (hit[i]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    private long[] retainStatuses(long[] ids, PackageFilter filter) {
+        int count = 0;
+        for (long id : ids) {
+            if (inSelectedStatus(id, filter)) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private boolean inSelectedStatus(long id, PackageFilter filter) {
+        for (PackageStatus status : STATUSES) {
+            if (filter.includes(status) && indexes.getStatusIndex().getTrackingIds(status).contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Package> fetch(PackageQuery query, long[] ids) {
+        ScanOrder order = query.getOrder();
+        boolean byTime = order == ScanOrder.LAST_UPDATED || order == ScanOrder.LAST_UPDATED_DESCENDING;
+        if (order == ScanOrder.TRACKING_NUMBER) {
+            Arrays.sort(ids);
+        }
+        // Ordered by time, every match has to be seen before the first can be returned
+        int stopAt = byTime ? Integer.MAX_VALUE : query.getLimit();
+        List<Package> results = new ArrayList<>(Math.min(ids.length, 1024));
+        for (int i = 0; i < ids.length && results.size() < stopAt; i++) {
+            Package pkg = packages.get(ids[i]);
+            examined++;
+            if (pkg != null && query.matches(pkg)) {
+                results.add(pkg);
+            }
+        }
+        if (byTime) {
+            results.sort(comparator(order));
+            if (results.size() > query.getLimit()) {
+                results = new ArrayList<>(results.subList(0, query.getLimit()));
+            }
+            plan.append(", sorted by ").append(order);
+        }
+        return results;
+    }
+
+    private List<Package> walk(PackageQuery query) {
+        PackageFilter filter = query.getFilter();
+        List<Package> results = new ArrayList<>(Math.min(query.getLimit(), 1024));
+        if (query.getOrder() == ScanOrder.LAST_UPDATED || query.getOrder() == ScanOrder.LAST_UPDATED_DESCENDING) {
+            boolean descending = query.getOrder() == ScanOrder.LAST_UPDATED_DESCENDING;
+            ConcurrentSortedLongSet.Walk keys = filter.restrictsUpdated() ? updatedWindow(filter, descending)
+                    : indexes.getLastUpdatedIndex().walk(descending);
+            plan.append(filter.restrictsUpdated() ? "lastUpdated index window walk" : "lastUpdated index walk");
+            while (results.size() < query.getLimit() && keys.next()) {
+                long trackingId = keys.second();
+                if (filter.restrictsStatus() && !inSelectedStatus(trackingId, filter)) {
+                    continue;
+                }
+                Package pkg = packages.get(trackingId);
+                examined++;
+                // An entry can outlive its update for a moment; the package is listed
+                // under its new timestamp instead
+                if (pkg != null && EpochMillis.of(pkg.getLastUpdated()) == keys.first() && query.matches(pkg)) {
+                    results.add(pkg);
+                }
+            }
+        } else {
+            plan.append("tracking number walk");
+            ConcurrentSortedLongSet.Walk ids = indexes.getTrackingIdOrder().walk(false);
+            while (results.size() < query.getLimit() && ids.next()) {
+                long id = ids.first();
+                if (filter.restrictsStatus() && !inSelectedStatus(id, filter)) {
+                    continue;
+                }
+                Package pkg = packages.get(id);
+                examined++;
+                if (pkg != null && query.matches(pkg)) {
+                    results.add(pkg);
+                }
+            }
+        }
+        if (filter.restrictsStatus()) {
+            plan.append(", pruned by status index");
+        }
+        plan.append(", stopped after ").append(examined).append(" packages");
+        return results;
+    }
+
+    // The store tests the filter before materializing a package
+    private List<Package> scan(PackageQuery query) {
+        List<Package> results = new ArrayList<>();
+        packages.forEachMatching(query.getFilter(), pkg -> {
+            examined++;
+            if (query.matches(pkg)) {
+                results.add(pkg);
+            }
+        });
+        plan.append("full scan");
+        return results;
+    }
+
+    // Collects ids from indexes that may grow while they are read
+    private static final class IdBuffer implements LongConsumer {
+        private long[] ids;
+        private int count;
+
+        IdBuffer(int expected) {
+            this.ids = new long[Math.max(expected, 16)];
+        }
+
+        @Override
+        public void accept(long id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+
+        long[] toArray() {
+            return count == ids.length ? ids : Arrays.copyOf(ids, count);
+        }
+    }
+
+    // The order DHLServer.scan returns packages in
+    static Comparator<Package> comparator(ScanOrder order) {
+        Comparator<Package> byId = Comparator.comparingLong(pkg -> TrackingNumbers.parse(pkg.getTrackingNumber()));
+        if (order == ScanOrder.TRACKING_NUMBER) {
+            return byId;
+        }
+        Comparator<Package> byTime = Comparator.<Package>comparingLong(pkg -> EpochMillis.of(pkg.getLastUpdated()))
+                .thenComparing(byId);
+        return order == ScanOrder.LAST_UPDATED_DESCENDING ? byTime.reversed() : byTime;
+    }
+}
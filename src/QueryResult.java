@@ -0,0 +1,20 @@
+import java.util.List;
+
+// The outcome of a DHLServer.query, with the plan that produced it
+public class QueryResult {
+    private final List<Package> packages;
+    private final String plan;
+    private final long examined;
+
+    public QueryResult(List<Package> packages, String plan, long examined) {
+        this.packages = packages;
+        this.plan = plan;
+        this.examined = examined;
+    }
+
+    public List<Package> getPackages() { return packages; }
+    // Which indexes were used and how many candidates each step left
+    public String getPlan() { return plan; }
+    // Packages read and tested against the query
+    public long getExamined() { return examined; }
+}
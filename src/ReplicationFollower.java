@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+// Keeps a DHLServer in step with a ReplicationLeader. The server is switched to a
+// read replica: it serves reads as usual, rejects writes, and applies the leader's
+// mutations in log order as they arrive. The follower remembers the last sequence
+// it applied and resumes from there after a dropped connection, reconnecting with
+// a growing delay.
+//
+// An empty follower that is behind the leader's retained log is seeded from the
+// leader's newest snapshot. A follower that already holds data cannot be reseeded
+// in place and stops; start it again with an empty server. The replica keeps its
+// state in memory only.
+public class ReplicationFollower implements Closeable {
+    private static final long MIN_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final DHLServer server;
+    private final String host;
+    private final int port;
+    private final CRC32C crc = new CRC32C();
+    private Thread worker;
+    private volatile Socket socket;
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile long appliedSequence;
+    private volatile long appliedMillis;
+    private volatile long leaderSequence;
+    private volatile long leaderMillis;
+    private volatile long appliedCount;
+    private volatile long batchCount;
+    private volatile String failure;
+
+    public ReplicationFollower(DHLServer server, String host, int port) {
+        this.server = server;
+        this.host = host;
+        this.port = port;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        server.setReplica(true);
+        running = true;
+        worker = new Thread(this::followLoop, "ehc-replication-follower");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void followLoop() {
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (running) {
+            try (Socket connection = new Socket()) {
+                connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connection.setTcpNoDelay(true);
+                socket = connection;
+                follow(connection);
+            } catch (EOFException e) {
+                if (running && connected) {
+                    System.err.println("Replication leader " + host + ":" + port + " closed the connection");
+                }
+            } catch (IOException e) {
+                if (running && connected) {
+                    System.err.println("Lost replication leader " + host + ":" + port + ": " + e.getMessage());
+                }
+            } catch (IllegalStateException e) {
+                failure = e.getMessage();
+                System.err.println("Replication stopped: " + e.getMessage());
+                running = false;
+            }
+            if (connected) {
+                retryMillis = MIN_RETRY_MILLIS;
+            }
+            connected = false;
+            if (running) {
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    private void follow(Socket connection) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 256 << 10));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(ReplicationLeader.MAGIC);
+        out.writeInt(ReplicationLeader.VERSION);
+        out.writeLong(appliedSequence);
+        out.flush();
+        connected = true;
+        byte[] frames = new byte[0];
+        while (running) {
+            byte type = in.readByte();
+            if (type == ReplicationLeader.BATCH) {
+                int count = in.readInt();
+                leaderSequence = in.readLong();
+                leaderMillis = in.readLong();
+                int length = in.readInt();
+                if (frames.length < length) {
+                    frames = new byte[Math.max(length, frames.length * 2)];
+                }
+                in.readFully(frames, 0, length);
+                applyFrames(ByteBuffer.wrap(frames, 0, length), count);
+                batchCount++;
+                out.writeLong(appliedSequence);
+                out.flush();
+            } else if (type == ReplicationLeader.HEARTBEAT) {
+                leaderSequence = in.readLong();
+                leaderMillis = in.readLong();
+                out.writeLong(appliedSequence);
+                out.flush();
+            } else if (type == ReplicationLeader.SNAPSHOT) {
+                loadSnapshot(in);
+            } else if (type == ReplicationLeader.ERROR) {
+                throw new IllegalStateException("Leader refused: " + in.readUTF());
+            } else {
+                throw new IOException("Unknown replication message " + type);
+            }
+        }
+    }
+
+    private void applyFrames(ByteBuffer frames, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int length = frames.getInt();
+            int checksum = frames.getInt();
+            ByteBuffer payload = frames.slice(frames.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt replication frame after sequence " + appliedSequence);
+            }
+            frames.position(frames.position() + length);
+            PackageMutation mutation = PackageMutation.decode(payload);
+            if (mutation.getSequence() <= appliedSequence) {
+                continue;
+            }
+            server.applyReplicated(mutation);
+            appliedSequence = mutation.getSequence();
+            appliedMillis = mutation.getTimestamp();
+            appliedCount++;
+        }
+    }
+
+    private void loadSnapshot(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        long size = in.readLong();
+        if (appliedSequence > 0 || server.getTotalPackages() > 0) {
+            throw new IllegalStateException("Replica at sequence " + appliedSequence
+                    + " fell behind the leader's log; restart it with an empty server");
+        }
+        Path directory = Files.createTempDirectory("ehc-replica");
+        Path file = directory.resolve(String.format("snapshot-%020d.snap", sequence));
+        try {
+            try (OutputStream target = Files.newOutputStream(file)) {
+                byte[] buffer = new byte[64 << 10];
+                long remaining = size;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("Snapshot transfer ended early");
+                    }
+                    target.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            SnapshotManager.LoadResult loaded = new SnapshotManager(directory).load(file, server::restoreReplicated);
+            appliedSequence = loaded.getSequence();
+            System.out.println("Seeded replica with " + loaded.getPackageCount() + " packages at sequence "
+                    + loaded.getSequence());
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // Durable sequence the leader reported last
+    public long getLeaderSequence() {
+        return leaderSequence;
+    }
+
+    public long getLagMutations() {
+        return Math.max(0, leaderSequence - appliedSequence);
+    }
+
+    // How far the newest applied mutation trails the leader's clock at its last
+    // message; both times come from the leader, so clock skew does not matter
+    public long getLagMillis() {
+        return getLagMutations() == 0 ? 0 : Math.max(0, leaderMillis - appliedMillis);
+    }
+
+    public long getAppliedCount() {
+        return appliedCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    // Why replication stopped for good, or null
+    public String getFailure() {
+        return failure;
+    }
+
+    // Stops following; the server stays a read replica
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                System.err.println("Error closing replication connection: " + e.getMessage());
+            }
+        }
+        worker.interrupt();
+        try {
+            worker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs an in-memory replica of a leader: ReplicationFollower <host> <port>
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ReplicationFollower <host> <port>");
+            System.exit(2);
+        }
+        DHLServer server = new DHLServer(new ShardedSequenceAllocator());
+        server.start();
+        ReplicationFollower follower = new ReplicationFollower(server, args[0], Integer.parseInt(args[1]));
+        follower.start();
+        while (follower.getFailure() == null) {
+            Thread.sleep(5000);
+            System.out.printf("Replica at sequence %d of %d, %d packages, lag %d mutations / %d ms%n",
+                    follower.getAppliedSequence(), follower.getLeaderSequence(), server.getTotalPackages(),
+                    follower.getLagMutations(), follower.getLagMillis());
+        }
+        System.exit(1);
+    }
+}
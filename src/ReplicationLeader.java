@@ -0,0 +1,352 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Streams a DHLServer's write-ahead log to followers over TCP.
+//
+// A follower connects and names the last sequence it has applied. Its sender thread
+// then tails the log from there and ships durable frames in batches of up to
+// BATCH_BYTES, exactly as they are stored, so followers never see a mutation the
+// leader could still lose in a crash. A follower behind the oldest retained log
+// segment first gets the newest snapshot and continues from its sequence. Followers
+// acknowledge what they have applied, which gives the per-follower lag; when the log
+// is idle a heartbeat still goes out every HEARTBEAT_MILLIS.
+//
+// Wire format, all big-endian. Follower to leader: HELLO [int MAGIC][int VERSION]
+// [long after sequence], then [long applied sequence] acks. Leader to follower:
+// [byte type] followed by
+//   BATCH      [int frames][long durable sequence][long leader millis][int bytes][frames]
+//   HEARTBEAT  [long durable sequence][long leader millis]
+//   SNAPSHOT   [long snapshot sequence][long bytes][snapshot file]
+//   ERROR      [UTF message], after which the leader closes the connection
+//
+// There is no authentication, and the log carries every sender's and recipient's name
+// and address, so the leader binds to the loopback address unless given another one.
+// Followers on other hosts need a bind address on a network trusted with that data.
+public class ReplicationLeader implements Closeable {
+    static final int MAGIC = 0x45484352;
+    static final int VERSION = 1;
+    static final byte BATCH = 1;
+    static final byte HEARTBEAT = 2;
+    static final byte SNAPSHOT = 3;
+    static final byte ERROR = 4;
+
+    private static final int BATCH_BYTES = 256 << 10;
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private final DHLServer server;
+    private final WriteAheadLog log;
+    private final InetAddress bindAddress;
+    private final int requestedPort;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    // Listens on loopback only. Port 0 picks a free port; see getPort
+    public ReplicationLeader(DHLServer server, int port) {
+        this(server, InetAddress.getLoopbackAddress(), port);
+    }
+
+    public ReplicationLeader(DHLServer server, InetAddress bindAddress, int port) {
+        this.server = server;
+        this.log = server.getWriteAheadLog();
+        this.bindAddress = bindAddress;
+        this.requestedPort = port;
+        if (log == null) {
+            throw new IllegalArgumentException("Replication needs a server with a write-ahead log");
+        }
+    }
+
+    // Call after the server has started, so its log is open
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (!log.isOpen()) {
+            throw new IllegalStateException("Start the server before its replication leader");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, requestedPort));
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "ehc-replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Replication leader listening on " + bindAddress.getHostAddress() + " port "
+                + serverSocket.getLocalPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread sender = new Thread(connection, "ehc-replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting replication follower: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public List<FollowerStatus> getFollowers() {
+        long durable = log.getDurableSequence();
+        List<FollowerStatus> followers = new ArrayList<>();
+        for (Connection connection : connections) {
+            followers.add(new FollowerStatus(connection.address, connection.sentSequence,
+                    connection.ackedSequence, durable, connection.lastAckMillis));
+        }
+        return followers;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing replication socket: " + e.getMessage());
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final String address;
+        private volatile long sentSequence;
+        private volatile long ackedSequence;
+        private volatile long lastAckMillis;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getRemoteSocketAddress().toString();
+        }
+
+        @Override
+        public void run() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(socket.getOutputStream(), BATCH_BYTES + 64))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    sendError(out, "Unsupported replication protocol");
+                    return;
+                }
+                long after = in.readLong();
+                ackedSequence = after;
+                lastAckMillis = System.currentTimeMillis();
+                if (after > log.getDurableSequence()) {
+                    sendError(out, "Follower is at sequence " + after + ", ahead of the leader at "
+                            + log.getDurableSequence());
+                    return;
+                }
+                WriteAheadLog.Reader reader = log.newReader(after);
+                if (reader == null) {
+                    after = sendSnapshot(out);
+                    reader = log.newReader(after);
+                    if (reader == null) {
+                        sendError(out, "Log after snapshot sequence " + after + " is gone; retry");
+                        return;
+                    }
+                }
+                sentSequence = after;
+                try (WriteAheadLog.Reader tail = reader) {
+                    stream(tail, in, out);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Replication to " + address + " stopped: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+                connections.remove(this);
+            }
+        }
+
+        private void stream(WriteAheadLog.Reader reader, DataInputStream in, DataOutputStream out)
+                throws IOException, InterruptedException {
+            ByteBuffer batch = ByteBuffer.allocate(BATCH_BYTES);
+            long lastSend = 0;
+            while (running) {
+                batch.clear();
+                int frames = reader.read(batch);
+                long now = System.currentTimeMillis();
+                if (frames > 0) {
+                    out.writeByte(BATCH);
+                    out.writeInt(frames);
+                    out.writeLong(log.getDurableSequence());
+                    out.writeLong(now);
+                    out.writeInt(batch.position());
+                    out.write(batch.array(), 0, batch.position());
+                    out.flush();
+                    sentSequence = reader.getLastSequence();
+                    lastSend = now;
+                } else if (now - lastSend >= HEARTBEAT_MILLIS) {
+                    out.writeByte(HEARTBEAT);
+                    out.writeLong(log.getDurableSequence());
+                    out.writeLong(now);
+                    out.flush();
+                    lastSend = now;
+                }
+                readAcks(in);
+                if (frames == 0) {
+                    log.awaitDurableAfter(reader.getLastSequence(), HEARTBEAT_MILLIS);
+                }
+            }
+        }
+
+        private void readAcks(DataInputStream in) throws IOException {
+            long acked = -1;
+            while (in.available() >= Long.BYTES) {
+                acked = in.readLong();
+            }
+            if (acked >= 0) {
+                ackedSequence = acked;
+                lastAckMillis = System.currentTimeMillis();
+            }
+        }
+
+        // Sends the newest snapshot, writing one if there is none, and returns its sequence
+        private long sendSnapshot(DataOutputStream out) throws IOException {
+            SnapshotManager snapshots = server.getSnapshotManager();
+            if (snapshots == null) {
+                throw new IOException("Follower needs a snapshot but the leader keeps none");
+            }
+            List<Path> available = snapshots.list();
+            Path snapshot = available.isEmpty() ? server.writeSnapshot() : available.get(available.size() - 1);
+            // An open channel keeps the file readable even if pruning deletes it meanwhile
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                long sequence = SnapshotManager.sequenceOf(snapshot);
+                long size = channel.size();
+                out.writeByte(SNAPSHOT);
+                out.writeLong(sequence);
+                out.writeLong(size);
+                ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+                long position = 0;
+                while (position < size) {
+                    buffer.clear();
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("Snapshot " + snapshot.getFileName() + " shrank while sending");
+                    }
+                    out.write(buffer.array(), 0, read);
+                    position += read;
+                }
+                out.flush();
+                System.out.println("Sent snapshot " + snapshot.getFileName() + " to " + address);
+                return sequence;
+            }
+        }
+
+        private void sendError(DataOutputStream out, String message) throws IOException {
+            out.writeByte(ERROR);
+            out.writeUTF(message);
+            out.flush();
+            System.err.println("Refused replication follower " + address + ": " + message);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (SocketException e) {
+                // Already closed
+            } catch (IOException e) {
+                System.err.println("Error closing replication connection: " + e.getMessage());
+            }
+        }
+    }
+
+    // Replication progress of one connected follower, as seen by the leader
+    public static final class FollowerStatus {
+        private final String address;
+        private final long sentSequence;
+        private final long ackedSequence;
+        private final long leaderSequence;
+        private final long lastAckMillis;
+
+        FollowerStatus(String address, long sentSequence, long ackedSequence, long leaderSequence,
+                       long lastAckMillis) {
+            this.address = address;
+            this.sentSequence = sentSequence;
+            this.ackedSequence = ackedSequence;
+            this.leaderSequence = leaderSequence;
+            this.lastAckMillis = lastAckMillis;
+        }
+
+        public String getAddress() { return address; }
+        public long getSentSequence() { return sentSequence; }
+        public long getAckedSequence() { return ackedSequence; }
+        public long getLeaderSequence() { return leaderSequence; }
+        public long getLastAckMillis() { return lastAckMillis; }
+
+        // Durable mutations the follower has not confirmed applying yet
+        public long getLagMutations() {
+            return Math.max(0, leaderSequence - ackedSequence);
+        }
+
+        @Override
+        public String toString() {
+            return address + " acked " + ackedSequence + " of " + leaderSequence + " (lag " + getLagMutations() + ")";
+        }
+    }
+
+    // Runs a headless leader over the default data directory:
+    // ReplicationLeader <port> [bind address], on loopback unless an address is given
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ReplicationLeader <port> [bind address]");
+            System.exit(2);
+        }
+        InetAddress bindAddress = args.length == 2 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+        DHLServer server = new DHLServer();
+        server.start();
+        ReplicationLeader leader = new ReplicationLeader(server, bindAddress, Integer.parseInt(args[0]));
+        leader.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            leader.close();
+            server.stop();
+        }));
+        while (true) {
+            Thread.sleep(10_000);
+            for (FollowerStatus follower : leader.getFollowers()) {
+                System.out.println("Follower " + follower);
+            }
+        }
+    }
+}
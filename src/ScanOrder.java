@@ -0,0 +1,5 @@
+public enum ScanOrder {
+    TRACKING_NUMBER,
+    LAST_UPDATED,
+    LAST_UPDATED_DESCENDING
+}
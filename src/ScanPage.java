@@ -0,0 +1,20 @@
+import java.util.List;
+
+// One page of a DHLServer.scan
+public class ScanPage {
+    private final List<Package> packages;
+    private final Cursor next;
+
+    public ScanPage(List<Package> packages, Cursor next) {
+        this.packages = packages;
+        this.next = next;
+    }
+
+    public List<Package> getPackages() { return packages; }
+    // Cursor for the following page, or null once the scan has reached the end
+    public Cursor getNext() { return next; }
+
+    public boolean hasMore() {
+        return next != null;
+    }
+}
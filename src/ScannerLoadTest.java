@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// Loopback load test for ScannerServer. Starts a server with its write-ahead log in
+// a scratch directory, creates packages, then has simulated scanners stream status
+// updates over the binary protocol, each keeping up to window updates in flight.
+// Prints acknowledged updates per second while running and a summary at the end.
+//
+// Usage: java ScannerLoadTest [--connections N] [--window N] [--seconds N]
+//                             [--packages N] [--durability per_operation|per_batch|interval]
+public class ScannerLoadTest {
+    private static final int LOCATIONS = 16;
+
+    public static void main(String[] args) throws Exception {
+        int connections = 8;
+        int window = 512;
+        int seconds = 10;
+        int packageCount = 100_000;
+        WriteAheadLog.Durability durability = WriteAheadLog.Durability.PER_BATCH;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--connections": connections = Integer.parseInt(args[++i]); break;
+                    case "--window": window = Integer.parseInt(args[++i]); break;
+                    case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                    case "--packages": packageCount = Integer.parseInt(args[++i]); break;
+                    case "--durability":
+                        durability = WriteAheadLog.Durability.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error parsing arguments: " + e.getMessage());
+            System.exit(2);
+        }
+
+        Path directory = Files.createTempDirectory("ehc-scanner-load");
+        DHLServer server = new DHLServer(new HeapPackageStore(), new ShardedSequenceAllocator(),
+                new WriteAheadLog(directory.resolve("wal"), durability));
+        server.setScannerPort(0);
+        server.start();
+        List<PackageSpec> specs = new ArrayList<>(packageCount);
+        for (int i = 0; i < packageCount; i++) {
+            specs.add(new PackageSpec("Sender " + i % 1000, "Sender Street " + i % 1000,
+                    "Recipient " + i % 5000, "Recipient Road " + i % 5000, 1 + i % 20, "Load test parcel"));
+        }
+        long[] trackingIds = server.createPackages(specs).stream()
+                .mapToLong(pkg -> TrackingNumbers.parse(pkg.getTrackingNumber())).toArray();
+        System.out.printf("Created %d packages; %d scanners, window %d, %s durability, %d s%n",
+                packageCount, connections, window, durability, seconds);
+
+        LongAdder acked = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        Thread[] scanners = new Thread[connections];
+        for (int c = 0; c < connections; c++) {
+            Scanner scanner = new Scanner(server.getScannerPort(), trackingIds, window, deadline, c, acked, failed);
+            scanners[c] = new Thread(scanner, "scanner-" + c);
+            scanners[c].start();
+        }
+        long start = System.nanoTime();
+        long previous = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(Math.max(0, start / 1_000_000 + second * 1000L - System.nanoTime() / 1_000_000));
+            long now = acked.sum();
+            System.out.printf("  %3d s  %,10d updates/s%n", second, now - previous);
+            previous = now;
+        }
+        for (Thread scanner : scanners) {
+            scanner.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d updates acknowledged in %.1f s: %,.0f updates/s, %d failed%n",
+                acked.sum(), elapsed, acked.sum() / elapsed, failed.sum());
+        WriteAheadLog log = server.getWriteAheadLog();
+        long syncs = log.getSyncCount();
+        System.out.printf("%,d log syncs, %.1f updates per sync%n", syncs,
+                syncs == 0 ? 0.0 : (double) (log.getLastSequence() - packageCount) / syncs);
+        server.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // One simulated scanner on a blocking channel: tops its in-flight updates up to the
+    // window, then reads acks until half the window is free again
+    private static final class Scanner implements Runnable {
+        private final int port;
+        private final long[] trackingIds;
+        private final int window;
+        private final long deadline;
+        private final Random random;
+        private final LongAdder acked;
+        private final LongAdder failed;
+        private final ByteBuffer out = ByteBuffer.allocate(64 << 10);
+        private final ByteBuffer in = ByteBuffer.allocate(64 << 10);
+        private long sent;
+        private long through;
+
+        Scanner(int port, long[] trackingIds, int window, long deadline, int seed, LongAdder acked,
+                LongAdder failed) {
+            this.port = port;
+            this.trackingIds = trackingIds;
+            this.window = window;
+            this.deadline = deadline;
+            this.random = new Random(seed);
+            this.acked = acked;
+            this.failed = failed;
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+                channel.socket().setTcpNoDelay(true);
+                for (int id = 0; id < LOCATIONS; id++) {
+                    byte[] name = ("Sorting hub " + id).getBytes(StandardCharsets.UTF_8);
+                    out.putInt(1 + Integer.BYTES + name.length).put(ScannerServer.LOCATION).putInt(id).put(name);
+                }
+                PackageStatus[] statuses = PackageStatus.values();
+                while (System.currentTimeMillis() < deadline) {
+                    while (sent - through < window) {
+                        if (out.remaining() < ScannerServer.UPDATE_FRAME_BYTES) {
+                            write(channel);
+                        }
+                        out.putInt(ScannerServer.UPDATE_FRAME_BYTES - Integer.BYTES).put(ScannerServer.UPDATE)
+                                .putLong(trackingIds[random.nextInt(trackingIds.length)])
+                                .put((byte) (1 + random.nextInt(statuses.length - 1)))
+                                .putInt(random.nextInt(LOCATIONS));
+                        sent++;
+                    }
+                    write(channel);
+                    while (sent - through > window / 2) {
+                        readAcks(channel);
+                    }
+                }
+                while (through < sent) {
+                    readAcks(channel);
+                }
+            } catch (IOException e) {
+                System.err.println("Scanner failed: " + e.getMessage());
+            }
+        }
+
+        private void write(SocketChannel channel) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        private void readAcks(SocketChannel channel) throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+            in.flip();
+            while (in.remaining() >= Integer.BYTES && in.remaining() >= Integer.BYTES + in.getInt(in.position())) {
+                in.getInt();
+                if (in.get() != ScannerServer.ACK) {
+                    throw new IOException("Unexpected frame from server");
+                }
+                long newThrough = in.getLong();
+                int failures = in.getInt();
+                in.position(in.position() + failures * (Long.BYTES + 1));
+                acked.add(newThrough - through - failures);
+                failed.add(failures);
+                through = newThrough;
+            }
+            in.compact();
+        }
+    }
+}
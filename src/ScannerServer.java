@@ -0,0 +1,349 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Binary protocol for handheld and conveyor scanners, served from one non-blocking
+// selector thread. Scanners pipeline status updates without waiting for replies.
+// Every update read in one selector round, across all connections, goes to
+// DHLServer.applyStatusUpdates as a single batch and so shares one log sync. Each
+// connection then gets one ack for everything it sent that round.
+//
+// Frames are [int length][byte type][payload], big-endian, where length counts the
+// type byte and payload. Scanner to server:
+//   LOCATION  [int location id][UTF-8 name]   names a location id for this connection
+//   UPDATE    [long tracking id][byte status ordinal][int location id]
+// Server to scanner:
+//   ACK       [long through][int failures]([long update number][byte reason])*
+// Updates are numbered from 1 per connection in the order sent; an ack covers every
+// update up to through, and lists only those that failed. A malformed frame closes
+// the connection.
+//
+// The protocol has no authentication: anyone who can connect can change the status
+// and location of any package. The listener binds to the loopback address unless
+// given another one, which should only be done on a network trusted with that.
+public class ScannerServer implements Closeable {
+    static final byte LOCATION = 1;
+    static final byte UPDATE = 2;
+    static final byte ACK = 3;
+
+    static final byte NOT_FOUND = 1;
+    static final byte UNKNOWN_LOCATION = 2;
+    static final byte BAD_STATUS = 3;
+    static final byte REJECTED = 4;
+
+    static final int UPDATE_FRAME_BYTES = Integer.BYTES + 1 + Long.BYTES + 1 + Integer.BYTES;
+    private static final int MAX_FRAME = 1024;
+    private static final int READ_BUFFER_BYTES = 64 << 10;
+    // A connection that does not read its acks stops being read from past this
+    private static final int MAX_PENDING_WRITE = 1 << 20;
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+
+    private final DHLServer server;
+    private final InetAddress bindAddress;
+    private final int requestedPort;
+    private final List<StatusUpdate> batch = new ArrayList<>();
+    private final List<Connection> batchOwners = new ArrayList<>();
+    private final Set<Connection> touched = new LinkedHashSet<>();
+    private long[] batchNumbers = new long[1024];
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread loop;
+    private volatile boolean running;
+    private volatile long updatesApplied;
+    private volatile long batches;
+
+    // Listens on loopback only. Port 0 picks a free port; see getPort
+    public ScannerServer(DHLServer server, int port) {
+        this(server, InetAddress.getLoopbackAddress(), port);
+    }
+
+    public ScannerServer(DHLServer server, InetAddress bindAddress, int port) {
+        this.server = server;
+        this.bindAddress = bindAddress;
+        this.requestedPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(bindAddress, requestedPort), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        loop = new Thread(this::selectLoop, "ehc-scanner");
+        loop.setDaemon(true);
+        loop.start();
+        System.out.println("Scanner protocol listening on " + bindAddress.getHostAddress() + " port " + getPort());
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isWritable()) {
+                                connection.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                        }
+                    } catch (IOException e) {
+                        closeKey(key);
+                    }
+                }
+                applyBatch();
+            }
+        } catch (IOException e) {
+            System.err.println("Error in scanner selector: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeKey(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing scanner selector: " + e.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private void closeKey(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    // Applies the round's updates as one batch and acks every connection that sent any
+    private void applyBatch() {
+        if (touched.isEmpty()) {
+            return;
+        }
+        if (!batch.isEmpty()) {
+            List<StatusUpdate.Result> results;
+            try {
+                results = server.applyStatusUpdates(batch);
+            } catch (RuntimeException e) {
+                // A read replica, or a log that cannot be written: nothing was durable
+                System.err.println("Error applying scanner updates: " + e.getMessage());
+                results = null;
+            }
+            long applied = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (results == null) {
+                    batchOwners.get(i).fail(batchNumbers[i], REJECTED);
+                } else if (results.get(i).isApplied()) {
+                    applied++;
+                } else {
+                    batchOwners.get(i).fail(batchNumbers[i], NOT_FOUND);
+                }
+            }
+            updatesApplied += applied;
+            batches++;
+            batch.clear();
+            batchOwners.clear();
+        }
+        for (Connection connection : touched) {
+            connection.ack();
+        }
+        touched.clear();
+    }
+
+    public long getUpdatesApplied() {
+        return updatesApplied;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join(5000);
+            serverChannel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing scanner socket: " + e.getMessage());
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private ByteBuffer out = ByteBuffer.allocate(4096);
+        private String[] locations = new String[16];
+        // Updates numbered so far
+        private long received;
+        private long[] failedNumbers = new long[16];
+        private byte[] failedReasons = new byte[16];
+        private int failedCount;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Scanner closed the connection");
+            }
+            in.flip();
+            while (in.remaining() >= Integer.BYTES) {
+                int length = in.getInt(in.position());
+                if (length < 1 || length > MAX_FRAME) {
+                    throw new IOException("Bad scanner frame length " + length);
+                }
+                if (in.remaining() < Integer.BYTES + length) {
+                    break;
+                }
+                int end = in.position() + Integer.BYTES + length;
+                in.position(in.position() + Integer.BYTES);
+                byte type = in.get();
+                if (type == UPDATE && length == UPDATE_FRAME_BYTES - Integer.BYTES) {
+                    update(in.getLong(), in.get(), in.getInt());
+                } else if (type == LOCATION && length > 1 + Integer.BYTES) {
+                    int id = in.getInt();
+                    defineLocation(id, new String(in.array(), in.position(), end - in.position(),
+                            StandardCharsets.UTF_8));
+                } else {
+                    throw new IOException("Bad scanner frame type " + type + " of length " + length);
+                }
+                in.position(end);
+            }
+            in.compact();
+        }
+
+        private void defineLocation(int id, String name) throws IOException {
+            if (id < 0 || id >= 1 << 20) {
+                throw new IOException("Location id out of range: " + id);
+            }
+            if (id >= locations.length) {
+                locations = Arrays.copyOf(locations, Math.max(id + 1, locations.length * 2));
+            }
+            locations[id] = server.getStringDictionary().canonical(name);
+            touched.add(this);
+        }
+
+        private void update(long trackingId, byte status, int locationId) {
+            long number = ++received;
+            touched.add(this);
+            if (status < 0 || status >= STATUSES.length) {
+                fail(number, BAD_STATUS);
+                return;
+            }
+            String location = locationId >= 0 && locationId < locations.length ? locations[locationId] : null;
+            if (location == null) {
+                fail(number, UNKNOWN_LOCATION);
+                return;
+            }
+            if (trackingId < 0 || trackingId >= TrackingNumbers.BODY_SPACE) {
+                fail(number, NOT_FOUND);
+                return;
+            }
+            if (batch.size() == batchNumbers.length) {
+                batchNumbers = Arrays.copyOf(batchNumbers, batch.size() * 2);
+            }
+            batchNumbers[batch.size()] = number;
+            PackageStatus newStatus = STATUSES[status];
+            batch.add(new StatusUpdate(TrackingNumbers.format(trackingId), newStatus, location,
+                    newStatus.getDescription()));
+            batchOwners.add(this);
+        }
+
+        void fail(long number, byte reason) {
+            if (failedCount == failedNumbers.length) {
+                failedNumbers = Arrays.copyOf(failedNumbers, failedCount * 2);
+                failedReasons = Arrays.copyOf(failedReasons, failedCount * 2);
+            }
+            failedNumbers[failedCount] = number;
+            failedReasons[failedCount++] = reason;
+        }
+
+        void ack() {
+            int bytes = Integer.BYTES + 1 + Long.BYTES + Integer.BYTES + failedCount * (Long.BYTES + 1);
+            ensureRoom(bytes);
+            out.putInt(bytes - Integer.BYTES).put(ACK).putLong(received).putInt(failedCount);
+            for (int i = 0; i < failedCount; i++) {
+                out.putLong(failedNumbers[i]).put(failedReasons[i]);
+            }
+            failedCount = 0;
+            try {
+                flush();
+            } catch (IOException e) {
+                closeKey(key);
+            }
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            int interest = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+            if (out.position() < MAX_PENDING_WRITE) {
+                interest |= SelectionKey.OP_READ;
+            }
+            if (key.isValid()) {
+                key.interestOps(interest);
+            }
+        }
+
+        private void ensureRoom(int bytes) {
+            if (out.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+                out.flip();
+                grown.put(out);
+                out = grown;
+            }
+        }
+    }
+}
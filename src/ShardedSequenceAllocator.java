@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out tracking number bodies from per-thread blocks of a node-local sequence.
+// Each node owns a disjoint slice of the body space and each thread reserves a block
+// of that slice with a single atomic increment, so allocation is O(1) at any
+// occupancy and threads only touch shared state once per block. Sequences are
+// unique by construction, so the optional scrambling permutation keeps them unique.
+public class ShardedSequenceAllocator implements TrackingNumberAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    public static final long DEFAULT_SCRAMBLE_KEY = 0x45484353_68697070L;
+
+    private final long rangeStart;
+    private final long rangeSize;
+    private final int blockSize;
+    private final FeistelPermutation scrambler;
+    private final AtomicLong nextBlock;
+    private final ThreadLocal<long[]> currentBlock;
+
+    public ShardedSequenceAllocator() {
+        this(0, 1, DEFAULT_BLOCK_SIZE, DEFAULT_SCRAMBLE_KEY);
+    }
+
+    public ShardedSequenceAllocator(int nodeId, int nodeCount, int blockSize, Long scrambleKey) {
+        if (nodeCount < 1 || nodeId < 0 || nodeId >= nodeCount) {
+            throw new IllegalArgumentException("Invalid node " + nodeId + " of " + nodeCount);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.rangeSize = TrackingNumbers.BODY_SPACE / nodeCount;
+        this.rangeStart = rangeSize * nodeId;
+        this.blockSize = blockSize;
+        this.scrambler = scrambleKey == null ? null
+                : new FeistelPermutation(TrackingNumbers.BODY_SPACE, scrambleKey);
+        this.nextBlock = new AtomicLong();
+        // [next sequence, end of block]
+        this.currentBlock = ThreadLocal.withInitial(() -> new long[] {0, 0});
+    }
+
+    @Override
+    public long allocate() {
+        long[] block = currentBlock.get();
+        if (block[0] >= block[1]) {
+            long start = nextBlock.getAndIncrement() * blockSize;
+            if (start >= rangeSize) {
+                throw new IllegalStateException("Tracking number space exhausted for this node");
+            }
+            block[0] = start;
+            block[1] = Math.min(start + blockSize, rangeSize);
+        }
+        long sequence = rangeStart + block[0]++;
+        return scrambler == null ? sequence : scrambler.apply(sequence);
+    }
+
+    // Moves the block counter past a recovered id. This only recognises ids issued
+    // under the same scramble key, so the key must not change between restarts.
+    @Override
+    public void observe(long trackingId) {
+        if (trackingId < 0 || trackingId >= TrackingNumbers.BODY_SPACE) {
+            return;
+        }
+        long sequence = scrambler == null ? trackingId : scrambler.invert(trackingId);
+        if (sequence < rangeStart || sequence >= rangeStart + rangeSize) {
+            return;
+        }
+        long block = (sequence - rangeStart) / blockSize;
+        nextBlock.accumulateAndGet(block + 1, Math::max);
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+// Binary point-in-time images of the package store, named after the write-ahead log
+// sequence they cover so recovery only has to replay the log tail after them.
+//
+// A snapshot is a run of independently checksummed chunks of PACKAGES_PER_CHUNK
+// packages followed by a chunk table and a fixed-size trailer:
+//   chunk table  per chunk: long offset, int length, int package count, int CRC32C
+//   trailer      int chunk count, long sequence, long package count, int version, int magic
+// Loading maps each chunk and decodes the chunks in parallel. Snapshots are written to
+// a temporary file and renamed into place, so a crash mid-write never leaves a partial
+// snapshot behind.
+public class SnapshotManager {
+    public static final int DEFAULT_RETAINED = 2;
+
+    private static final int MAGIC = 0x45484353;
+    private static final int FORMAT_VERSION = 2;
+    private static final int PACKAGES_PER_CHUNK = 8192;
+    private static final int CHUNK_ENTRY_BYTES = Long.BYTES + 3 * Integer.BYTES;
+    private static final int TRAILER_BYTES = 3 * Integer.BYTES + 2 * Long.BYTES;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+
+    private final Path directory;
+    private final int retained;
+
+    public SnapshotManager(Path directory) {
+        this(directory, DEFAULT_RETAINED);
+    }
+
+    public SnapshotManager(Path directory, int retained) {
+        if (retained < 1) {
+            throw new IllegalArgumentException("At least one snapshot must be retained: " + retained);
+        }
+        this.directory = directory;
+        this.retained = retained;
+    }
+
+    public Writer newWriter(long sequence) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(sequence);
+    }
+
+    // Oldest first
+    public List<Path> list() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                snapshots.add(path);
+            }
+        }
+        // Zero-padded names sort in sequence order
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    // Deletes all but the newest snapshots and returns the sequence of the oldest one
+    // kept, which is how far back the write-ahead log still has to reach
+    public long prune() throws IOException {
+        List<Path> snapshots = list();
+        int excess = snapshots.size() - retained;
+        for (int i = 0; i < excess; i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+        return snapshots.isEmpty() ? 0 : sequenceOf(snapshots.get(Math.max(excess, 0)));
+    }
+
+    public static long sequenceOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    // Decodes every package in the snapshot and hands it to the target. Chunks are
+    // decoded in parallel, so the target is called concurrently and must be thread-safe.
+    public LoadResult load(Path snapshot, Consumer<Package> target) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_BYTES) {
+                throw new IOException("Snapshot " + snapshot.getFileName() + " is truncated");
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            readFully(channel, trailer, size - TRAILER_BYTES);
+            int chunkCount = trailer.getInt();
+            long sequence = trailer.getLong();
+            long packageCount = trailer.getLong();
+            int version = trailer.getInt();
+            if (trailer.getInt() != MAGIC || version != FORMAT_VERSION) {
+                throw new IOException("Snapshot " + snapshot.getFileName() + " has an unknown format");
+            }
+            long tableOffset = size - TRAILER_BYTES - (long) chunkCount * CHUNK_ENTRY_BYTES;
+            if (chunkCount < 0 || tableOffset < 0) {
+                throw new IOException("Snapshot " + snapshot.getFileName() + " has a corrupt chunk table");
+            }
+            ByteBuffer table = ByteBuffer.allocate(chunkCount * CHUNK_ENTRY_BYTES);
+            readFully(channel, table, tableOffset);
+
+            LongAdder targetNanos = new LongAdder();
+            LongAdder decoded = new LongAdder();
+            try {
+                IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+                    int entry = chunk * CHUNK_ENTRY_BYTES;
+                    long offset = table.getLong(entry);
+                    int length = table.getInt(entry + Long.BYTES);
+                    int count = table.getInt(entry + Long.BYTES + Integer.BYTES);
+                    int checksum = table.getInt(entry + Long.BYTES + 2 * Integer.BYTES);
+                    try {
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                        CRC32C crc = new CRC32C();
+                        crc.update(buffer.duplicate());
+                        if ((int) crc.getValue() != checksum) {
+                            throw new IOException("Snapshot " + snapshot.getFileName()
+                                    + " has a corrupt chunk at offset " + offset);
+                        }
+                        long spent = 0;
+                        for (int i = 0; i < count; i++) {
+                            Package pkg = readPackage(buffer);
+                            long handOff = System.nanoTime();
+                            target.accept(pkg);
+                            spent += System.nanoTime() - handOff;
+                        }
+                        targetNanos.add(spent);
+                        decoded.add(count);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (decoded.sum() != packageCount) {
+                throw new IOException("Snapshot " + snapshot.getFileName() + " holds " + decoded.sum()
+                        + " packages, expected " + packageCount);
+            }
+            return new LoadResult(sequence, packageCount, System.nanoTime() - start, targetNanos.sum());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of snapshot");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static Package readPackage(ByteBuffer in) {
+        long trackingId = in.getLong();
+        long version = readVarLong(in);
+        long sequence = readVarLong(in);
+        long createdAt = in.getLong();
+        long lastUpdated = createdAt + readSignedVarLong(in);
+        PackageStatus status = STATUSES[in.get()];
+        double weight = in.getDouble();
+        String senderName = readString(in);
+        String senderAddress = readString(in);
+        String recipientName = readString(in);
+        String recipientAddress = readString(in);
+        String description = readString(in);
+        int eventCount = (int) readVarLong(in);
+        TrackingHistory.Builder history = new TrackingHistory.Builder();
+        long timestamp = createdAt;
+        for (int i = 0; i < eventCount; i++) {
+            timestamp += readSignedVarLong(in);
+            history.add(timestamp, readString(in), readString(in));
+        }
+        return new Package(TrackingNumbers.format(trackingId), senderName, senderAddress, recipientName,
+                recipientAddress, weight, description, status, EpochMillis.toLocalDateTime(createdAt),
+                EpochMillis.toLocalDateTime(lastUpdated), history.build(), version, sequence);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static long readSignedVarLong(ByteBuffer in) {
+        long zigzag = readVarLong(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        byte[] encoded = new byte[length];
+        in.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    // Streams packages into a new snapshot. Not thread-safe; one writer per snapshot.
+    public class Writer implements Closeable {
+        private final long sequence;
+        private final Path target;
+        private final Path temp;
+        private final FileChannel channel;
+        private final List<long[]> chunkTable = new ArrayList<>();
+        private ByteBuffer chunk = ByteBuffer.allocate(1 << 20);
+        private int chunkPackages;
+        private long position;
+        private long packageCount;
+        private boolean committed;
+
+        private Writer(long sequence) throws IOException {
+            this.sequence = sequence;
+            this.target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+            this.temp = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        public void write(long trackingId, Package pkg) throws IOException {
+            long createdAt = EpochMillis.of(pkg.getCreatedAt());
+            ensureRoom(80);
+            chunk.putLong(trackingId);
+            writeVarLong(pkg.getVersion());
+            writeVarLong(pkg.getSequence());
+            chunk.putLong(createdAt);
+            writeSignedVarLong(EpochMillis.of(pkg.getLastUpdated()) - createdAt);
+            chunk.put((byte) pkg.getStatus().ordinal());
+            chunk.putDouble(pkg.getWeight());
+            writeString(pkg.getSenderName());
+            writeString(pkg.getSenderAddress());
+            writeString(pkg.getRecipientName());
+            writeString(pkg.getRecipientAddress());
+            writeString(pkg.getDescription());
+            TrackingHistory history = TrackingHistory.of(pkg.getTrackingHistory());
+            ensureRoom(10);
+            writeVarLong(history.size());
+            long[] previous = {createdAt};
+            history.forEachEvent((timestamp, event, description) -> {
+                ensureRoom(10);
+                writeSignedVarLong(timestamp - previous[0]);
+                writeString(event);
+                writeString(description);
+                previous[0] = timestamp;
+            });
+            packageCount++;
+            if (++chunkPackages == PACKAGES_PER_CHUNK) {
+                flushChunk();
+            }
+        }
+
+        public Path commit() throws IOException {
+            flushChunk();
+            ByteBuffer tail = ByteBuffer.allocate(chunkTable.size() * CHUNK_ENTRY_BYTES + TRAILER_BYTES);
+            for (long[] entry : chunkTable) {
+                tail.putLong(entry[0]);
+                tail.putInt((int) entry[1]);
+                tail.putInt((int) entry[2]);
+                tail.putInt((int) entry[3]);
+            }
+            tail.putInt(chunkTable.size());
+            tail.putLong(sequence);
+            tail.putLong(packageCount);
+            tail.putInt(FORMAT_VERSION);
+            tail.putInt(MAGIC);
+            tail.flip();
+            writeFully(tail);
+            channel.force(true);
+            channel.close();
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            return target;
+        }
+
+        public long getPackageCount() {
+            return packageCount;
+        }
+
+        // Discards the snapshot unless it was committed
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunkPackages == 0) {
+                return;
+            }
+            chunk.flip();
+            CRC32C crc = new CRC32C();
+            crc.update(chunk.duplicate());
+            int length = chunk.remaining();
+            chunkTable.add(new long[] {position, length, chunkPackages, (int) crc.getValue()});
+            writeFully(chunk);
+            position += length;
+            chunk.clear();
+            chunkPackages = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void ensureRoom(int bytes) {
+            if (chunk.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(chunk.capacity() * 2, chunk.position() + bytes));
+                chunk.flip();
+                grown.put(chunk);
+                chunk = grown;
+            }
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                chunk.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            chunk.put((byte) value);
+        }
+
+        private void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            ensureRoom(encoded.length + 5);
+            writeVarLong(encoded.length);
+            chunk.put(encoded);
+        }
+    }
+
+    public static final class LoadResult {
+        private final long sequence;
+        private final long packageCount;
+        private final long elapsedNanos;
+        private final long targetNanos;
+
+        LoadResult(long sequence, long packageCount, long elapsedNanos, long targetNanos) {
+            this.sequence = sequence;
+            this.packageCount = packageCount;
+            this.elapsedNanos = elapsedNanos;
+            this.targetNanos = targetNanos;
+        }
+
+        public long getSequence() { return sequence; }
+        public long getPackageCount() { return packageCount; }
+        // Wall-clock time of the whole load, including the target
+        public long getElapsedNanos() { return elapsedNanos; }
+        // Time spent inside the target, summed over all loading threads
+        public long getTargetNanos() { return targetNanos; }
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StatusIndex {
+    private final EnumMap<PackageStatus, ConcurrentLongSet> members;
+    private final EnumMap<PackageStatus, LongAdder> counters;
+
+    public StatusIndex() {
+        this.members = new EnumMap<>(PackageStatus.class);
+        this.counters = new EnumMap<>(PackageStatus.class);
+        // Both maps are fully populated up front and never structurally modified
+        // afterwards, so concurrent readers need no further synchronization
+        for (PackageStatus status : PackageStatus.values()) {
+            members.put(status, new ConcurrentLongSet());
+            counters.put(status, new LongAdder());
+        }
+    }
+
+    public void add(long trackingId, PackageStatus status) {
+        members.get(status).add(trackingId);
+        counters.get(status).increment();
+    }
+
+    // Callers must hold the package's lock so that two moves of the same package
+    // cannot interleave and leave it registered under two statuses
+    public void move(long trackingId, PackageStatus oldStatus, PackageStatus newStatus) {
+        if (oldStatus == newStatus) {
+            return;
+        }
+        members.get(newStatus).add(trackingId);
+        counters.get(newStatus).increment();
+        members.get(oldStatus).remove(trackingId);
+        counters.get(oldStatus).decrement();
+    }
+
+    public ConcurrentLongSet getTrackingIds(PackageStatus status) {
+        return members.get(status);
+    }
+
+    public long count(PackageStatus status) {
+        return counters.get(status).sum();
+    }
+
+    // Packages in any of the statuses the filter selects
+    public long count(PackageFilter filter) {
+        long count = 0;
+        for (Map.Entry<PackageStatus, LongAdder> entry : counters.entrySet()) {
+            if (filter.includes(entry.getKey())) {
+                count += entry.getValue().sum();
+            }
+        }
+        return count;
+    }
+
+    public Map<PackageStatus, Long> summary() {
+        Map<PackageStatus, Long> summary = new EnumMap<>(PackageStatus.class);
+        for (Map.Entry<PackageStatus, LongAdder> entry : counters.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                summary.put(entry.getKey(), count);
+            }
+        }
+        return summary;
+    }
+}
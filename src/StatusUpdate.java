@@ -0,0 +1,49 @@
+// One status change for DHLServer.applyStatusUpdates. With an expected version the
+// update only applies if the package is still at that version.
+public final class StatusUpdate {
+    public enum Outcome {
+        APPLIED,
+        NOT_FOUND,
+        VERSION_CONFLICT
+    }
+
+    private final String trackingNumber;
+    private final long expectedVersion;
+    private final PackageStatus status;
+    private final String location;
+    private final String description;
+
+    public StatusUpdate(String trackingNumber, PackageStatus status, String location, String description) {
+        this(trackingNumber, DHLServer.ANY_VERSION, status, location, description);
+    }
+
+    public StatusUpdate(String trackingNumber, long expectedVersion, PackageStatus status, String location,
+                        String description) {
+        this.trackingNumber = trackingNumber;
+        this.expectedVersion = expectedVersion;
+        this.status = status;
+        this.location = location;
+        this.description = description;
+    }
+
+    public String getTrackingNumber() { return trackingNumber; }
+    public long getExpectedVersion() { return expectedVersion; }
+    public PackageStatus getStatus() { return status; }
+    public String getLocation() { return location; }
+    public String getDescription() { return description; }
+
+    public static final class Result {
+        private final Outcome outcome;
+        private final Package pkg;
+
+        Result(Outcome outcome, Package pkg) {
+            this.outcome = outcome;
+            this.pkg = pkg;
+        }
+
+        public Outcome getOutcome() { return outcome; }
+        public boolean isApplied() { return outcome == Outcome.APPLIED; }
+        // The new state if applied, the current state on a version conflict, otherwise null
+        public Package getPackage() { return pkg; }
+    }
+}
@@ -0,0 +1,97 @@
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Canonicalizes repeated strings such as names, addresses and facility names, so
+// packages holding equal values share one copy. Entries are weak: once nothing else
+// refers to a string, the garbage collector drops it from the dictionary. The
+// dictionary is split into segments, each a WeakHashMap under its own lock, and
+// holds at most maxEntries strings; past that, and for strings longer than
+// maxLength, values are passed through unchanged.
+public class StringDictionary {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+    private final WeakHashMap<String, WeakReference<String>>[] segments;
+    private final int maxEntriesPerSegment;
+    private final int maxLength;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StringDictionary(int maxEntries, int maxLength) {
+        this.segments = new WeakHashMap[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new WeakHashMap<>();
+        }
+        this.maxEntriesPerSegment = Math.max(1, maxEntries / SEGMENT_COUNT);
+        this.maxLength = maxLength;
+    }
+
+    // Returns the dictionary's copy of value, adding value itself if it has none
+    public String canonical(String value) {
+        if (value == null || value.length() > maxLength) {
+            return value;
+        }
+        lookups.increment();
+        int hash = value.hashCode();
+        WeakHashMap<String, WeakReference<String>> segment = segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+        synchronized (segment) {
+            WeakReference<String> reference = segment.get(value);
+            String existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                hits.increment();
+                if (existing != value) {
+                    bytesSaved.add(retainedBytes(value));
+                }
+                return existing;
+            }
+            // The value must only be weakly reachable from its own entry, or it would never be cleared
+            if (segment.size() < maxEntriesPerSegment) {
+                segment.put(value, new WeakReference<>(value));
+            }
+            return value;
+        }
+    }
+
+    // Heap taken by a String and its backing array, Latin-1 or UTF-16 as the JVM stores it
+    private static long retainedBytes(String value) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return 24 + ((16 + (long) value.length() * bytesPerChar + 7) & ~7L);
+    }
+
+    public int size() {
+        int size = 0;
+        for (WeakHashMap<String, WeakReference<String>> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public double getHitRate() {
+        long total = lookups.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    // Estimated heap no longer held by duplicate copies that were replaced
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+}
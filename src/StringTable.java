@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Append-only table that gives each string it holds a small int id, so encoded data
+// can refer to a common string by id instead of holding a copy. Ids are never reused
+// and only live in memory. A table is bounded: once it holds capacity strings, or for
+// strings longer than maxLength, add returns NO_ID and callers keep the string
+// themselves. Lookups take no lock; new strings are added under the table's lock.
+public class StringTable {
+    public static final int NO_ID = -1;
+
+    private final int capacity;
+    private final int maxLength;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] strings;
+    private volatile int size;
+
+    // Holds the vocabulary and nothing else. A string listed twice keeps its first id.
+    public StringTable(List<String> vocabulary) {
+        this.strings = vocabulary.toArray(new String[0]);
+        for (int id = 0; id < strings.length; id++) {
+            ids.putIfAbsent(strings[id], id);
+        }
+        this.size = strings.length;
+        this.capacity = size;
+        this.maxLength = 0;
+    }
+
+    // Starts empty and takes up to capacity strings through add
+    public StringTable(int capacity, int maxLength) {
+        this.capacity = capacity;
+        this.maxLength = maxLength;
+        this.strings = new String[Math.min(capacity, 1024)];
+    }
+
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        return id == null ? NO_ID : id;
+    }
+
+    // The value's id, adding it if there is room
+    public int add(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (value.length() > maxLength) {
+            return NO_ID;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (size == capacity) {
+                return NO_ID;
+            }
+            String[] current = strings;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, Math.min(capacity, size * 2));
+                strings = current;
+            }
+            current[size] = value;
+            // Publishing the id after the slot is written means anyone who can see the
+            // id can also see the string
+            ids.put(value, size);
+            return size++;
+        }
+    }
+
+    public String get(int id) {
+        return strings[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+}
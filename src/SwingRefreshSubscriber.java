@@ -0,0 +1,63 @@
+import javax.swing.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs a refresh on the Swing event thread when packages change, instead of polling.
+// A burst of changes collapses into one refresh after delayMillis, so a busy server
+// refreshes a panel a few times a second at most and an idle one not at all. Only
+// the fact that something changed matters here, so the subscription buffers a
+// single change.
+public class SwingRefreshSubscriber implements Flow.Subscriber<PackageChange> {
+    private final Runnable refresh;
+    private final Timer timer;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+
+    public SwingRefreshSubscriber(int delayMillis, Runnable refresh) {
+        this.refresh = refresh;
+        this.timer = new Timer(delayMillis, e -> {
+            pending.set(false);
+            this.refresh.run();
+        });
+        timer.setRepeats(false);
+    }
+
+    public void subscribeTo(ChangeFeed feed) {
+        feed.subscribe(this, 1, ChangeFeed.OverflowPolicy.DROP_OLDEST);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(PackageChange change) {
+        if (pending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(timer::start);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        System.err.println("Error in package change feed: " + throwable.getMessage());
+    }
+
+    // The server stopped; show its final state
+    @Override
+    public void onComplete() {
+        SwingUtilities.invokeLater(refresh);
+    }
+
+    public void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+        SwingUtilities.invokeLater(() -> {
+            timer.stop();
+            pending.set(false);
+        });
+    }
+}
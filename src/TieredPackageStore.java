@@ -0,0 +1,170 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Keeps active shipments in a heap store and moves finished ones to an on-disk
+// archive. A package becomes archivable once it has sat in a terminal status for
+// archiveAfterMillis. DHLServer's archiver collects candidates with archivableIds
+// and moves each one under its lock with archive, which copies it to the archive
+// before dropping it from the heap tier, so readers always find it in one of the
+// two. Restored packages that are already archivable go straight to the archive.
+//
+// Reads check the heap tier first and fall through to the archive behind a small
+// LRU cache. Updates to archived packages are rare and are applied in the archive;
+// they bump the cache generation so that a concurrent miss cannot cache the state
+// it read before the update.
+public class TieredPackageStore implements PackageStore, Closeable {
+    private static final int CACHE_CAPACITY = 10_000;
+
+    private final HeapPackageStore hot;
+    private final MappedPackageStore archive;
+    private final long archiveAfterMillis;
+    private final Map<Long, Package> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Package> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+    private long cacheGeneration;
+
+    public TieredPackageStore(HeapPackageStore hot, MappedPackageStore archive, long archiveAfterMillis) {
+        this.hot = hot;
+        this.archive = archive;
+        this.archiveAfterMillis = archiveAfterMillis;
+    }
+
+    @Override
+    public Package get(long trackingId) {
+        Package pkg = hot.get(trackingId);
+        return pkg != null ? pkg : getArchived(trackingId);
+    }
+
+    private Package getArchived(long trackingId) {
+        long generation;
+        synchronized (cache) {
+            Package cached = cache.get(trackingId);
+            if (cached != null) {
+                return cached;
+            }
+            generation = cacheGeneration;
+        }
+        Package pkg = archive.get(trackingId);
+        if (pkg != null) {
+            synchronized (cache) {
+                if (generation == cacheGeneration) {
+                    cache.put(trackingId, pkg);
+                }
+            }
+        }
+        return pkg;
+    }
+
+    @Override
+    public boolean insert(long trackingId, Package pkg) {
+        if (hot.get(trackingId) != null || archive.get(trackingId) != null) {
+            return false;
+        }
+        return isArchivable(pkg, System.currentTimeMillis())
+                ? archive.insert(trackingId, pkg) : hot.insert(trackingId, pkg);
+    }
+
+    @Override
+    public Package updateStatus(PackageMutation mutation) {
+        Package updated = hot.updateStatus(mutation);
+        if (updated != null) {
+            return updated;
+        }
+        updated = archive.updateStatus(mutation);
+        if (updated != null) {
+            synchronized (cache) {
+                cacheGeneration++;
+                cache.remove(mutation.getTrackingId());
+            }
+        }
+        return updated;
+    }
+
+    private boolean isArchivable(Package pkg, long nowMillis) {
+        return pkg.getStatus().isTerminal() && EpochMillis.of(pkg.getLastUpdated()) <= nowMillis - archiveAfterMillis;
+    }
+
+    // Ids of heap-tier packages that may be archived now
+    public long[] archivableIds(long nowMillis) {
+        PackageStatus[] terminal = Arrays.stream(PackageStatus.values()).filter(PackageStatus::isTerminal)
+                .toArray(PackageStatus[]::new);
+        PackageFilter filter = PackageFilter.all().withStatuses(terminal)
+                .updatedBetween(null, EpochMillis.toLocalDateTime(nowMillis - archiveAfterMillis + 1));
+        long[][] ids = {new long[64]};
+        int[] count = {0};
+        hot.forEachMatching(filter, pkg -> {
+            if (count[0] == ids[0].length) {
+                ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+            }
+            ids[0][count[0]++] = TrackingNumbers.parse(pkg.getTrackingNumber());
+        });
+        return Arrays.copyOf(ids[0], count[0]);
+    }
+
+    // Moves one package to the archive if it is still archivable. The caller must hold
+    // the package's lock so no update can slip in between the copy and the removal.
+    public boolean archive(long trackingId, long nowMillis) {
+        Package pkg = hot.get(trackingId);
+        if (pkg == null || !isArchivable(pkg, nowMillis)) {
+            return false;
+        }
+        archive.insert(trackingId, pkg);
+        hot.remove(trackingId);
+        return true;
+    }
+
+    public int getActiveCount() {
+        return hot.size();
+    }
+
+    public int getArchivedCount() {
+        return archive.size();
+    }
+
+    // A package being archived is briefly in both tiers and counted twice
+    @Override
+    public int size() {
+        return hot.size() + archive.size();
+    }
+
+    @Override
+    public void forEach(Consumer<Package> action) {
+        hot.forEach(action);
+        archive.forEach(skipActive(action));
+    }
+
+    @Override
+    public void forEachMatching(PackageFilter filter, Consumer<Package> action) {
+        hot.forEachMatching(filter, action);
+        archive.forEachMatching(filter, skipActive(action));
+    }
+
+    // Skips packages still in the heap tier because their archiving is in progress
+    private Consumer<Package> skipActive(Consumer<Package> action) {
+        return pkg -> {
+            if (hot.get(TrackingNumbers.parse(pkg.getTrackingNumber())) == null) {
+                action.accept(pkg);
+            }
+        };
+    }
+
+    @Override
+    public Map<PackageStatus, Double> weightByStatus() {
+        Map<PackageStatus, Double> totals = new EnumMap<>(hot.weightByStatus());
+        archive.weightByStatus().forEach((status, weight) -> totals.merge(status, weight, Double::sum));
+        return totals;
+    }
+
+    @Override
+    public void close() throws IOException {
+        archive.close();
+    }
+}
@@ -0,0 +1,44 @@
+// Tracking ids ordered by a timestamp, ties broken by id. Each entry is the pair
+// (millis, tracking id) packed into a ConcurrentSortedLongSet, so readers walk it
+// without locking or allocating per entry while writers insert and move entries.
+// Callers must hold the package's lock when moving it so that two moves of the same
+// package cannot interleave.
+public class TimeIndex {
+    private final ConcurrentSortedLongSet keys = ConcurrentSortedLongSet.ofPairs();
+
+    public void add(long millis, long trackingId) {
+        keys.add(millis, trackingId);
+    }
+
+    // The new entry goes in before the old one is removed, so a concurrent reader
+    // finds the package under at least one of its timestamps
+    public void move(long trackingId, long oldMillis, long newMillis) {
+        if (oldMillis == newMillis) {
+            return;
+        }
+        keys.add(newMillis, trackingId);
+        keys.remove(oldMillis, trackingId);
+    }
+
+    public long size() {
+        return keys.size();
+    }
+
+    // Entries with a timestamp in [fromMillis, toMillis), oldest first unless
+    // descending. The walk's first() is the timestamp and second() the tracking id.
+    public ConcurrentSortedLongSet.Walk range(long fromMillis, long toMillis, boolean descending) {
+        long[] from = {fromMillis, Long.MIN_VALUE};
+        long[] to = {toMillis, Long.MIN_VALUE};
+        return descending ? keys.walk(true, to, false, from) : keys.walk(false, from, true, to);
+    }
+
+    // Every entry in the requested direction
+    public ConcurrentSortedLongSet.Walk walk(boolean descending) {
+        return keys.walk(descending);
+    }
+
+    // Entries strictly after the given position in the requested direction
+    public ConcurrentSortedLongSet.Walk after(long millis, long trackingId, boolean descending) {
+        return keys.walk(descending, new long[] {millis, trackingId}, false, null);
+    }
+}
@@ -0,0 +1,320 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Immutable tracking history packed into one byte array. Per event it holds the
+// zigzag varint delta from the previous timestamp, a tag byte and two string
+// references. The tag is the status ordinal for status events, whose event text is
+// the status name and whose description is "location - description"; location and
+// description are then stored separately, so the joined string is only built when
+// the event is read. Any other event is tagged TEXT and keeps its event text and
+// description. A string reference is a varint whose low two bits tell what the rest
+// is: an id in the fixed STRINGS vocabulary, an id in the history's location
+// dictionary, or the length of UTF-8 bytes that follow inline.
+//
+// Locations and free-text descriptions go into a shared dictionary of at most
+// LOCATION_CAPACITY strings, so a hub name repeated across millions of events costs a
+// varint each. When the dictionary fills up it is retired and a fresh one started.
+// Every history keeps the dictionary it was encoded against, so a retired one lives
+// on only while histories still refer to it; a history moves to the current
+// dictionary the next time it gets an event.
+//
+// Events are decoded on access, so a package whose history is never looked at costs
+// a few bytes per event instead of a TrackingEvent, a LocalDateTime and two Strings.
+public final class TrackingHistory extends AbstractList<TrackingEvent> {
+    public interface EventConsumer {
+        void accept(long timestampMillis, String event, String description);
+    }
+
+    public static final String CREATED_EVENT = "Package created";
+    public static final String CREATED_DESCRIPTION = "Initial package creation";
+    public static final TrackingHistory EMPTY = new TrackingHistory(new byte[0], 0, 0, null);
+
+    // The texts nearly every event carries: the creation event and the status
+    // descriptions scanners report. Their ids never change.
+    static final StringTable STRINGS = new StringTable(vocabulary());
+
+    static final int LOCATION_CAPACITY = 1 << 16;
+    // Longer strings are rarely repeated, so they go inline
+    private static final int LOCATION_MAX_LENGTH = 64;
+    private static final AtomicReference<StringTable> LOCATIONS =
+            new AtomicReference<>(new StringTable(LOCATION_CAPACITY, LOCATION_MAX_LENGTH));
+
+    // Low bits of a string reference
+    private static final int VOCABULARY = 0;
+    private static final int LOCATION = 1;
+    private static final int INLINE = 2;
+    private static final int REFERENCE_BITS = 2;
+
+    private static final int TEXT = 0xFF;
+    private static final String SEPARATOR = " - ";
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+    private static final String[] STATUS_TEXT = new String[STATUSES.length];
+    private static final Map<String, PackageStatus> STATUS_BY_TEXT = new HashMap<>();
+
+    static {
+        for (PackageStatus status : STATUSES) {
+            STATUS_TEXT[status.ordinal()] = status.toString();
+            STATUS_BY_TEXT.put(status.toString(), status);
+        }
+    }
+
+    private static List<String> vocabulary() {
+        List<String> vocabulary = new ArrayList<>();
+        vocabulary.add(CREATED_EVENT);
+        vocabulary.add(CREATED_DESCRIPTION);
+        // STATUSES is not assigned yet when this runs
+        for (PackageStatus status : PackageStatus.values()) {
+            vocabulary.add(status.getDescription());
+        }
+        return vocabulary;
+    }
+
+    private final byte[] data;
+    private final int size;
+    private final long lastMillis;
+    private final StringTable locations;
+
+    private TrackingHistory(byte[] data, int size, long lastMillis, StringTable locations) {
+        this.data = data;
+        this.size = size;
+        this.lastMillis = lastMillis;
+        this.locations = locations;
+    }
+
+    public static TrackingHistory created(long timestampMillis) {
+        return EMPTY.withEvent(timestampMillis, CREATED_EVENT, CREATED_DESCRIPTION);
+    }
+
+    public static TrackingHistory of(List<TrackingEvent> events) {
+        if (events instanceof TrackingHistory) {
+            return (TrackingHistory) events;
+        }
+        Builder builder = new Builder();
+        for (TrackingEvent event : events) {
+            builder.add(EpochMillis.of(event.getTimestamp()), event.getEvent(), event.getDescription());
+        }
+        return builder.build();
+    }
+
+    public TrackingHistory withStatusEvent(long timestampMillis, PackageStatus status, String location,
+                                           String description) {
+        Builder builder = new Builder(this);
+        builder.addStatus(timestampMillis, status, location, description);
+        return builder.build();
+    }
+
+    // Events that look like status events are split back into location and description,
+    // which is lossless because joining them again gives the same text
+    public TrackingHistory withEvent(long timestampMillis, String event, String description) {
+        Builder builder = new Builder(this);
+        builder.add(timestampMillis, event, description);
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Decodes from the start; iterate instead of indexing when walking the history
+    @Override
+    public TrackingEvent get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        Iterator<TrackingEvent> events = iterator();
+        for (int i = 0; i < index; i++) {
+            events.next();
+        }
+        return events.next();
+    }
+
+    @Override
+    public Iterator<TrackingEvent> iterator() {
+        return new Iterator<>() {
+            private final Decoder decoder = new Decoder();
+
+            @Override
+            public boolean hasNext() {
+                return decoder.remaining > 0;
+            }
+
+            @Override
+            public TrackingEvent next() {
+                if (decoder.remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                decoder.next();
+                return new TrackingEvent(EpochMillis.toLocalDateTime(decoder.millis), decoder.event,
+                        decoder.description);
+            }
+        };
+    }
+
+    // Walks the events without creating TrackingEvent or LocalDateTime objects
+    public void forEachEvent(EventConsumer action) {
+        Decoder decoder = new Decoder();
+        while (decoder.remaining > 0) {
+            decoder.next();
+            action.accept(decoder.millis, decoder.event, decoder.description);
+        }
+    }
+
+    public int encodedBytes() {
+        return data.length;
+    }
+
+    private final class Decoder {
+        int position;
+        int remaining = size;
+        long millis;
+        String event;
+        String description;
+
+        void next() {
+            long raw = readVarLong();
+            millis += (raw >>> 1) ^ -(raw & 1);
+            int tag = data[position++] & 0xFF;
+            String first = readString();
+            String second = readString();
+            if (tag == TEXT) {
+                event = first;
+                description = second;
+            } else {
+                event = STATUS_TEXT[tag];
+                description = first + SEPARATOR + second;
+            }
+            remaining--;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private String readString() {
+            long reference = readVarLong();
+            int value = (int) (reference >>> REFERENCE_BITS);
+            int kind = (int) reference & ((1 << REFERENCE_BITS) - 1);
+            if (kind == VOCABULARY) {
+                return STRINGS.get(value);
+            } else if (kind == LOCATION) {
+                return locations.get(value);
+            }
+            String inline = new String(data, position, value, StandardCharsets.UTF_8);
+            position += value;
+            return inline;
+        }
+    }
+
+    // Appends events to a copy of an existing history's bytes
+    public static final class Builder {
+        private final StringTable locations = LOCATIONS.get();
+        private byte[] buffer;
+        private int length;
+        private int size;
+        private long lastMillis;
+
+        public Builder() {
+            this(EMPTY);
+        }
+
+        private Builder(TrackingHistory base) {
+            if (base.locations == locations || base.size == 0) {
+                this.buffer = Arrays.copyOf(base.data, base.data.length + 32);
+                this.length = base.data.length;
+                this.size = base.size;
+                this.lastMillis = base.lastMillis;
+            } else {
+                // Encoded against a retired dictionary; re-encoding lets that one go
+                this.buffer = new byte[base.data.length + 32];
+                base.forEachEvent(this::add);
+            }
+        }
+
+        public Builder add(long timestampMillis, String event, String description) {
+            PackageStatus status = STATUS_BY_TEXT.get(event);
+            int split = description.indexOf(SEPARATOR);
+            if (status != null && split >= 0) {
+                return addStatus(timestampMillis, status, description.substring(0, split),
+                        description.substring(split + SEPARATOR.length()));
+            }
+            writeHeader(timestampMillis, TEXT);
+            writeString(event);
+            writeString(description);
+            return this;
+        }
+
+        public Builder addStatus(long timestampMillis, PackageStatus status, String location, String description) {
+            writeHeader(timestampMillis, status.ordinal());
+            writeString(location);
+            writeString(description);
+            return this;
+        }
+
+        public TrackingHistory build() {
+            return new TrackingHistory(Arrays.copyOf(buffer, length), size, lastMillis, locations);
+        }
+
+        private void writeHeader(long timestampMillis, int tag) {
+            long delta = timestampMillis - lastMillis;
+            writeVarLong((delta << 1) ^ (delta >> 63));
+            ensureRoom(1);
+            buffer[length++] = (byte) tag;
+            lastMillis = timestampMillis;
+            size++;
+        }
+
+        private void writeString(String value) {
+            int id = STRINGS.idOf(value);
+            if (id != StringTable.NO_ID) {
+                writeVarLong(((long) id << REFERENCE_BITS) | VOCABULARY);
+                return;
+            }
+            id = locations.add(value);
+            if (id != StringTable.NO_ID) {
+                writeVarLong(((long) id << REFERENCE_BITS) | LOCATION);
+                return;
+            }
+            if (locations.isFull()) {
+                // This history stays on the full one; the next to be built gets a fresh one
+                LOCATIONS.compareAndSet(locations, new StringTable(LOCATION_CAPACITY, LOCATION_MAX_LENGTH));
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(((long) bytes.length << REFERENCE_BITS) | INLINE);
+            ensureRoom(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeVarLong(long value) {
+            ensureRoom(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void ensureRoom(int bytes) {
+            if (length + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + bytes));
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Minimal HTTP/1.1 API over a DHLServer, read-only:
+//   GET /track/{number}                       one package, 404 if unknown
+//   GET /search?sender=&recipient=&status=   packages matching all given conditions, at
+//                                             most limit (default 100), through
+//                                             DHLServer.query so the work stays bounded
+//   GET /status-summary                       package count per status
+// Every connection gets its own virtual thread that blocks on plain socket I/O, so
+// thousands of idle keep-alive connections cost little. Connections stay open until
+// the client asks to close or sits idle for KEEP_ALIVE_MILLIS; pipelined requests
+// are answered in order and the responses flushed together. JSON is written by
+// hand, as in PackageExporter.
+//
+// There is no authentication, and responses carry names and addresses, so the server
+// binds to the loopback address unless given another one.
+public class TrackingHttpServer implements Closeable {
+    private static final int KEEP_ALIVE_MILLIS = 30_000;
+    private static final int MAX_LINE = 8192;
+    private static final int MAX_HEADERS = 100;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10_000;
+
+    private final DHLServer server;
+    private final InetAddress bindAddress;
+    private final int requestedPort;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private ExecutorService handlers;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    // Listens on loopback only. Port 0 picks a free port; see getPort
+    public TrackingHttpServer(DHLServer server, int port) {
+        this(server, InetAddress.getLoopbackAddress(), port);
+    }
+
+    public TrackingHttpServer(DHLServer server, InetAddress bindAddress, int port) {
+        this.server = server;
+        this.bindAddress = bindAddress;
+        this.requestedPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, requestedPort), 1024);
+        handlers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ehc-http-", 0).factory());
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "ehc-http-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("HTTP API listening on " + bindAddress.getHostAddress() + " port "
+                + serverSocket.getLocalPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                handlers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Error accepting HTTP connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(KEEP_ALIVE_MILLIS);
+            new Exchange(socket.getInputStream(), socket.getOutputStream()).run();
+        } catch (SocketTimeoutException | SocketException | EOFException e) {
+            // Idle keep-alive connection, or the client or close() went away
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error serving HTTP connection: " + e.getMessage());
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    // Stops accepting, drops open connections and waits for their threads to finish
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing HTTP socket: " + e.getMessage());
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        handlers.shutdown();
+        try {
+            acceptor.join(1000);
+            if (!handlers.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("HTTP handlers did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One connection's request loop, with buffers reused across its requests
+    private final class Exchange {
+        private final InputStream in;
+        private final OutputStream out;
+        private final byte[] input = new byte[16 << 10];
+        private int inputPosition;
+        private int inputLimit;
+        private final StringBuilder body = new StringBuilder(4096);
+        private final StringBuilder head = new StringBuilder(256);
+
+        Exchange(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = new BufferedOutputStream(out, 32 << 10);
+        }
+
+        void run() throws IOException {
+            while (running) {
+                String requestLine = readLine();
+                if (requestLine == null) {
+                    return;
+                }
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                String[] parts = requestLine.split(" ");
+                if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+                    respond(400, error("Malformed request line"), false);
+                    return;
+                }
+                boolean keepAlive = parts[2].equals("HTTP/1.1");
+                long contentLength = 0;
+                for (int i = 0; ; i++) {
+                    String header = readLine();
+                    if (header == null) {
+                        return;
+                    }
+                    if (header.isEmpty()) {
+                        break;
+                    }
+                    if (i == MAX_HEADERS) {
+                        respond(431, error("Too many headers"), false);
+                        return;
+                    }
+                    int colon = header.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    String name = header.substring(0, colon).trim();
+                    String value = header.substring(colon + 1).trim();
+                    if (name.equalsIgnoreCase("Connection")) {
+                        keepAlive = value.equalsIgnoreCase("keep-alive")
+                                || (keepAlive && !value.equalsIgnoreCase("close"));
+                    } else if (name.equalsIgnoreCase("Content-Length")) {
+                        try {
+                            contentLength = Long.parseLong(value);
+                        } catch (NumberFormatException e) {
+                            respond(400, error("Bad Content-Length"), false);
+                            return;
+                        }
+                    }
+                }
+                // No route takes a body; skip it so the next request parses
+                skip(contentLength);
+                if (!parts[0].equals("GET")) {
+                    respond(405, error("Only GET is supported"), keepAlive);
+                } else {
+                    route(parts[1], keepAlive);
+                }
+                // Pipelined requests already buffered are answered before flushing
+                if (inputPosition == inputLimit && in.available() == 0) {
+                    out.flush();
+                }
+                if (!keepAlive) {
+                    return;
+                }
+            }
+        }
+
+        private void route(String target, boolean keepAlive) throws IOException {
+            int question = target.indexOf('?');
+            String path = question < 0 ? target : target.substring(0, question);
+            String query = question < 0 ? "" : target.substring(question + 1);
+            body.setLength(0);
+            try {
+                if (path.startsWith("/track/")) {
+                    Package pkg = server.findPackage(decode(path.substring("/track/".length())));
+                    if (pkg == null) {
+                        respond(404, error("Unknown tracking number"), keepAlive);
+                        return;
+                    }
+                    PackageExporter.appendJson(body, pkg);
+                } else if (path.equals("/search")) {
+                    search(query);
+                } else if (path.equals("/status-summary")) {
+                    statusSummary();
+                } else {
+                    respond(404, error("No such route"), keepAlive);
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                respond(400, error(e.getMessage()), keepAlive);
+                return;
+            }
+            respond(200, body, keepAlive);
+        }
+
+        private void search(String query) {
+            String sender = null;
+            String recipient = null;
+            String status = null;
+            int limit = DEFAULT_LIMIT;
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    continue;
+                }
+                String value = decode(parameter.substring(equals + 1));
+                switch (parameter.substring(0, equals)) {
+                    case "sender": sender = value; break;
+                    case "recipient": recipient = value; break;
+                    case "status": status = value; break;
+                    case "limit": limit = parseLimit(value); break;
+                    default: throw new IllegalArgumentException("Unknown parameter " + parameter.substring(0, equals));
+                }
+            }
+            if (sender == null && recipient == null && status == null) {
+                throw new IllegalArgumentException("Search needs sender, recipient or status");
+            }
+            PackageQuery search = PackageQuery.all();
+            // Shorter substrings cannot go through the trigram indexes
+            if (sender != null) {
+                search = search.senderContains(checkSubstring("sender", sender));
+            }
+            if (recipient != null) {
+                search = search.recipientContains(checkSubstring("recipient", recipient));
+            }
+            if (status != null) {
+                search = search.withStatuses(PackageExporter.parseStatuses(status));
+            }
+            // One extra result tells whether there are more
+            List<Package> results = server.query(search.limit(limit + 1)).getPackages();
+            int count = Math.min(limit, results.size());
+            body.append("{\"count\":").append(count).append(",\"more\":").append(results.size() > limit)
+                    .append(",\"packages\":[");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                PackageExporter.appendJson(body, results.get(i));
+            }
+            body.append("]}");
+        }
+
+        private String checkSubstring(String parameter, String value) {
+            if (value.trim().length() < TrigramIndex.GRAM_LENGTH) {
+                throw new IllegalArgumentException(parameter + " needs at least " + TrigramIndex.GRAM_LENGTH
+                        + " characters");
+            }
+            return value;
+        }
+
+        private void statusSummary() {
+            body.append("{\"total\":").append(server.getTotalPackages()).append(",\"statuses\":{");
+            boolean first = true;
+            for (Map.Entry<PackageStatus, Long> entry : server.getPackageStatusSummary().entrySet()) {
+                if (!first) {
+                    body.append(',');
+                }
+                first = false;
+                body.append('"').append(entry.getKey().name()).append("\":").append(entry.getValue());
+            }
+            body.append("}}");
+        }
+
+        private CharSequence error(String message) {
+            body.setLength(0);
+            body.append("{\"error\":");
+            PackageExporter.appendJsonString(body, message == null ? "Bad request" : message);
+            body.append('}');
+            return body;
+        }
+
+        private void respond(int status, CharSequence content, boolean keepAlive) throws IOException {
+            byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+            head.setLength(0);
+            head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status))
+                    .append("\r\nContent-Type: application/json; charset=utf-8\r\nContent-Length: ")
+                    .append(bytes.length);
+            if (status == 405) {
+                head.append("\r\nAllow: GET");
+            }
+            head.append(keepAlive ? "\r\n\r\n" : "\r\nConnection: close\r\n\r\n");
+            for (int i = 0; i < head.length(); i++) {
+                out.write(head.charAt(i));
+            }
+            out.write(bytes);
+            if (!keepAlive) {
+                out.flush();
+            }
+        }
+
+        // Header lines are ASCII; returns null at end of stream. Lines are cut straight
+        // out of the input buffer, which is compacted when a line runs past its end.
+        private String readLine() throws IOException {
+            int scanned = inputPosition;
+            while (true) {
+                for (; scanned < inputLimit; scanned++) {
+                    if (input[scanned] == '\n') {
+                        int end = scanned > inputPosition && input[scanned - 1] == '\r' ? scanned - 1 : scanned;
+                        String line = new String(input, inputPosition, end - inputPosition,
+                                StandardCharsets.ISO_8859_1);
+                        inputPosition = scanned + 1;
+                        return line;
+                    }
+                }
+                if (inputLimit - inputPosition >= MAX_LINE) {
+                    throw new IOException("Request line or header too long");
+                }
+                scanned -= inputPosition;
+                if (!fill()) {
+                    return null;
+                }
+            }
+        }
+
+        // Moves unread bytes to the front and reads more; false at end of stream
+        private boolean fill() throws IOException {
+            if (inputPosition > 0) {
+                System.arraycopy(input, inputPosition, input, 0, inputLimit - inputPosition);
+                inputLimit -= inputPosition;
+                inputPosition = 0;
+            }
+            int read = in.read(input, inputLimit, input.length - inputLimit);
+            if (read < 0) {
+                return false;
+            }
+            inputLimit += read;
+            return true;
+        }
+
+        private void skip(long bytes) throws IOException {
+            while (bytes > 0) {
+                if (inputPosition == inputLimit && !fill()) {
+                    throw new EOFException();
+                }
+                int skipped = (int) Math.min(bytes, inputLimit - inputPosition);
+                inputPosition += skipped;
+                bytes -= skipped;
+            }
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static int parseLimit(String value) {
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+            }
+            return limit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("limit must be a number");
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 431: return "Request Header Fields Too Large";
+            default: return "Error";
+        }
+    }
+}
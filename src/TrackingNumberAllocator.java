@@ -0,0 +1,9 @@
+public interface TrackingNumberAllocator {
+    // Returns a tracking number body in [0, TrackingNumbers.BODY_SPACE) that has never
+    // been handed out by this allocator before
+    long allocate();
+
+    // Called for every id recovered from durable state so that it is never reissued
+    default void observe(long trackingId) {
+    }
+}
@@ -0,0 +1,68 @@
+public final class TrackingNumbers {
+    public static final String PREFIX = "EHC";
+    public static final int BODY_DIGITS = 9;
+    public static final long BODY_SPACE = 1_000_000_000L;
+    public static final int LENGTH = PREFIX.length() + BODY_DIGITS + 1;
+
+    private TrackingNumbers() {
+    }
+
+    // EHC + 9 zero-padded body digits + 1 Luhn check digit
+    public static String format(long body) {
+        if (body < 0 || body >= BODY_SPACE) {
+            throw new IllegalArgumentException("Tracking number body out of range: " + body);
+        }
+        char[] chars = new char[LENGTH];
+        PREFIX.getChars(0, PREFIX.length(), chars, 0);
+        long remaining = body;
+        for (int i = PREFIX.length() + BODY_DIGITS - 1; i >= PREFIX.length(); i--) {
+            chars[i] = (char) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        chars[LENGTH - 1] = (char) ('0' + checkDigit(body));
+        return new String(chars);
+    }
+
+    // Returns the numeric body, or -1 if the string is not a well-formed tracking number
+    public static long parse(String trackingNumber) {
+        if (trackingNumber == null || trackingNumber.length() != LENGTH
+                || !trackingNumber.startsWith(PREFIX)) {
+            return -1;
+        }
+        long body = 0;
+        for (int i = PREFIX.length(); i < PREFIX.length() + BODY_DIGITS; i++) {
+            char c = trackingNumber.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            body = body * 10 + (c - '0');
+        }
+        char check = trackingNumber.charAt(LENGTH - 1);
+        if (check != (char) ('0' + checkDigit(body))) {
+            return -1;
+        }
+        return body;
+    }
+
+    public static boolean isValid(String trackingNumber) {
+        return parse(trackingNumber) >= 0;
+    }
+
+    static int checkDigit(long body) {
+        int sum = 0;
+        boolean doubleDigit = true;
+        for (int i = 0; i < BODY_DIGITS; i++) {
+            int digit = (int) (body % 10);
+            body /= 10;
+            if (doubleDigit) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubleDigit = !doubleDigit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TrigramIndex {
+    public static final int GRAM_LENGTH = 3;
+
+    private static final LongPostingList EMPTY_POSTING = new LongPostingList();
+
+    private final Map<Long, LongPostingList> postings;
+
+    public TrigramIndex() {
+        this.postings = new ConcurrentHashMap<>();
+    }
+
+    public void add(String text, long trackingId) {
+        long[] grams = sortedGrams(text);
+        // A repeated trigram must only post the id once
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                postings.computeIfAbsent(grams[i], k -> new LongPostingList()).add(trackingId);
+            }
+        }
+    }
+
+    // Indexes texts[i] under ids[i]. Postings are gathered locally first, so each
+    // distinct trigram costs one shared map lookup and one append per call.
+    public void addAll(String[] texts, long[] ids) {
+        Map<Long, LongPostingList> local = new HashMap<>();
+        for (int i = 0; i < texts.length; i++) {
+            long[] grams = sortedGrams(texts[i]);
+            for (int g = 0; g < grams.length; g++) {
+                if (g == 0 || grams[g] != grams[g - 1]) {
+                    local.computeIfAbsent(grams[g], k -> new LongPostingList()).add(ids[i]);
+                }
+            }
+        }
+        for (Map.Entry<Long, LongPostingList> entry : local.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new LongPostingList()).addAll(entry.getValue());
+        }
+    }
+
+    private static long[] sortedGrams(String text) {
+        String normalized = normalize(text);
+        long[] grams = new long[Math.max(normalized.length() - GRAM_LENGTH + 1, 0)];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = gramKey(normalized, i);
+        }
+        Arrays.sort(grams);
+        return grams;
+    }
+
+    public boolean canServe(String query) {
+        return normalize(query).length() >= GRAM_LENGTH;
+    }
+
+    // Returns a superset of the ids whose text contains the query; callers still
+    // have to verify each candidate. Only valid when canServe(query) is true.
+    public LongPostingList candidates(String query) {
+        String normalized = normalize(query);
+        LongPostingList smallest = null;
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+            LongPostingList posting = postings.get(gramKey(normalized, i));
+            if (posting == null) {
+                return EMPTY_POSTING;
+            }
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+        return smallest == null ? EMPTY_POSTING : smallest;
+    }
+
+    public int getGramCount() {
+        return postings.size();
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase();
+    }
+
+    private static long gramKey(String text, int offset) {
+        return ((long) text.charAt(offset) << 32)
+                | ((long) text.charAt(offset + 1) << 16)
+                | text.charAt(offset + 2);
+    }
+}
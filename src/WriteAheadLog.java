@@ -0,0 +1,556 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+// Durable, checksummed, segmented log of PackageMutations.
+//
+// Frames are [int payload length][int CRC32C of payload][payload]. Appenders only
+// encode into a shared pending buffer; whoever then needs durability becomes the
+// flusher and writes and fsyncs everything pending, so concurrent writers share one
+// fsync (group commit). Segments roll once they pass segmentBytes and are named after
+// the first sequence they hold. A torn or corrupt tail left by a crash is truncated
+// on open.
+//
+// A failed write or fsync is sticky: the log stops taking appends, and every mutation
+// after the last durable one fails in awaitDurability, so nothing is ever written
+// after a frame that may be torn. Reopening the log, which truncates such a tail,
+// recovers.
+public class WriteAheadLog implements Closeable {
+    public enum Durability {
+        PER_OPERATION,
+        PER_BATCH,
+        INTERVAL
+    }
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    public static final long DEFAULT_INTERVAL_MILLIS = 200;
+
+    private static final int FRAME_HEADER = 2 * Integer.BYTES;
+    private static final int SEQUENCE_OFFSET = 1;
+    private static final int MAX_PENDING_BYTES = 4 << 20;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final Durability durability;
+    private final long segmentBytes;
+    private final long intervalMillis;
+
+    private final Object bufferLock = new Object();
+    private final Object flushLock = new Object();
+    private final Object durableSignal = new Object();
+    private final AtomicLong syncCount = new AtomicLong();
+
+    private ByteBuffer pending;            // guarded by bufferLock
+    private long lastSequence;             // guarded by bufferLock
+    private long pendingFirstSequence;     // guarded by bufferLock
+    private ByteBuffer flushing;           // guarded by flushLock
+    private FileChannel segment;           // guarded by flushLock
+    private long segmentSize;              // guarded by flushLock
+    private volatile long durableSequence;
+    private volatile boolean open;
+    private volatile IOException failure;
+    private ScheduledExecutorService flusher;
+
+    public WriteAheadLog(Path directory, Durability durability) {
+        this(directory, durability, DEFAULT_INTERVAL_MILLIS, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public WriteAheadLog(Path directory, Durability durability, long intervalMillis, long segmentBytes) {
+        this.directory = directory;
+        this.durability = durability;
+        this.intervalMillis = intervalMillis;
+        this.segmentBytes = segmentBytes;
+        this.pending = ByteBuffer.allocate(64 << 10);
+        this.flushing = ByteBuffer.allocate(64 << 10);
+    }
+
+    // Replays every intact mutation in order, then reopens the newest segment for appends.
+    // Returns the number of mutations replayed.
+    public long open(Consumer<PackageMutation> replayTarget) throws IOException {
+        return open(0, replayTarget);
+    }
+
+    // Same, but only replays mutations after the given sequence, e.g. the one a snapshot
+    // covers. Segments that lie entirely at or below it are not read at all.
+    public long open(long afterSequence, Consumer<PackageMutation> replayTarget) throws IOException {
+        synchronized (flushLock) {
+            if (open) {
+                throw new IllegalStateException("Write-ahead log already open");
+            }
+            Files.createDirectories(directory);
+            List<Path> segments = listSegments();
+            lastSequence = afterSequence;
+            long replayed = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                boolean lastSegment = i == segments.size() - 1;
+                if (!lastSegment && firstSequence(segments.get(i + 1)) <= afterSequence + 1) {
+                    continue;
+                }
+                replayed += replaySegment(segments.get(i), lastSegment, replayTarget);
+            }
+            durableSequence = lastSequence;
+            if (segments.isEmpty()) {
+                rollTo(lastSequence + 1);
+            } else {
+                openSegment(segments.get(segments.size() - 1));
+            }
+            open = true;
+            if (durability == Durability.INTERVAL) {
+                flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "ehc-wal-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                flusher.scheduleWithFixedDelay(this::flushInBackground, intervalMillis, intervalMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+            return replayed;
+        }
+    }
+
+    // Appends the mutation and returns its sequence number once it is as durable as
+    // the configured Durability demands
+    public long append(PackageMutation mutation) throws IOException {
+        long sequence = appendDeferred(mutation);
+        awaitDurability(sequence);
+        return sequence;
+    }
+
+    // Assigns the mutation its place in the log without waiting for it to become
+    // durable, so callers can publish its effects and release their locks before
+    // calling awaitDurability. Durability is a prefix of the log, so nothing built on
+    // top of a mutation can become durable before it. PER_OPERATION still syncs here.
+    public long appendDeferred(PackageMutation mutation) throws IOException {
+        checkFailure();
+        if (!open) {
+            throw new IllegalStateException("Write-ahead log is not open");
+        }
+        byte[] payload = mutation.encode();
+        if (durability == Durability.PER_OPERATION) {
+            synchronized (flushLock) {
+                long sequence = enqueue(payload);
+                flushPending();
+                return sequence;
+            }
+        }
+        return enqueue(payload);
+    }
+
+    public void awaitDurability(long sequence) throws IOException {
+        if (sequence > durableSequence) {
+            checkFailure();
+        }
+        if (durability == Durability.PER_BATCH
+                || (durability == Durability.INTERVAL && pendingBytes() >= MAX_PENDING_BYTES)) {
+            awaitDurable(sequence);
+        }
+    }
+
+    public void sync() throws IOException {
+        synchronized (flushLock) {
+            flushPending();
+        }
+    }
+
+    // Deletes closed segments whose mutations all have sequences at or below the given
+    // one. The segment being appended to is always kept. Returns the number deleted.
+    public int deleteSegmentsThrough(long sequence) throws IOException {
+        synchronized (flushLock) {
+            List<Path> segments = listSegments();
+            int deleted = 0;
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (firstSequence(segments.get(i + 1)) > sequence + 1) {
+                    break;
+                }
+                Files.deleteIfExists(segments.get(i));
+                deleted++;
+            }
+            return deleted;
+        }
+    }
+
+    // False once a write has failed
+    public boolean isOpen() {
+        return open && failure == null;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getLastSequence() {
+        synchronized (bufferLock) {
+            return lastSequence;
+        }
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    // Waits until the durable sequence passes the given one or the timeout expires and
+    // returns the durable sequence
+    public long awaitDurableAfter(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (durableSignal) {
+            long remaining = timeoutMillis;
+            while (durableSequence <= sequence && remaining > 0) {
+                durableSignal.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return durableSequence;
+        }
+    }
+
+    // Opens a reader over the durable mutations after the given sequence, or returns
+    // null if segments holding some of them have already been deleted
+    public Reader newReader(long afterSequence) throws IOException {
+        List<Path> segments = listSegments();
+        if (segments.isEmpty() || firstSequence(segments.get(0)) > afterSequence + 1) {
+            return null;
+        }
+        int first = 0;
+        while (first + 1 < segments.size() && firstSequence(segments.get(first + 1)) <= afterSequence + 1) {
+            first++;
+        }
+        return new Reader(segments.get(first), afterSequence);
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        synchronized (flushLock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                if (failure == null) {
+                    flushPending();
+                }
+            } finally {
+                segment.close();
+            }
+        }
+    }
+
+    private long enqueue(byte[] payload) {
+        synchronized (bufferLock) {
+            long sequence = ++lastSequence;
+            ByteBuffer.wrap(payload).putLong(SEQUENCE_OFFSET, sequence);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if (pending.remaining() < FRAME_HEADER + payload.length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                        pending.position() + FRAME_HEADER + payload.length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            if (pendingFirstSequence == 0) {
+                pendingFirstSequence = sequence;
+            }
+            pending.putInt(payload.length);
+            pending.putInt((int) crc.getValue());
+            pending.put(payload);
+            return sequence;
+        }
+    }
+
+    private int pendingBytes() {
+        synchronized (bufferLock) {
+            return pending.position();
+        }
+    }
+
+    private void awaitDurable(long sequence) throws IOException {
+        synchronized (flushLock) {
+            // A flusher that ran while we waited for the lock may already have covered us
+            if (durableSequence < sequence) {
+                flushPending();
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new IOException("Write-ahead log failed earlier and takes no more writes", cause);
+        }
+    }
+
+    // Caller holds flushLock
+    private void flushPending() throws IOException {
+        checkFailure();
+        long upTo;
+        long firstSequence;
+        synchronized (bufferLock) {
+            if (pending.position() == 0) {
+                return;
+            }
+            ByteBuffer swap = flushing;
+            flushing = pending;
+            pending = swap;
+            upTo = lastSequence;
+            firstSequence = pendingFirstSequence;
+            pendingFirstSequence = 0;
+        }
+        flushing.flip();
+        long sizeBefore = segmentSize;
+        try {
+            if (segmentSize >= segmentBytes) {
+                rollTo(firstSequence);
+                sizeBefore = 0;
+            }
+            while (flushing.hasRemaining()) {
+                segmentSize += segment.write(flushing);
+            }
+            segment.force(false);
+        } catch (IOException e) {
+            fail(e, sizeBefore);
+            throw e;
+        } finally {
+            flushing.clear();
+        }
+        syncCount.incrementAndGet();
+        durableSequence = upTo;
+        synchronized (durableSignal) {
+            durableSignal.notifyAll();
+        }
+    }
+
+    // Caller holds flushLock. Cuts off whatever part of the failed frames reached the
+    // segment, if the file still allows it; open truncates a torn tail either way.
+    private void fail(IOException e, long sizeBefore) {
+        failure = e;
+        try {
+            if (segment != null && segment.isOpen()) {
+                segment.truncate(sizeBefore);
+                segmentSize = sizeBefore;
+            }
+        } catch (IOException truncateFailure) {
+            e.addSuppressed(truncateFailure);
+        }
+        synchronized (durableSignal) {
+            durableSignal.notifyAll();
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Error flushing write-ahead log: " + e.getMessage());
+            // Later attempts would only fail again
+            flusher.shutdown();
+        }
+    }
+
+    private void rollTo(long firstSequence) throws IOException {
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+        }
+        openSegment(directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX)));
+    }
+
+    private void openSegment(Path path) throws IOException {
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentSize = segment.size();
+    }
+
+    List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        // Zero-padded names sort in sequence order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // Tails the log from a sequence, handing out whole frames exactly as they are stored,
+    // so they can be shipped without decoding. Only durable frames are returned: those
+    // are completely written and will survive a crash of this process. The reader
+    // follows segment rolls; it fails if a segment it needs is deleted under it.
+    public final class Reader implements Closeable {
+        private final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        private final ByteBuffer sequenceBytes = ByteBuffer.allocate(Long.BYTES);
+        private FileChannel channel;
+        private long segmentFirst;
+        private long position;
+        private long lastSequence;
+
+        private Reader(Path segment, long afterSequence) throws IOException {
+            this.lastSequence = afterSequence;
+            open(segment);
+        }
+
+        private void open(Path segment) throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+            channel = FileChannel.open(segment, StandardOpenOption.READ);
+            segmentFirst = firstSequence(segment);
+            position = 0;
+        }
+
+        // Copies as many whole durable frames as fit into target and returns how many
+        // were copied. Frames at or below the starting sequence are skipped.
+        public int read(ByteBuffer target) throws IOException {
+            long durable = durableSequence;
+            int frames = 0;
+            while (lastSequence < durable) {
+                header.clear();
+                if (!readAt(header, position)) {
+                    if (!nextSegment()) {
+                        break;
+                    }
+                    continue;
+                }
+                int length = header.getInt(0);
+                sequenceBytes.clear();
+                if (!readAt(sequenceBytes, position + FRAME_HEADER + SEQUENCE_OFFSET)) {
+                    break;
+                }
+                long sequence = sequenceBytes.getLong(0);
+                if (sequence > durable) {
+                    break;
+                }
+                int frameBytes = FRAME_HEADER + length;
+                if (sequence > lastSequence) {
+                    if (target.remaining() < frameBytes) {
+                        if (frames == 0 && target.position() == 0) {
+                            throw new IOException("Frame of " + frameBytes + " bytes does not fit the read buffer");
+                        }
+                        break;
+                    }
+                    ByteBuffer frame = target.slice(target.position(), frameBytes);
+                    if (!readAt(frame, position)) {
+                        break;
+                    }
+                    target.position(target.position() + frameBytes);
+                    lastSequence = sequence;
+                    frames++;
+                }
+                position += frameBytes;
+            }
+            return frames;
+        }
+
+        // Moves on once the current segment is exhausted and its successor exists
+        private boolean nextSegment() throws IOException {
+            for (Path segment : listSegments()) {
+                long first = firstSequence(segment);
+                if (first > segmentFirst && first <= lastSequence + 1) {
+                    open(segment);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean readAt(ByteBuffer buffer, long offset) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) <= 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Sequence of the last frame handed out
+        public long getLastSequence() {
+            return lastSequence;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private long replaySegment(Path path, boolean lastSegment, Consumer<PackageMutation> target) throws IOException {
+        long replayed = 0;
+        long validEnd;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return 0;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            CRC32C crc = new CRC32C();
+            while (buffer.remaining() >= FRAME_HEADER) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                PackageMutation mutation = PackageMutation.decode(payload);
+                if (mutation.getSequence() > lastSequence) {
+                    lastSequence = mutation.getSequence();
+                    target.accept(mutation);
+                    replayed++;
+                }
+            }
+            validEnd = buffer.position();
+            if (validEnd < size && !lastSegment) {
+                throw new IOException("Corrupt write-ahead log segment " + path.getFileName()
+                        + " at offset " + validEnd);
+            }
+        }
+        if (lastSegment) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                if (channel.size() > validEnd) {
+                    System.err.println("Truncating torn write-ahead log tail in " + path.getFileName()
+                            + " at offset " + validEnd);
+                    channel.truncate(validEnd);
+                }
+            }
+        }
+        return replayed;
+    }
+}
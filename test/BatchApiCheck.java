@@ -0,0 +1,110 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// createPackages and applyStatusUpdates: results in input order, per-item outcomes,
+// batch-order application of several versioned updates to one package, and one log
+// sync per batch. Prints the speed-up over single calls without asserting on it.
+public class BatchApiCheck {
+    private static final int BATCH = 5_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ehc-batch-check");
+        try {
+            WriteAheadLog log = new WriteAheadLog(directory.resolve("wal"), WriteAheadLog.Durability.PER_BATCH);
+            DHLServer server = new DHLServer(new HeapPackageStore(), new ShardedSequenceAllocator(), log);
+            server.setHttpPort(-1);
+            server.setScannerPort(-1);
+            server.start();
+            try {
+                List<Package> created = createsInOrder(server, log);
+                updatesInOrder(server, log, created);
+                printSpeedUp(server, created);
+            } finally {
+                server.stop();
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static List<Package> createsInOrder(DHLServer server, WriteAheadLog log) {
+        List<PackageSpec> specs = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            specs.add(new PackageSpec("Batch sender " + i, "A", "Recipient " + i, "B", 1 + i % 3, "Item " + i));
+        }
+        long syncs = log.getSyncCount();
+        List<Package> created = server.createPackages(specs);
+        Check.equal(syncs + 1, log.getSyncCount(), "log syncs for one create batch");
+        Check.equal(BATCH, created.size(), "created packages");
+        Set<String> numbers = new HashSet<>();
+        for (int i = 0; i < BATCH; i++) {
+            Package pkg = created.get(i);
+            Check.equal("Batch sender " + i, pkg.getSenderName(), "package " + i + " out of order");
+            Check.that(numbers.add(pkg.getTrackingNumber()), "duplicate " + pkg.getTrackingNumber());
+            Check.that(server.findPackage(pkg.getTrackingNumber()) == pkg, "stored state of package " + i);
+        }
+        Check.equal(1, server.findPackagesBySender("Batch sender 4321").size(), "indexed by sender");
+        Check.equal((long) BATCH, server.getPackageStatusSummary().get(PackageStatus.CREATED), "status index");
+        Check.passed("createPackages", BATCH + " packages in input order, indexed, one log sync");
+        return created;
+    }
+
+    private static void updatesInOrder(DHLServer server, WriteAheadLog log, List<Package> created) {
+        String first = created.get(0).getTrackingNumber();
+        String second = created.get(1).getTrackingNumber();
+        String unknown = TrackingNumbers.format(TrackingNumbers.parse(first) ^ 1);
+        List<StatusUpdate> updates = List.of(
+                new StatusUpdate(first, 1, PackageStatus.PICKED_UP, "Shop", "Collected"),
+                new StatusUpdate("not a number", PackageStatus.IN_TRANSIT, "X", "Y"),
+                new StatusUpdate(first, 2, PackageStatus.IN_TRANSIT, "Hub", "Sorted"),
+                new StatusUpdate(second, 5, PackageStatus.IN_TRANSIT, "Hub", "Stale"),
+                new StatusUpdate(unknown, PackageStatus.IN_TRANSIT, "Hub", "Nobody"),
+                new StatusUpdate(first, 3, PackageStatus.OUT_FOR_DELIVERY, "Van", "Loaded"),
+                new StatusUpdate(first, 3, PackageStatus.DELIVERED, "Door", "Already moved on"));
+        long syncs = log.getSyncCount();
+        List<StatusUpdate.Result> results = server.applyStatusUpdates(updates);
+        Check.equal(syncs + 1, log.getSyncCount(), "log syncs for one update batch");
+        StatusUpdate.Outcome[] expected = {
+            StatusUpdate.Outcome.APPLIED, StatusUpdate.Outcome.NOT_FOUND, StatusUpdate.Outcome.APPLIED,
+            StatusUpdate.Outcome.VERSION_CONFLICT, StatusUpdate.Outcome.NOT_FOUND, StatusUpdate.Outcome.APPLIED,
+            StatusUpdate.Outcome.VERSION_CONFLICT
+        };
+        for (int i = 0; i < expected.length; i++) {
+            Check.equal(expected[i], results.get(i).getOutcome(), "outcome of update " + i);
+        }
+        Check.equal(4L, results.get(5).getPackage().getVersion(), "version after three updates");
+        Check.equal(1L, results.get(3).getPackage().getVersion(), "conflict reports the current state");
+        Package after = server.findPackage(first);
+        Check.equal(PackageStatus.OUT_FOR_DELIVERY, after.getStatus(), "final status");
+        Check.equal(4, after.getTrackingHistory().size(), "history entries");
+        Check.passed("applyStatusUpdates", "outcomes in input order, chained versions apply in batch order, "
+                + "one log sync");
+    }
+
+    private static void printSpeedUp(DHLServer server, List<Package> created) {
+        long start = System.nanoTime();
+        for (Package pkg : created) {
+            server.updatePackageStatus(pkg.getTrackingNumber(), PackageStatus.AT_SORTING_FACILITY, "Hub", "Single");
+        }
+        long single = System.nanoTime() - start;
+        List<StatusUpdate> updates = new ArrayList<>();
+        for (Package pkg : created) {
+            updates.add(new StatusUpdate(pkg.getTrackingNumber(), PackageStatus.IN_TRANSIT, "Hub", "Batched"));
+        }
+        start = System.nanoTime();
+        server.applyStatusUpdates(updates);
+        long batched = System.nanoTime() - start;
+        System.out.printf("INFO %,d status updates: single calls %.0f ms, one batch %.0f ms (%.1fx)%n",
+                created.size(), single / 1e6, batched / 1e6, (double) single / batched);
+    }
+}
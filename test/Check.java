@@ -0,0 +1,40 @@
+// Support for the self-checking programs in this directory. The tree has no build
+// tool or test framework, so each check is a main that prints what it covered and
+// throws AssertionError on the first expectation that does not hold. run-checks.sh
+// compiles src and test together and runs every check.
+final class Check {
+    private Check() {
+    }
+
+    static void that(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void equal(Object expected, Object actual, String message) {
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    // Every field a package carries, history included, for comparing states
+    static String describe(Package pkg) {
+        StringBuilder text = new StringBuilder()
+                .append(pkg.getTrackingNumber()).append('|').append(pkg.getSenderName()).append('|')
+                .append(pkg.getSenderAddress()).append('|').append(pkg.getRecipientName()).append('|')
+                .append(pkg.getRecipientAddress()).append('|').append(pkg.getWeight()).append('|')
+                .append(pkg.getDescription()).append('|').append(pkg.getStatus()).append('|')
+                .append(pkg.getCreatedAt()).append('|').append(pkg.getLastUpdated()).append('|')
+                .append(pkg.getVersion()).append('|').append(pkg.getSequence());
+        for (TrackingEvent event : pkg.getTrackingHistory()) {
+            text.append('|').append(event.getTimestamp()).append(' ').append(event.getEvent()).append(' ')
+                    .append(event.getDescription());
+        }
+        return text.toString();
+    }
+
+    static void passed(String name, String detail) {
+        System.out.println("PASS " + name + ": " + detail);
+    }
+}
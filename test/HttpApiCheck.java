@@ -0,0 +1,184 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// TrackingHttpServer on loopback through java.net.http.HttpClient: package lookups,
+// 404 and 400 answers, search results cut at the limit with "more" telling whether
+// the extra one was there, the minimum substring length, the status summary; then
+// keep-alive and pipelining on one raw connection, which HttpClient does not expose.
+public class HttpApiCheck {
+    private static final Pattern COUNT = Pattern.compile("^\\{\"count\":(\\d+),\"more\":(true|false),");
+
+    public static void main(String[] args) throws Exception {
+        DHLServer server = new DHLServer(new ShardedSequenceAllocator());
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        TrackingHttpServer http = new TrackingHttpServer(server, 0);
+        http.start();
+        try {
+            List<String> ids = fill(server);
+            String base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + http.getPort();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            routes(client, base, server, ids);
+            search(client, base);
+            keepAlive(http.getPort(), ids.get(0));
+        } finally {
+            http.close();
+            server.stop();
+        }
+    }
+
+    // 150 packages from Alice, 30 of them delivered, and 5 from Bob
+    private static List<String> fill(DHLServer server) {
+        List<PackageSpec> specs = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            specs.add(new PackageSpec("Alice Example " + i, "A", "Recipient " + i, "B", 1, "Parcel \"" + i + "\""));
+        }
+        for (int i = 0; i < 5; i++) {
+            specs.add(new PackageSpec("Bob Sample " + i, "A", "Recipient " + i, "B", 1, "Letter"));
+        }
+        List<String> ids = new ArrayList<>();
+        for (Package pkg : server.createPackages(specs)) {
+            ids.add(pkg.getTrackingNumber());
+        }
+        for (int i = 0; i < 30; i++) {
+            server.updatePackageStatus(ids.get(i), PackageStatus.DELIVERED, "Door", "Handed over");
+        }
+        return ids;
+    }
+
+    private static void routes(HttpClient client, String base, DHLServer server, List<String> ids) throws Exception {
+        HttpResponse<String> response = get(client, base + "/track/" + ids.get(0));
+        Check.equal(200, response.statusCode(), "known package");
+        Check.equal("application/json; charset=utf-8", response.headers().firstValue("Content-Type").orElse(null),
+                "content type");
+        StringBuilder expected = new StringBuilder();
+        PackageExporter.appendJson(expected, server.findPackage(ids.get(0)));
+        Check.equal(expected.toString(), response.body(), "package JSON");
+
+        String unknown = TrackingNumbers.format(TrackingNumbers.parse(ids.get(0)) ^ 1);
+        Check.equal(404, get(client, base + "/track/" + unknown).statusCode(), "unknown package");
+        Check.equal(404, get(client, base + "/track/not-a-number").statusCode(), "malformed number");
+        Check.equal(404, get(client, base + "/nothing-here").statusCode(), "unknown route");
+        Check.equal(400, get(client, base + "/search").statusCode(), "search without conditions");
+        Check.equal(400, get(client, base + "/search?colour=red").statusCode(), "unknown parameter");
+        Check.equal(400, get(client, base + "/search?status=MISPLACED").statusCode(), "unknown status");
+        Check.equal(400, get(client, base + "/search?sender=Alice&limit=0").statusCode(), "zero limit");
+        Check.equal(400, get(client, base + "/search?sender=Alice&limit=ten").statusCode(), "non-numeric limit");
+        HttpResponse<String> post = client.send(HttpRequest.newBuilder(URI.create(base + "/status-summary"))
+                .POST(HttpRequest.BodyPublishers.ofString("{}")).build(), HttpResponse.BodyHandlers.ofString());
+        Check.equal(405, post.statusCode(), "POST");
+        Check.equal("GET", post.headers().firstValue("Allow").orElse(null), "Allow header");
+
+        Check.equal("{\"total\":155,\"statuses\":{\"CREATED\":125,\"DELIVERED\":30}}",
+                get(client, base + "/status-summary").body(), "status summary");
+        Check.passed("routes", "track, status-summary, 404 for unknown packages and routes, 400 and 405 for bad"
+                + " requests");
+    }
+
+    private static void search(HttpClient client, String base) throws Exception {
+        checkCount(get(client, base + "/search?sender=Alice"), 100, true, "default limit");
+        checkCount(get(client, base + "/search?sender=Alice&limit=150"), 150, false, "limit equal to matches");
+        checkCount(get(client, base + "/search?sender=Alice&limit=149"), 149, true, "limit one short");
+        checkCount(get(client, base + "/search?sender=bob%20sam"), 5, false, "encoded, case-insensitive sender");
+        checkCount(get(client, base + "/search?sender=Alice&status=DELIVERED"), 30, false, "sender and status");
+        checkCount(get(client, base + "/search?status=DELIVERED,CREATED&limit=10000"), 155, false,
+                "several statuses");
+        checkCount(get(client, base + "/search?sender=Bob&limit=5"), 5, false, "exactly the limit");
+
+        String tooShortSender = "Alice".substring(0, TrigramIndex.GRAM_LENGTH - 1);
+        HttpResponse<String> tooShort = get(client, base + "/search?sender=" + tooShortSender);
+        Check.equal(400, tooShort.statusCode(), "sender below the minimum length");
+        Check.equal("{\"error\":\"sender needs at least " + TrigramIndex.GRAM_LENGTH + " characters\"}",
+                tooShort.body(), "minimum length error");
+        Check.equal(400, get(client, base + "/search?recipient=%20R%20").statusCode(), "padded recipient");
+        checkCount(get(client, base + "/search?sender=" + "Alice".substring(0, TrigramIndex.GRAM_LENGTH)), 100, true,
+                "sender at the minimum length");
+        Check.passed("search", "limit+1 sets \"more\" only when results were cut; substrings need "
+                + TrigramIndex.GRAM_LENGTH + " characters");
+    }
+
+    private static void checkCount(HttpResponse<String> response, int count, boolean more, String what) {
+        Check.equal(200, response.statusCode(), what + ": " + response.body());
+        Matcher matcher = COUNT.matcher(response.body());
+        Check.that(matcher.find(), what + ": unexpected body " + response.body());
+        Check.equal(count, Integer.parseInt(matcher.group(1)), what + " count");
+        Check.equal(more, Boolean.parseBoolean(matcher.group(2)), what + " more");
+        int packages = response.body().split("\"trackingNumber\":", -1).length - 1;
+        Check.equal(count, packages, what + " packages in the body");
+    }
+
+    // Two pipelined requests and a third after their answers go over one connection;
+    // the server closes it after a request asking for that, and after an HTTP/1.0 one
+    private static void keepAlive(int port, String id) throws IOException {
+        String request = "GET /track/" + id + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            out.write((request + "GET /status-summary HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Check.that(readResponse(in, true).contains(id), "first pipelined response");
+            Check.that(readResponse(in, true).startsWith("{\"total\":"), "second pipelined response");
+            out.write(("GET /nothing HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Check.that(readResponse(in, false).contains("No such route"), "response on the reused connection");
+            Check.equal(null, in.readLine(), "connection closed after Connection: close");
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /track/" + id + " HTTP/1.0\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            readResponse(in, false);
+            Check.equal(null, in.readLine(), "connection closed after HTTP/1.0");
+        }
+        Check.passed("keep-alive", "pipelined and follow-up requests share a connection until one asks to close");
+    }
+
+    // Reads one response and returns its body; bodies here are ASCII, so characters
+    // and bytes agree for Content-Length
+    private static String readResponse(BufferedReader in, boolean keepAlive) throws IOException {
+        String status = in.readLine();
+        Check.that(status != null && status.startsWith("HTTP/1.1 "), "status line " + status);
+        int length = -1;
+        boolean close = false;
+        for (String header = in.readLine(); !header.isEmpty(); header = in.readLine()) {
+            if (header.startsWith("Content-Length: ")) {
+                length = Integer.parseInt(header.substring("Content-Length: ".length()));
+            } else if (header.equals("Connection: close")) {
+                close = true;
+            }
+        }
+        Check.equal(!keepAlive, close, "Connection: close header");
+        char[] body = new char[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(body, read, length - read);
+            Check.that(n > 0, "response body ended early");
+            read += n;
+        }
+        return new String(body);
+    }
+
+    private static HttpResponse<String> get(HttpClient client, String uri) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
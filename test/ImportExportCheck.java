@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+// PackageImporter and PackageExporter: a CSV full of quoted commas, doubled quotes
+// and line breaks imported with chunks small enough that dozens of boundaries fall
+// between its records, the reject file for records PackageSpec refuses, an export
+// imported again to the same packages, gzip output that unpacks to the plain export,
+// and status filters pushed down into the export's scan.
+public class ImportExportCheck {
+    private static final int RECORDS = 3_000;
+    private static final long CHUNK_BYTES = 4 << 10;
+    private static final Pattern TRACKING_NUMBER = Pattern.compile("^\\{\"trackingNumber\":\"([^\"]+)\"");
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ehc-import-export-check");
+        DHLServer server = server();
+        DHLServer reimported = server();
+        try {
+            List<String> expected = importCsv(server, directory);
+            exportAndReimport(server, reimported, directory, expected);
+            gzip(server, directory);
+            filters(server, directory);
+        } finally {
+            server.stop();
+            reimported.stop();
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static DHLServer server() {
+        DHLServer server = new DHLServer(new ShardedSequenceAllocator());
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        return server;
+    }
+
+    private static PackageImporter importer(DHLServer server) {
+        return new PackageImporter(server, 500, ForkJoinPool.commonPool(), null, CHUNK_BYTES);
+    }
+
+    // Returns the valid records as the fields the imported packages must carry
+    private static List<String> importCsv(DHLServer server, Path directory) throws IOException {
+        StringBuilder csv = new StringBuilder("Sender Name,sender_address,RECIPIENT NAME,recipient-address,weight,"
+                + "description,ignored\n");
+        List<String> expected = new ArrayList<>();
+        List<String> rejects = new ArrayList<>();
+        long line = 2;
+        for (int i = 0; i < RECORDS; i++) {
+            String sender = i % 7 == 0 ? "Sender " + i + ", Jr." : "Sender " + i;
+            String address = i % 11 == 0 ? "Line 1 of " + i + "\nLine 2 \"rear\"" : "Street " + i;
+            String description = i % 13 == 0 ? "Box \"fragile\" ü € " + i : "Parcel " + i;
+            String weight = Double.toString(0.1 + i % 50 / 10.0);
+            String reason = null;
+            if (i % 250 == 1) {
+                sender = "  ";
+                reason = "Sender name is required";
+            } else if (i % 250 == 2) {
+                weight = "heavy";
+                reason = PackageSpec.INVALID_WEIGHT_MESSAGE;
+            } else if (i % 250 == 3) {
+                description = "";
+                reason = "Description is required";
+            }
+            String record = field(sender) + "," + field(address) + "," + field("Recipient " + i) + ","
+                    + field("Avenue " + i) + "," + weight + "," + field(description) + ",x";
+            csv.append(record).append('\n');
+            if (reason == null) {
+                expected.add(fields(sender, address, "Recipient " + i, "Avenue " + i, Double.parseDouble(weight),
+                        description));
+            } else {
+                rejects.add(line + "\t" + reason + "\t" + record.replace("\\", "\\\\").replace("\t", "\\t")
+                        .replace("\n", "\\n"));
+            }
+            line += record.chars().filter(c -> c == '\n').count() + 1;
+        }
+        Path input = directory.resolve("legacy.csv");
+        Files.writeString(input, csv);
+        Check.that(Files.size(input) > 50 * CHUNK_BYTES, "input spans only " + Files.size(input) + " bytes");
+
+        Path rejectFile = directory.resolve("legacy.rejects.tsv");
+        PackageImporter.Progress progress = importer(server).importFile(input, PackageImporter.Format.CSV, rejectFile);
+        Check.equal((long) expected.size(), progress.getImported(), "imported");
+        Check.equal((long) rejects.size(), progress.getRejected(), "rejected");
+        List<String> rejectLines = Files.readAllLines(rejectFile);
+        Check.equal("line\treason\trecord", rejectLines.get(0), "reject file header");
+        Check.equal(rejects, rejectLines.subList(1, rejectLines.size()), "reject file");
+        Check.equal(sorted(expected), state(server), "imported packages");
+        Check.passed("import", expected.size() + " records across " + Files.size(input) / CHUNK_BYTES
+                + " chunks with quoted commas, quotes and line breaks; " + rejects.size() + " rejects with their"
+                + " line and reason");
+        return expected;
+    }
+
+    private static void exportAndReimport(DHLServer server, DHLServer reimported, Path directory,
+                                          List<String> expected) throws IOException {
+        Path export = directory.resolve("export.csv");
+        long exported = new PackageExporter(server).export(export, PackageExporter.Format.CSV, false,
+                PackageFilter.all());
+        Check.equal((long) expected.size(), exported, "exported");
+        // The history column holds one line per event inside a quoted cell
+        server.updatePackageStatus(server.getAllPackages().get(0).getTrackingNumber(), PackageStatus.IN_TRANSIT,
+                "Hub, \"North\"", "Sorted\nagain");
+        new PackageExporter(server).export(export, PackageExporter.Format.CSV, false, PackageFilter.all());
+        PackageImporter.Progress progress = importer(reimported).importFile(export, PackageImporter.Format.CSV,
+                directory.resolve("export.rejects.tsv"));
+        Check.equal(0L, progress.getRejected(), "rejected from the export");
+        Check.equal(sorted(expected), state(reimported), "packages imported from the export");
+        Check.passed("round trip", "a CSV export imports again to the same " + expected.size() + " packages");
+    }
+
+    private static void gzip(DHLServer server, Path directory) throws IOException {
+        for (PackageExporter.Format format : PackageExporter.Format.values()) {
+            Path plain = directory.resolve("plain." + format);
+            Path packed = directory.resolve("packed." + format + ".gz");
+            PackageExporter exporter = new PackageExporter(server);
+            long count = exporter.export(plain, format, false, PackageFilter.all());
+            Check.equal(count, exporter.export(packed, format, true, PackageFilter.all()), "gzip count " + format);
+            byte[] unpacked;
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(packed))) {
+                unpacked = in.readAllBytes();
+            }
+            Check.that(Arrays.equals(Files.readAllBytes(plain), unpacked), "gzip " + format + " differs");
+            Check.that(Files.size(packed) < Files.size(plain) / 2, "gzip " + format + " barely compressed");
+        }
+        Check.passed("gzip", "gzipped CSV and NDJSON unpack to the plain exports");
+    }
+
+    private static void filters(DHLServer server, Path directory) throws IOException {
+        List<Package> all = server.getAllPackages();
+        for (int i = 0; i < all.size(); i += 4) {
+            server.updatePackageStatus(all.get(i).getTrackingNumber(), PackageStatus.DELIVERED, "Door", "Done");
+        }
+        for (PackageFilter filter : List.of(PackageFilter.all().withStatuses(PackageStatus.DELIVERED),
+                PackageFilter.all().withStatuses(PackageStatus.CREATED, PackageStatus.IN_TRANSIT),
+                PackageFilter.all().withStatuses(PackageStatus.LOST))) {
+            Set<String> expected = new HashSet<>();
+            for (Package pkg : server.findPackages(filter)) {
+                expected.add(pkg.getTrackingNumber());
+            }
+            Path output = directory.resolve("filtered.ndjson");
+            long count = new PackageExporter(server).export(output, PackageExporter.Format.NDJSON, false, filter);
+            Set<String> exported = new HashSet<>();
+            for (String line : Files.readAllLines(output)) {
+                Matcher matcher = TRACKING_NUMBER.matcher(line);
+                Check.that(matcher.find(), "unexpected line " + line);
+                exported.add(matcher.group(1));
+            }
+            Check.equal((long) expected.size(), count, "filtered count");
+            Check.equal(expected, exported, "filtered packages");
+        }
+        Check.passed("filters", "status filters export exactly the packages DHLServer.findPackages returns");
+    }
+
+    private static String field(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String fields(String sender, String senderAddress, String recipient, String recipientAddress,
+                                 double weight, String description) {
+        return String.join("|", sender, senderAddress, recipient, recipientAddress, Double.toString(weight),
+                description);
+    }
+
+    private static List<String> state(DHLServer server) {
+        List<String> state = new ArrayList<>();
+        for (Package pkg : server.getAllPackages()) {
+            state.add(fields(pkg.getSenderName(), pkg.getSenderAddress(), pkg.getRecipientName(),
+                    pkg.getRecipientAddress(), pkg.getWeight(), pkg.getDescription()));
+        }
+        return sorted(state);
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        return sorted;
+    }
+}
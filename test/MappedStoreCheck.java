@@ -0,0 +1,125 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// MappedPackageStore against HeapPackageStore fed the same inserts and repeated status
+// updates, with chunks small enough that records and histories cross many chunk
+// boundaries; then a server running on -Dehc.store=mapped.
+public class MappedStoreCheck {
+    private static final int PACKAGES = 500;
+    private static final int UPDATES = 10_000;
+    // 16 records and 4 KB of strings and events per chunk
+    private static final int RECORD_CHUNK_BITS = 10;
+    private static final int DATA_CHUNK_BITS = 12;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ehc-mapped-check");
+        try {
+            againstHeap(directory.resolve("store"));
+            configuredServer(directory.resolve("server"));
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static void againstHeap(Path directory) throws Exception {
+        Random random = new Random(11);
+        HeapPackageStore heap = new HeapPackageStore();
+        long sequence = 0;
+        try (MappedPackageStore mapped = new MappedPackageStore(directory, RECORD_CHUNK_BITS, DATA_CHUNK_BITS)) {
+            long[] ids = new long[PACKAGES];
+            for (int i = 0; i < PACKAGES; i++) {
+                ids[i] = 1_000_000L + 7L * i;
+                Package pkg = Package.created(PackageMutation.create(ids[i], 1_700_000_000_000L + i,
+                        "Sender " + i, "Street " + i, "Recipient é " + i, "Avenue " + i, 0.5 + i % 9,
+                        "Parcel " + "x".repeat(i % 200)).withSequence(++sequence));
+                Check.that(heap.insert(ids[i], pkg), "heap insert " + i);
+                Check.that(mapped.insert(ids[i], pkg), "mapped insert " + i);
+                Check.that(!mapped.insert(ids[i], pkg), "duplicate insert " + i);
+            }
+            Check.equal(PACKAGES, mapped.size(), "size");
+            Check.that(mapped.get(42) == null, "unknown id");
+            compare(heap, mapped, ids, "after inserts");
+
+            // Package 0 takes an update in every ten, so its history alone spans many chunks
+            PackageStatus[] statuses = PackageStatus.values();
+            for (int u = 0; u < UPDATES; u++) {
+                long id = u % 10 == 0 ? ids[0] : ids[random.nextInt(PACKAGES)];
+                PackageMutation mutation = PackageMutation.statusUpdate(id, 1_800_000_000_000L + u,
+                        statuses[random.nextInt(statuses.length)], "Hub " + random.nextInt(50),
+                        "Scan " + u + " " + "y".repeat(random.nextInt(120))).withSequence(++sequence);
+                Check.equal(Check.describe(heap.updateStatus(mutation)), Check.describe(mapped.updateStatus(mutation)),
+                        "update " + u);
+            }
+            Check.that(mapped.updateStatus(PackageMutation.statusUpdate(42, 0, PackageStatus.DELIVERED, "A", "B")
+                    .withSequence(++sequence)) == null, "update of an unknown id");
+            compare(heap, mapped, ids, "after updates");
+            int events = mapped.get(ids[0]).getTrackingHistory().size();
+            Check.that(events > UPDATES / 10, "history of package 0 has " + events + " events");
+            long chunks = Files.size(directory.resolve("packages.dat")) >> DATA_CHUNK_BITS;
+            Check.that(chunks > 100, "only " + chunks + " data chunks used");
+
+            List<String> expected = new ArrayList<>();
+            heap.forEach(pkg -> expected.add(Check.describe(pkg)));
+            List<String> actual = new ArrayList<>();
+            mapped.forEach(pkg -> actual.add(Check.describe(pkg)));
+            expected.sort(null);
+            actual.sort(null);
+            Check.equal(expected, actual, "forEach");
+            Check.equal(heap.weightByStatus(), mapped.weightByStatus(), "weight by status");
+            Check.passed("against heap", PACKAGES + " packages and " + UPDATES + " updates across " + chunks
+                    + " data chunks, package 0 with " + events + " events");
+        }
+    }
+
+    private static void compare(HeapPackageStore heap, MappedPackageStore mapped, long[] ids, String when) {
+        for (long id : ids) {
+            Check.equal(Check.describe(heap.get(id)), Check.describe(mapped.get(id)), "package " + id + " " + when);
+        }
+    }
+
+    private static void configuredServer(Path directory) {
+        String previous = System.getProperty("ehc.store");
+        System.setProperty("ehc.store", "mapped");
+        PackageStore store;
+        try {
+            store = DHLServer.configuredStore(directory);
+        } finally {
+            if (previous == null) {
+                System.clearProperty("ehc.store");
+            } else {
+                System.setProperty("ehc.store", previous);
+            }
+        }
+        Check.that(store instanceof MappedPackageStore, "ehc.store=mapped gave " + store.getClass().getName());
+        DHLServer server = new DHLServer(store, new ShardedSequenceAllocator());
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        try {
+            Package created = server.createPackage("Sender", "A", "Recipient", "B", 2.5, "Mapped");
+            String id = created.getTrackingNumber();
+            PackageStatus[] path = {PackageStatus.PICKED_UP, PackageStatus.IN_TRANSIT,
+                PackageStatus.OUT_FOR_DELIVERY, PackageStatus.DELIVERED};
+            for (PackageStatus status : path) {
+                Check.that(server.updatePackageStatus(id, status, "Place", status.name()), "update to " + status);
+            }
+            Package pkg = server.findPackage(id);
+            Check.equal(PackageStatus.DELIVERED, pkg.getStatus(), "status");
+            Check.equal(5L, pkg.getVersion(), "version");
+            Check.equal(5, pkg.getTrackingHistory().size(), "history events");
+            Check.equal(1, server.findPackagesByStatus(PackageStatus.DELIVERED).size(), "status index");
+            Check.passed("ehc.store=mapped", "server creates, updates and finds packages in the mapped store");
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The W-TinyLFU policy beats plain LRU on a skewed trace with scans, the cache stays
+// within capacity, and concurrent fills never leave a state older than the last write
+public class PackageCacheCheck {
+    private static final Package PLACEHOLDER = new Package("EHC0000000000", "a", "b", "c", "d", 1, "e");
+
+    public static void main(String[] args) throws Exception {
+        resistsScans();
+        generationGuardsFills();
+        fillsRaceWithInvalidations();
+        serverReadsNeverGoBack();
+    }
+
+    // Zipf-distributed lookups over a million keys with a fifth of one-off scan keys
+    private static void resistsScans() {
+        int capacity = 10_000;
+        PackageCache cache = new PackageCache(capacity);
+        LinkedHashMap<Long, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        double[] cdf = new double[1_000_000];
+        double sum = 0;
+        for (int i = 0; i < cdf.length; i++) {
+            sum += 1.0 / Math.pow(i + 1, 0.9);
+            cdf[i] = sum;
+        }
+        Random random = new Random(1);
+        long scanKey = 2_000_000;
+        long lruHits = 0;
+        int lookups = 2_000_000;
+        for (int i = 0; i < lookups; i++) {
+            long key;
+            if (i % 10 < 2) {
+                key = scanKey++;
+            } else {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                key = index < 0 ? -index - 1 : index;
+            }
+            if (cache.get(key) == null) {
+                cache.putIfCurrent(key, PLACEHOLDER, cache.generation(key));
+            }
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, Boolean.TRUE);
+            }
+            Check.that(cache.size() <= capacity, "cache grew to " + cache.size());
+        }
+        double lruRate = (double) lruHits / lookups;
+        Check.that(cache.getHitRate() > lruRate + 0.05,
+                String.format("hit rate %.3f against LRU %.3f", cache.getHitRate(), lruRate));
+        Check.passed("policy", String.format("hit rate %.3f against LRU %.3f, never above capacity",
+                cache.getHitRate(), lruRate));
+    }
+
+    private static void generationGuardsFills() {
+        PackageCache cache = new PackageCache(100);
+        long generation = cache.generation(7);
+        cache.invalidate(7);
+        cache.putIfCurrent(7, PLACEHOLDER, generation);
+        Check.that(cache.get(7) == null, "a fill that raced with an invalidation was cached");
+        cache.putIfCurrent(7, PLACEHOLDER, cache.generation(7));
+        Check.that(cache.get(7) == PLACEHOLDER, "a current fill was not cached");
+        cache.invalidate(7);
+        Check.that(cache.get(7) == null, "invalidate left the entry");
+        Check.passed("generations", "stale fills are refused and invalidate removes the entry");
+    }
+
+    // A writer bumps a per-key version in a stand-in store and invalidates; readers fill
+    // on misses as DHLServer does. No hit may be older than the last finished write, and
+    // afterwards every cached entry must be current.
+    private static void fillsRaceWithInvalidations() throws InterruptedException {
+        int keys = 512;
+        PackageCache cache = new PackageCache(256);
+        AtomicLongArray versions = new AtomicLongArray(keys);
+        AtomicLongArray finished = new AtomicLongArray(keys);
+        AtomicLong staleHits = new AtomicLong();
+        Package[] states = new Package[keys];
+        Object[] locks = new Object[keys];
+        for (int key = 0; key < keys; key++) {
+            states[key] = version(key, 0);
+            locks[key] = new Object();
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random random = new Random(t);
+            threads.add(new Thread(() -> {
+                while (!done.get()) {
+                    int key = random.nextInt(keys);
+                    long floor = finished.get(key);
+                    Package hit = cache.get(key);
+                    if (hit != null && hit.getVersion() < floor) {
+                        staleHits.incrementAndGet();
+                    }
+                    if (hit == null) {
+                        long generation = cache.generation(key);
+                        Package state;
+                        synchronized (locks[key]) {
+                            state = states[key];
+                        }
+                        cache.putIfCurrent(key, state, generation);
+                    }
+                }
+            }));
+        }
+        Thread writer = new Thread(() -> {
+            Random random = new Random(42);
+            for (int i = 0; i < 300_000; i++) {
+                int key = random.nextInt(keys);
+                long version = versions.incrementAndGet(key);
+                synchronized (locks[key]) {
+                    states[key] = version(key, version);
+                    cache.invalidate(key);
+                }
+                finished.set(key, version);
+            }
+        });
+        threads.forEach(Thread::start);
+        writer.start();
+        writer.join();
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Check.equal(0L, staleHits.get(), "hits older than a finished write");
+        int cached = 0;
+        for (int key = 0; key < keys; key++) {
+            Package pkg = cache.get(key);
+            if (pkg != null) {
+                cached++;
+                Check.equal(versions.get(key), pkg.getVersion(), "cached version of key " + key);
+            }
+        }
+        Check.that(cache.size() <= 256, "cache grew to " + cache.size());
+        Check.passed("fill races", "300,000 invalidations against 4 filling readers, " + cached
+                + " cached entries all current");
+    }
+
+    private static Package version(int key, long version) {
+        return new Package(TrackingNumbers.format(key), "s", "a", "r", "b", 1, "d", PackageStatus.CREATED,
+                PLACEHOLDER.getCreatedAt(), PLACEHOLDER.getLastUpdated(), List.of(), version, version);
+    }
+
+    // Through DHLServer: once an update returns, no reader sees an older version
+    private static void serverReadsNeverGoBack() throws InterruptedException {
+        DHLServer server = new DHLServer(new HeapPackageStore(), new ShardedSequenceAllocator());
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        try {
+            String[] numbers = new String[8];
+            AtomicLongArray committed = new AtomicLongArray(numbers.length);
+            for (int i = 0; i < numbers.length; i++) {
+                numbers[i] = server.createPackage("s", "a", "r", "b", 1, "d").getTrackingNumber();
+                committed.set(i, 1);
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicLong reads = new AtomicLong();
+            AtomicLong stale = new AtomicLong();
+            List<Thread> readers = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                readers.add(new Thread(() -> {
+                    Random random = new Random();
+                    while (!done.get()) {
+                        int i = random.nextInt(numbers.length);
+                        long floor = committed.get(i);
+                        if (server.findPackage(numbers[i]).getVersion() < floor) {
+                            stale.incrementAndGet();
+                        }
+                        reads.incrementAndGet();
+                    }
+                }));
+            }
+            readers.forEach(Thread::start);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                int offset = t;
+                writers.add(new Thread(() -> {
+                    for (int n = 0; n < 10_000; n++) {
+                        int i = (n * 2 + offset) % numbers.length;
+                        // Each package has one writer, so the versions are known in advance
+                        server.updatePackageStatus(numbers[i], PackageStatus.IN_TRANSIT, "x", "y");
+                        committed.incrementAndGet(i);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            Check.equal(0L, stale.get(), "reads older than a finished update");
+            Check.passed("server reads", String.format("%,d reads during 20,000 updates, none stale", reads.get()));
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// PartitionedDHLServer against a single DHLServer holding the same packages under the
+// same tracking numbers: the merged findPackagesBy* and query fan-outs, paged scans
+// in every order across shards, and the shard-count guard on persistent shards.
+public class PartitionedServerCheck {
+    private static final int PACKAGES = 4_000;
+    private static final int SHARDS = 4;
+
+    public static void main(String[] args) throws Exception {
+        PartitionedDHLServer partitioned = PartitionedDHLServer.inMemory(SHARDS);
+        DHLServer single = new DHLServer(new ShardedSequenceAllocator());
+        for (int shard = 0; shard < SHARDS; shard++) {
+            partitioned.getShard(shard).setHttpPort(-1);
+            partitioned.getShard(shard).setScannerPort(-1);
+        }
+        single.setHttpPort(-1);
+        single.setScannerPort(-1);
+        partitioned.start();
+        single.start();
+        try {
+            List<String> ids = fill(partitioned, single);
+            fanOut(partitioned, single);
+            scans(partitioned, single, ids);
+        } finally {
+            partitioned.stop();
+            single.stop();
+        }
+        layoutGuard();
+    }
+
+    private static List<String> fill(PartitionedDHLServer partitioned, DHLServer single) throws Exception {
+        List<PackageSpec> specs = new ArrayList<>();
+        for (int i = 0; i < PACKAGES; i++) {
+            specs.add(new PackageSpec("Sender " + i, "Street " + i, "Recipient " + (i % 40), "Avenue " + i,
+                    1 + i % 5, "Parcel " + i));
+        }
+        List<Package> created = partitioned.createPackages(specs);
+        long[] trackingIds = new long[PACKAGES];
+        List<String> ids = new ArrayList<>();
+        int[] perShard = new int[SHARDS];
+        for (int i = 0; i < PACKAGES; i++) {
+            Package pkg = created.get(i);
+            Check.equal("Sender " + i, pkg.getSenderName(), "package " + i + " out of order");
+            ids.add(pkg.getTrackingNumber());
+            trackingIds[i] = TrackingNumbers.parse(pkg.getTrackingNumber());
+            perShard[partitioned.shardOf(trackingIds[i])]++;
+        }
+        for (int shard = 0; shard < SHARDS; shard++) {
+            Check.that(perShard[shard] > PACKAGES / SHARDS / 2, "shard " + shard + " holds " + perShard[shard]);
+            Check.equal(perShard[shard], partitioned.getShard(shard).getTotalPackages(), "shard " + shard);
+        }
+        single.createPackages(trackingIds, specs);
+        for (int i = 0; i < PACKAGES; i += 3) {
+            // Spread the update times, so the scans by update time have something to order
+            if (i % 300 == 0) {
+                Thread.sleep(2);
+            }
+            PackageStatus status = i % 2 == 0 ? PackageStatus.IN_TRANSIT : PackageStatus.DELIVERED;
+            Check.that(partitioned.updatePackageStatus(ids.get(i), status, "Hub", "Moved"), "update " + i);
+            Check.that(single.updatePackageStatus(ids.get(i), status, "Hub", "Moved"), "single update " + i);
+        }
+        return ids;
+    }
+
+    private static void fanOut(PartitionedDHLServer partitioned, DHLServer single) {
+        Check.equal(single.getTotalPackages(), partitioned.getTotalPackages(), "total packages");
+        Check.equal(single.getPackageStatusSummary(), partitioned.getPackageStatusSummary(), "status summary");
+        Check.equal(single.getPackageWeightSummary(), partitioned.getPackageWeightSummary(), "weight summary");
+        for (String sender : List.of("Sender 12", "sender 3", "Nobody", "Se")) {
+            Check.equal(numbers(single.findPackagesBySender(sender)), numbers(partitioned.findPackagesBySender(sender)),
+                    "by sender " + sender);
+        }
+        for (String recipient : List.of("Recipient 7", "RECIPIENT 1", "ent")) {
+            Check.equal(numbers(single.findPackagesByRecipient(recipient)),
+                    numbers(partitioned.findPackagesByRecipient(recipient)), "by recipient " + recipient);
+        }
+        for (PackageStatus status : PackageStatus.values()) {
+            Check.equal(numbers(single.findPackagesByStatus(status)),
+                    numbers(partitioned.findPackagesByStatus(status)), "by status " + status);
+        }
+        PackageFilter filter = PackageFilter.all().withStatuses(PackageStatus.DELIVERED, PackageStatus.CREATED);
+        Check.equal(numbers(single.findPackages(filter)), numbers(partitioned.findPackages(filter)), "by filter");
+        PackageQuery query = PackageQuery.all().recipientContains("Recipient 2").withStatuses(PackageStatus.IN_TRANSIT)
+                .orderBy(ScanOrder.TRACKING_NUMBER).limit(25);
+        List<String> expected = inOrder(single.query(query).getPackages());
+        Check.equal(25, expected.size(), "query results");
+        Check.equal(expected, inOrder(partitioned.query(query).getPackages()), "merged query");
+        Check.passed("fan-out", "sender, recipient, status, filter and query results match a single server");
+    }
+
+    private static void scans(PartitionedDHLServer partitioned, DHLServer single, List<String> ids) {
+        List<String> byNumber = scanAll(cursor -> partitioned.scan(cursor, 37, ScanOrder.TRACKING_NUMBER), 37);
+        Check.equal(scanAll(cursor -> single.scan(cursor, 37, ScanOrder.TRACKING_NUMBER), 37), byNumber,
+                "scan by tracking number");
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(Comparator.comparingLong(TrackingNumbers::parse));
+        Check.equal(sorted, byNumber, "scan covers every package once");
+
+        List<Package> all = new ArrayList<>();
+        partitioned.forEachPackage(PackageFilter.all(), all::add);
+        Comparator<Package> byUpdate = Comparator.comparingLong((Package pkg) -> EpochMillis.of(pkg.getLastUpdated()))
+                .thenComparingLong(pkg -> TrackingNumbers.parse(pkg.getTrackingNumber()));
+        all.sort(byUpdate);
+        Check.equal(inOrder(all), scanAll(cursor -> partitioned.scan(cursor, 50, ScanOrder.LAST_UPDATED), 50),
+                "scan by last update");
+        all.sort(byUpdate.reversed());
+        Check.equal(inOrder(all), scanAll(cursor -> partitioned.scan(cursor, 50, ScanOrder.LAST_UPDATED_DESCENDING),
+                50), "scan by last update descending");
+        Check.passed("scan", "paged scans merge the shards in every order without gaps or repeats");
+    }
+
+    private static List<String> scanAll(Function<Cursor, ScanPage> scan, int limit) {
+        List<String> numbers = new ArrayList<>();
+        Cursor cursor = Cursor.start();
+        while (cursor != null) {
+            ScanPage page = scan.apply(cursor);
+            Check.that(page.getPackages().size() <= limit, "page over the limit");
+            numbers.addAll(inOrder(page.getPackages()));
+            cursor = page.getNext();
+        }
+        return numbers;
+    }
+
+    private static void layoutGuard() throws Exception {
+        Path directory = Files.createTempDirectory("ehc-partitioned-check");
+        try {
+            PartitionedDHLServer.persistentShards(directory, 3);
+            Check.equal("3", Files.readString(directory.resolve("shard-count")).trim(), "recorded shard count");
+            PartitionedDHLServer.persistentShards(directory, 3);
+            try {
+                PartitionedDHLServer.persistentShards(directory, 4);
+                throw new AssertionError("opened 3 shards as 4");
+            } catch (IllegalStateException e) {
+                Check.equal(directory + " holds 3 shards, not 4", e.getMessage(), "layout error");
+            }
+            Check.passed("layout", "shards written for one count are refused under another");
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static List<String> inOrder(List<Package> packages) {
+        List<String> numbers = new ArrayList<>();
+        for (Package pkg : packages) {
+            numbers.add(pkg.getTrackingNumber());
+        }
+        return numbers;
+    }
+
+    // Fan-outs come back shard by shard, so compare them as sorted lists
+    private static List<String> numbers(List<Package> packages) {
+        List<String> numbers = inOrder(packages);
+        numbers.sort(null);
+        return numbers;
+    }
+}
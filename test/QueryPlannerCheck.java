@@ -0,0 +1,158 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+// Whatever plan DHLServer.query picks, it returns what a brute-force filter over every
+// package returns: the same rows in the same order for ordered queries, and a subset
+// of the right size for unordered ones. Partitioned servers merge to the same answer.
+public class QueryPlannerCheck {
+    private static final int PACKAGES = 40_000;
+    private static final PackageStatus[] STATUSES = PackageStatus.values();
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+        List<PackageSpec> specs = new ArrayList<>();
+        for (int i = 0; i < PACKAGES; i++) {
+            specs.add(new PackageSpec("Sender " + random.nextInt(5000) + (i % 97 == 0 ? " Acme" : ""), "a",
+                    "Recipient " + random.nextInt(2000), "b", 1, "d"));
+        }
+        DHLServer server = new DHLServer(new ShardedSequenceAllocator());
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        server.start();
+        try {
+            List<Package> created = server.createPackages(specs);
+            for (int i = 0; i < PACKAGES / 2; i++) {
+                server.updatePackageStatus(created.get(random.nextInt(PACKAGES)).getTrackingNumber(),
+                        STATUSES[1 + random.nextInt(5)], "L", "d");
+            }
+            Thread.sleep(30);
+            LocalDateTime middle = LocalDateTime.now().minusNanos(15_000_000);
+            for (int i = 0; i < 3000; i++) {
+                server.updatePackageStatus(created.get(random.nextInt(PACKAGES)).getTrackingNumber(),
+                        PackageStatus.DELIVERED, "L", "d");
+            }
+            List<Package> all = server.getAllPackages();
+
+            PackageQuery[] fixed = {
+                PackageQuery.all().senderContains("acme")
+                        .withStatuses(PackageStatus.IN_TRANSIT, PackageStatus.OUT_FOR_DELIVERY)
+                        .updatedBetween(middle, null).orderBy(ScanOrder.LAST_UPDATED_DESCENDING).limit(100),
+                PackageQuery.all().senderContains("sender 12").recipientContains("recipient 7").limit(50),
+                PackageQuery.all().withStatuses(PackageStatus.DELIVERED).updatedBetween(middle, null)
+                        .orderBy(ScanOrder.LAST_UPDATED),
+                PackageQuery.all().withStatuses(PackageStatus.CREATED).orderBy(ScanOrder.TRACKING_NUMBER).limit(20),
+                PackageQuery.all().withStatuses(STATUSES[STATUSES.length - 1], PackageStatus.CREATED),
+                PackageQuery.all().senderContains("se").withStatuses(PackageStatus.DELIVERED)
+                        .orderBy(ScanOrder.LAST_UPDATED_DESCENDING).limit(30),
+                PackageQuery.all().recipientContains("recipient 1999").orderBy(ScanOrder.TRACKING_NUMBER),
+                PackageQuery.all().limit(10),
+            };
+            for (PackageQuery query : fixed) {
+                check(server, all, query);
+            }
+            int queries = 300;
+            for (int i = 0; i < queries; i++) {
+                check(server, all, randomQuery(random, middle));
+            }
+            Check.passed("planner", fixed.length + " fixed and " + queries + " random queries match brute force");
+
+            QueryResult walk = server.query(PackageQuery.all().orderBy(ScanOrder.LAST_UPDATED_DESCENDING).limit(100));
+            Check.that(walk.getExamined() <= 200, "ordered walk examined " + walk.getExamined()
+                    + " packages for 100 rows: " + walk.getPlan());
+            Check.passed("limits", "an ordered, limited walk examines " + walk.getExamined() + " packages for 100 rows");
+        } finally {
+            server.stop();
+        }
+        partitionedMerge(specs.subList(0, 20_000), random);
+    }
+
+    private static PackageQuery randomQuery(Random random, LocalDateTime middle) {
+        PackageQuery query = PackageQuery.all();
+        if (random.nextBoolean()) {
+            query = query.senderContains("sender " + random.nextInt(600));
+        }
+        if (random.nextInt(3) == 0) {
+            query = query.recipientContains("ent " + random.nextInt(300));
+        }
+        if (random.nextBoolean()) {
+            query = query.withStatuses(STATUSES[random.nextInt(6)], STATUSES[random.nextInt(6)]);
+        }
+        if (random.nextInt(3) == 0) {
+            query = query.updatedBetween(middle, null);
+        }
+        if (random.nextInt(4) == 0) {
+            query = query.createdBetween(null, middle);
+        }
+        int order = random.nextInt(ScanOrder.values().length + 1);
+        if (order > 0) {
+            query = query.orderBy(ScanOrder.values()[order - 1]);
+        }
+        if (random.nextBoolean()) {
+            query = query.limit(1 + random.nextInt(200));
+        }
+        return query;
+    }
+
+    private static void check(DHLServer server, List<Package> all, PackageQuery query) {
+        QueryResult result = server.query(query);
+        List<String> expected = bruteForce(all, query);
+        List<String> actual = numbers(result.getPackages());
+        String context = query + " planned as " + result.getPlan();
+        if (query.getOrder() != null) {
+            Check.equal(expected, actual, context);
+        } else {
+            Check.equal(Math.min(expected.size(), query.getLimit()), actual.size(), "rows of " + context);
+            Set<String> distinct = new HashSet<>(actual);
+            Check.equal(actual.size(), distinct.size(), "duplicate rows in " + context);
+            Check.that(new HashSet<>(expected).containsAll(distinct), "rows not matching " + context);
+        }
+    }
+
+    // Ordered and limited when the query is ordered; every match otherwise
+    private static List<String> bruteForce(List<Package> all, PackageQuery query) {
+        List<Package> matches = new ArrayList<>();
+        for (Package pkg : all) {
+            if (query.matches(pkg)) {
+                matches.add(pkg);
+            }
+        }
+        if (query.getOrder() == null) {
+            return numbers(matches);
+        }
+        matches.sort(QueryPlanner.comparator(query.getOrder()));
+        return numbers(matches.subList(0, Math.min(matches.size(), query.getLimit())));
+    }
+
+    private static void partitionedMerge(List<PackageSpec> specs, Random random) {
+        PartitionedDHLServer partitioned = PartitionedDHLServer.inMemory(4);
+        partitioned.start();
+        try {
+            partitioned.createPackages(specs);
+            List<Package> all = new ArrayList<>();
+            partitioned.forEachPackage(PackageFilter.all(), all::add);
+            for (ScanOrder order : ScanOrder.values()) {
+                PackageQuery query = PackageQuery.all().senderContains("acme").orderBy(order).limit(10);
+                Check.equal(bruteForce(all, query), numbers(partitioned.query(query).getPackages()),
+                        "partitioned " + query);
+            }
+            PackageQuery unordered = PackageQuery.all().senderContains("sender " + random.nextInt(600)).limit(5);
+            List<String> rows = numbers(partitioned.query(unordered).getPackages());
+            Check.equal(Math.min(5, bruteForce(all, unordered).size()), rows.size(), "partitioned " + unordered);
+            Check.passed("partitioned", "merged results over 4 shards match brute force");
+        } finally {
+            partitioned.stop();
+        }
+    }
+
+    private static List<String> numbers(List<Package> packages) {
+        List<String> numbers = new ArrayList<>(packages.size());
+        for (Package pkg : packages) {
+            numbers.add(pkg.getTrackingNumber());
+        }
+        return numbers;
+    }
+}
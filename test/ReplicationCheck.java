@@ -0,0 +1,150 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// A leader and a follower on loopback: an empty follower whose log start was deleted
+// is seeded from the newest snapshot, then follows live writes; after the leader
+// restarts it resumes from its applied sequence instead of starting over; and the
+// replica refuses writes of its own.
+public class ReplicationCheck {
+    private static final int PACKAGES = 5_000;
+    // Small segments, so that the snapshot gets to delete the start of the log
+    private static final long SEGMENT_BYTES = 64 << 10;
+    private static final long WAIT_MILLIS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ehc-replication-check");
+        try {
+            WriteAheadLog log = new WriteAheadLog(directory.resolve("wal"), WriteAheadLog.Durability.PER_BATCH,
+                    WriteAheadLog.DEFAULT_INTERVAL_MILLIS, SEGMENT_BYTES);
+            DHLServer leaderServer = new DHLServer(new HeapPackageStore(), new ShardedSequenceAllocator(), log,
+                    new SnapshotManager(directory.resolve("snapshots")));
+            DHLServer replica = new DHLServer(new ShardedSequenceAllocator());
+            for (DHLServer server : List.of(leaderServer, replica)) {
+                server.setHttpPort(-1);
+                server.setScannerPort(-1);
+                server.start();
+            }
+            ReplicationLeader leader = null;
+            ReplicationFollower follower = null;
+            try {
+                List<String> ids = write(leaderServer, "First", PACKAGES);
+                long snapshotSequence = SnapshotManager.sequenceOf(leaderServer.writeSnapshot());
+                Check.that(log.newReader(0) == null, "the snapshot should have deleted the start of the log");
+                write(leaderServer, "Second", PACKAGES / 10);
+
+                leader = new ReplicationLeader(leaderServer, 0);
+                leader.start();
+                int port = leader.getPort();
+                follower = new ReplicationFollower(replica, "127.0.0.1", port);
+                follower.start();
+                awaitCaughtUp(follower, log);
+                Check.equal(state(leaderServer), state(replica), "replica seeded from the snapshot");
+                Check.equal(log.getDurableSequence() - snapshotSequence, follower.getAppliedCount(),
+                        "mutations applied after the snapshot");
+                Check.passed("snapshot seeding", "empty follower seeded at sequence " + snapshotSequence
+                        + " and caught up to " + follower.getAppliedSequence());
+
+                for (String id : ids.subList(0, 500)) {
+                    leaderServer.updatePackageStatus(id, PackageStatus.DELIVERED, "Door", "Handed over");
+                }
+                awaitCaughtUp(follower, log);
+                Check.equal(state(leaderServer), state(replica), "replica following live writes");
+                Check.passed("live", "500 status changes reached the replica while connected");
+
+                leader.close();
+                long resumedFrom = follower.getAppliedSequence();
+                long appliedBefore = follower.getAppliedCount();
+                write(leaderServer, "Third", PACKAGES / 10);
+                for (String id : ids.subList(500, 1000)) {
+                    leaderServer.updatePackageStatus(id, PackageStatus.IN_TRANSIT, "Hub", "Sorted");
+                }
+                leader = new ReplicationLeader(leaderServer, port);
+                leader.start();
+                awaitCaughtUp(follower, log);
+                Check.equal(state(leaderServer), state(replica), "replica after the leader restarted");
+                Check.equal(log.getDurableSequence() - resumedFrom, follower.getAppliedCount() - appliedBefore,
+                        "mutations applied after reconnecting");
+                Check.that(follower.getFailure() == null, "follower failed: " + follower.getFailure());
+                Check.passed("catch-up", "follower resumed after sequence " + resumedFrom + " once the leader"
+                        + " came back and caught up to " + follower.getAppliedSequence());
+
+                refusesWrites(replica, ids.get(0));
+                Check.equal(state(leaderServer), state(replica), "replica after refused writes");
+                Check.passed("read replica", "single and batch creates and updates are refused");
+            } finally {
+                if (follower != null) {
+                    follower.close();
+                }
+                if (leader != null) {
+                    leader.close();
+                }
+                replica.stop();
+                leaderServer.stop();
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    // Creates the packages and moves every third one on, returning their numbers
+    private static List<String> write(DHLServer server, String prefix, int count) {
+        List<PackageSpec> specs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            specs.add(new PackageSpec(prefix + " sender " + i, "Street " + i, "Recipient " + (i % 50),
+                    "Avenue " + i, 1 + i % 7, "Parcel " + i));
+        }
+        List<String> ids = new ArrayList<>();
+        for (Package pkg : server.createPackages(specs)) {
+            ids.add(pkg.getTrackingNumber());
+        }
+        for (int i = 0; i < count; i += 3) {
+            server.updatePackageStatus(ids.get(i), PackageStatus.PICKED_UP, "Shop " + (i % 10), "Collected");
+        }
+        return ids;
+    }
+
+    private static void awaitCaughtUp(ReplicationFollower follower, WriteAheadLog log) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (follower.getAppliedSequence() < log.getDurableSequence()) {
+            Check.that(follower.getFailure() == null, "follower failed: " + follower.getFailure());
+            Check.that(System.currentTimeMillis() < deadline, "follower stuck at sequence "
+                    + follower.getAppliedSequence() + " of " + log.getDurableSequence());
+            Thread.sleep(20);
+        }
+    }
+
+    private static void refusesWrites(DHLServer replica, String id) {
+        List<Runnable> writes = List.of(
+                () -> replica.createPackage("Sender", "A", "Recipient", "B", 1, "Direct"),
+                () -> replica.createPackages(List.of(new PackageSpec("Sender", "A", "Recipient", "B", 1, "Batch"))),
+                () -> replica.updatePackageStatus(id, PackageStatus.RETURNED_TO_SENDER, "Depot", "Refused"),
+                () -> replica.applyStatusUpdates(List.of(
+                        new StatusUpdate(id, PackageStatus.RETURNED_TO_SENDER, "Depot", "Refused"))));
+        for (Runnable write : writes) {
+            try {
+                write.run();
+                throw new AssertionError("replica accepted a write");
+            } catch (IllegalStateException e) {
+                Check.equal("Read replica; send writes to the leader", e.getMessage(), "refusal");
+            }
+        }
+    }
+
+    private static Map<String, String> state(DHLServer server) {
+        Map<String, String> state = new TreeMap<>();
+        for (Package pkg : server.getAllPackages()) {
+            state.put(pkg.getTrackingNumber(), Check.describe(pkg));
+        }
+        return state;
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The scanner protocol end to end over loopback: per-update failure reasons in the
+// cumulative acks, pipelined updates all applied in order, and a malformed frame
+// closing the connection. ScannerLoadTest measures throughput.
+public class ScannerProtocolCheck {
+    public static void main(String[] args) throws Exception {
+        DHLServer server = new DHLServer(new HeapPackageStore(), new ShardedSequenceAllocator());
+        server.setHttpPort(-1);
+        server.setScannerPort(0);
+        server.start();
+        try {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    server.getScannerPort());
+            String number = server.createPackage("s", "a", "r", "b", 1, "d").getTrackingNumber();
+            long trackingId = TrackingNumbers.parse(number);
+            reportsFailures(server, address, trackingId);
+            appliesPipelinedUpdates(server, address, trackingId);
+            closesOnMalformedFrames(address);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void reportsFailures(DHLServer server, InetSocketAddress address, long trackingId)
+            throws IOException {
+        try (SocketChannel scanner = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(1024);
+            location(out, 1, "Leipzig Hub");
+            update(out, trackingId, PackageStatus.PICKED_UP, 1);
+            update(out, unknownId(trackingId), PackageStatus.IN_TRANSIT, 1);
+            update(out, trackingId, PackageStatus.IN_TRANSIT, 9);
+            update(out, trackingId, (byte) 99, 1);
+            update(out, trackingId, PackageStatus.AT_SORTING_FACILITY, 1);
+            send(scanner, out);
+            Map<Long, Byte> failures = awaitAcks(scanner, 5);
+            Map<Long, Byte> expected = new TreeMap<>(Map.of(
+                    2L, ScannerServer.NOT_FOUND, 3L, ScannerServer.UNKNOWN_LOCATION, 4L, ScannerServer.BAD_STATUS));
+            Check.equal(expected, failures, "failed updates");
+        }
+        Package pkg = server.findPackage(trackingId);
+        Check.equal(PackageStatus.AT_SORTING_FACILITY, pkg.getStatus(), "status after the good updates");
+        Check.equal(3L, pkg.getVersion(), "version after two applied updates");
+        Check.that(pkg.getTrackingHistory().get(2).getDescription().contains("Leipzig Hub"),
+                "location in history: " + pkg.getTrackingHistory().get(2));
+        Check.passed("acks", "failures are reported by update number and reason, the rest applied");
+    }
+
+    private static long unknownId(long trackingId) {
+        return (trackingId + 1) % TrackingNumbers.BODY_SPACE;
+    }
+
+    private static void appliesPipelinedUpdates(DHLServer server, InetSocketAddress address, long trackingId)
+            throws IOException {
+        int updates = 20_000;
+        long before = server.findPackage(trackingId).getVersion();
+        PackageStatus[] cycle = {PackageStatus.IN_TRANSIT, PackageStatus.AT_SORTING_FACILITY};
+        try (SocketChannel scanner = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(updates * ScannerServer.UPDATE_FRAME_BYTES + 64);
+            location(out, 0, "Conveyor 3");
+            for (int i = 0; i < updates; i++) {
+                update(out, trackingId, cycle[i % 2], 0);
+            }
+            // Everything goes out before a single ack is read
+            send(scanner, out);
+            Check.equal(new TreeMap<Long, Byte>(), awaitAcks(scanner, updates), "failures");
+        }
+        Package pkg = server.findPackage(trackingId);
+        Check.equal(before + updates, pkg.getVersion(), "version after pipelined updates");
+        Check.equal(cycle[(updates - 1) % 2], pkg.getStatus(), "the last update sent wins");
+        Check.passed("pipelining", String.format("%,d updates sent without waiting, all acked and applied in order",
+                updates));
+    }
+
+    private static void closesOnMalformedFrames(InetSocketAddress address) throws IOException {
+        try (SocketChannel scanner = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(16);
+            out.putInt(1 << 20).put(ScannerServer.UPDATE);
+            send(scanner, out);
+            Check.equal(-1, scanner.read(ByteBuffer.allocate(64)), "read after a malformed frame");
+        }
+        Check.passed("malformed frames", "an oversized frame closes the connection");
+    }
+
+    private static void location(ByteBuffer out, int id, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.putInt(1 + Integer.BYTES + bytes.length).put(ScannerServer.LOCATION).putInt(id).put(bytes);
+    }
+
+    private static void update(ByteBuffer out, long trackingId, PackageStatus status, int locationId) {
+        update(out, trackingId, (byte) status.ordinal(), locationId);
+    }
+
+    private static void update(ByteBuffer out, long trackingId, byte status, int locationId) {
+        out.putInt(ScannerServer.UPDATE_FRAME_BYTES - Integer.BYTES).put(ScannerServer.UPDATE)
+                .putLong(trackingId).put(status).putInt(locationId);
+    }
+
+    private static void send(SocketChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    // Reads acks until one covers the given update number and collects the failures
+    private static Map<Long, Byte> awaitAcks(SocketChannel channel, long through) throws IOException {
+        Map<Long, Byte> failures = new TreeMap<>();
+        ByteBuffer in = ByteBuffer.allocate(64 << 10);
+        long acked = 0;
+        while (acked < through) {
+            if (channel.read(in) < 0) {
+                throw new IOException("Server closed the connection after ack " + acked);
+            }
+            in.flip();
+            while (in.remaining() >= Integer.BYTES && in.remaining() >= Integer.BYTES + in.getInt(in.position())) {
+                in.getInt();
+                Check.equal(ScannerServer.ACK, in.get(), "frame type");
+                long ackThrough = in.getLong();
+                Check.that(ackThrough > acked, "acks went backwards");
+                acked = ackThrough;
+                int failed = in.getInt();
+                for (int i = 0; i < failed; i++) {
+                    failures.put(in.getLong(), in.get());
+                }
+            }
+            in.compact();
+        }
+        return failures;
+    }
+}
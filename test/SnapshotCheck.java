@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Snapshot plus log tail restores exactly the state the server stopped with, also when
+// the snapshot was taken under concurrent writes and when the newest one is damaged
+public class SnapshotCheck {
+    private static final int PACKAGES = 20_000;
+    // Small segments, so that snapshots get to delete the ones they cover
+    private static final long SEGMENT_BYTES = 256 << 10;
+
+    // Tracking numbers in creation order
+    private static final List<String> ids = new ArrayList<>();
+    private static final Map<String, Long> finalVersions = new TreeMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("ehc-snapshot-check");
+        try {
+            Map<String, String> expected = buildState(directory);
+            List<Path> snapshots = new SnapshotManager(directory.resolve("snapshots")).list();
+            Check.equal(2, snapshots.size(), "retained snapshots");
+            checkSnapshotContents(snapshots.get(1));
+
+            Check.equal(expected, restart(directory, new HeapPackageStore()), "heap store after restart");
+            Check.equal(expected, restart(directory, new ColumnarPackageStore()), "columnar store after restart");
+            Check.passed("snapshot round trip", expected.size() + " packages restored into heap and columnar stores");
+
+            try (FileChannel channel = FileChannel.open(snapshots.get(1), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] {0x55, 0x55, 0x55, 0x55}), channel.size() / 3);
+            }
+            Check.equal(expected, restart(directory, new HeapPackageStore()), "after damaging the newest snapshot");
+            Check.passed("snapshot fallback", "a damaged newest snapshot falls back to the older one and the log");
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> buildState(Path directory) throws Exception {
+        DHLServer server = server(directory, new HeapPackageStore());
+        server.start();
+        List<PackageSpec> specs = new ArrayList<>();
+        for (int i = 0; i < PACKAGES; i++) {
+            specs.add(new PackageSpec("Sender " + i, "Street " + i, "Recipient " + (i % 100), "Avenue " + i,
+                    1 + i % 7, "Parcel " + i));
+        }
+        for (Package pkg : server.createPackages(specs)) {
+            ids.add(pkg.getTrackingNumber());
+        }
+        for (int i = 0; i < PACKAGES; i += 3) {
+            server.updatePackageStatus(ids.get(i), PackageStatus.IN_TRANSIT, "Leipzig", "Sorted");
+        }
+        server.writeSnapshot();
+
+        // The second snapshot is taken while writers keep going
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        Future<?> delivered = writers.submit(() -> {
+            for (int i = 0; i < PACKAGES; i += 2) {
+                server.updatePackageStatus(ids.get(i), PackageStatus.DELIVERED, "Door", "Handed over");
+            }
+        });
+        Future<?> outForDelivery = writers.submit(() -> {
+            for (int i = 1; i < PACKAGES; i += 2) {
+                server.updatePackageStatus(ids.get(i), PackageStatus.OUT_FOR_DELIVERY, "Van", "Loaded");
+            }
+        });
+        server.writeSnapshot();
+        delivered.get();
+        outForDelivery.get();
+        writers.shutdown();
+
+        for (int i = 0; i < 1000; i++) {
+            server.createPackage("Late " + i, "A", "R", "B", 1, "After the snapshots");
+        }
+        for (int i = 0; i < PACKAGES; i += 5) {
+            server.updatePackageStatus(ids.get(i), PackageStatus.RETURNED_TO_SENDER, "Depot", "Refused");
+        }
+        Map<String, String> state = state(server);
+        for (Package pkg : server.getAllPackages()) {
+            finalVersions.put(pkg.getTrackingNumber(), pkg.getVersion());
+        }
+        server.stop();
+        return state;
+    }
+
+    // A snapshot taken under writes may hold some of them and miss others, but it holds
+    // everything from before it started, and nothing newer than the final state
+    private static void checkSnapshotContents(Path snapshot) throws IOException {
+        Map<String, Package> loaded = new ConcurrentHashMap<>();
+        SnapshotManager.LoadResult result = new SnapshotManager(snapshot.getParent())
+                .load(snapshot, pkg -> loaded.put(pkg.getTrackingNumber(), pkg));
+        Check.equal((long) PACKAGES, result.getPackageCount(), "packages in the newest snapshot");
+        Check.equal(PACKAGES, loaded.size(), "distinct packages loaded");
+        for (int i = 0; i < PACKAGES; i++) {
+            Package pkg = loaded.get(ids.get(i));
+            Check.that(pkg != null, "snapshot misses " + ids.get(i));
+            Check.that(pkg.getVersion() <= finalVersions.get(ids.get(i)), "snapshot is ahead of " + ids.get(i));
+            Check.that(i % 3 != 0 || pkg.getVersion() >= 2, "snapshot lost the first update of " + ids.get(i));
+            Check.equal("Sender " + i, pkg.getSenderName(), "sender");
+            Check.equal("Avenue " + i, pkg.getRecipientAddress(), "recipient address");
+        }
+    }
+
+    private static Map<String, String> restart(Path directory, PackageStore store) {
+        DHLServer server = server(directory, store);
+        server.start();
+        try {
+            return state(server);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static DHLServer server(Path directory, PackageStore store) {
+        DHLServer server = new DHLServer(store, new ShardedSequenceAllocator(),
+                new WriteAheadLog(directory.resolve("wal"), WriteAheadLog.Durability.PER_BATCH,
+                        WriteAheadLog.DEFAULT_INTERVAL_MILLIS, SEGMENT_BYTES),
+                new SnapshotManager(directory.resolve("snapshots")));
+        server.setHttpPort(-1);
+        server.setScannerPort(-1);
+        return server;
+    }
+
+    private static Map<String, String> state(DHLServer server) {
+        Map<String, String> state = new TreeMap<>();
+        for (Package pkg : server.getAllPackages()) {
+            state.put(pkg.getTrackingNumber(), Check.describe(pkg));
+        }
+        return state;
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// ConcurrentSortedLongSet against a TreeSet for random adds, removes and bounded
+// walks in both directions, for single keys and pairs; then walks racing with writers
+// that move keys around, which must stay strictly ordered and never miss a key that
+// was present throughout.
+public class SortedLongSetCheck {
+    private static final int STABLE = 8;
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(7);
+        againstTreeSet(new ConcurrentSortedLongSet(), 1, random);
+        againstTreeSet(ConcurrentSortedLongSet.ofPairs(), 2, random);
+        Check.passed("model", "random adds, removes and walks match a TreeSet for single keys and pairs");
+        racingWalks();
+    }
+
+    private static void againstTreeSet(ConcurrentSortedLongSet set, int width, Random random) {
+        TreeSet<List<Long>> model = new TreeSet<>((a, b) -> {
+            int byFirst = Long.compare(a.get(0), b.get(0));
+            return byFirst != 0 ? byFirst : Long.compare(a.get(1), b.get(1));
+        });
+        for (int round = 0; round < 200_000; round++) {
+            List<Long> key = List.of((long) random.nextInt(5000) - 2500, width == 2 ? (long) random.nextInt(4) : 0L);
+            // Adds win early on and removes later, so leaves both split and merge
+            if (random.nextInt(200_000) > round) {
+                Check.equal(model.add(key), set.add(key.get(0), key.get(1)), "add " + key);
+            } else {
+                Check.equal(model.remove(key), set.remove(key.get(0), key.get(1)), "remove " + key);
+            }
+            Check.equal((long) model.size(), set.size(), "size after " + round);
+            if (round % 1000 == 0) {
+                compareWalks(set, model, width, random);
+            }
+        }
+    }
+
+    private static void compareWalks(ConcurrentSortedLongSet set, TreeSet<List<Long>> model, int width,
+                                     Random random) {
+        Check.equal(new ArrayList<>(model), keys(set.walk(false), width), "ascending walk");
+        Check.equal(new ArrayList<>(model.descendingSet()), keys(set.walk(true), width), "descending walk");
+        for (int i = 0; i < 20; i++) {
+            long[] start = bound(random, width);
+            long[] end = random.nextBoolean() ? null : bound(random, width);
+            boolean inclusive = random.nextBoolean();
+            boolean descending = random.nextBoolean();
+            NavigableSet<List<Long>> view = descending ? model.descendingSet() : model;
+            view = view.tailSet(List.of(start[0], width == 2 ? start[1] : 0L), inclusive);
+            List<List<Long>> expected = new ArrayList<>();
+            for (List<Long> key : view) {
+                if (end != null && (descending ? compare(key, end) <= 0 : compare(key, end) >= 0)) {
+                    break;
+                }
+                expected.add(key);
+            }
+            Check.equal(expected, keys(set.walk(descending, start, inclusive, end), width),
+                    "walk from " + start[0] + (descending ? " down" : " up"));
+        }
+    }
+
+    private static long[] bound(Random random, int width) {
+        long first = random.nextInt(5200) - 2600;
+        return width == 2 ? new long[] {first, random.nextInt(5) - 1} : new long[] {first};
+    }
+
+    private static int compare(List<Long> key, long[] bound) {
+        int byFirst = Long.compare(key.get(0), bound[0]);
+        return byFirst != 0 || bound.length == 1 ? byFirst : Long.compare(key.get(1), bound[1]);
+    }
+
+    private static List<List<Long>> keys(ConcurrentSortedLongSet.Walk walk, int width) {
+        List<List<Long>> keys = new ArrayList<>();
+        while (walk.next()) {
+            keys.add(List.of(walk.first(), width == 2 ? walk.second() : 0L));
+        }
+        return keys;
+    }
+
+    // Every writer owns the ids congruent to its number and keeps moving them to new
+    // timestamps, adding before removing as TimeIndex does; every STABLE-th id is never
+    // moved, so every walk has to yield all of those
+    private static void racingWalks() throws Exception {
+        int writers = 4;
+        int ids = 20_000;
+        int stable = ids / STABLE;
+        ConcurrentSortedLongSet set = ConcurrentSortedLongSet.ofPairs();
+        long[] millis = new long[ids];
+        for (int id = 0; id < ids; id++) {
+            millis[id] = id * 3L;
+            set.add(millis[id], id);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(writers);
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(writer);
+                long clock = ids * 3L;
+                while (running.get()) {
+                    int id = writer + writers * random.nextInt(ids / writers);
+                    if (id % STABLE == 0) {
+                        continue;
+                    }
+                    // Back into the populated range half the time, so leaves split and merge everywhere
+                    long next = random.nextBoolean() ? ++clock : random.nextInt(ids * 3);
+                    if (next == millis[id]) {
+                        continue;
+                    }
+                    set.add(next, id);
+                    set.remove(millis[id], id);
+                    millis[id] = next;
+                }
+                done.countDown();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        int walks = 0;
+        long deadline = System.nanoTime() + 3_000_000_000L;
+        try {
+            while (System.nanoTime() < deadline) {
+                boolean descending = walks % 2 == 1;
+                ConcurrentSortedLongSet.Walk walk = set.walk(descending);
+                long lastFirst = descending ? Long.MAX_VALUE : Long.MIN_VALUE;
+                long lastSecond = descending ? Long.MAX_VALUE : Long.MIN_VALUE;
+                int stableSeen = 0;
+                while (walk.next()) {
+                    int byFirst = Long.compare(walk.first(), lastFirst);
+                    int order = byFirst != 0 ? byFirst : Long.compare(walk.second(), lastSecond);
+                    Check.that(descending ? order < 0 : order > 0, "walk out of order at " + walk.first());
+                    lastFirst = walk.first();
+                    lastSecond = walk.second();
+                    if (walk.second() % STABLE == 0) {
+                        stableSeen++;
+                    }
+                }
+                Check.equal(stable, stableSeen, "untouched keys seen by walk " + walks);
+                walks++;
+            }
+        } finally {
+            running.set(false);
+        }
+        done.await();
+        List<Long> expected = new ArrayList<>();
+        for (int id = 0; id < ids; id++) {
+            expected.add(millis[id] * ids + id);
+        }
+        expected.sort(null);
+        List<Long> actual = new ArrayList<>();
+        for (ConcurrentSortedLongSet.Walk walk = set.walk(false); walk.next(); ) {
+            actual.add(walk.first() * ids + walk.second());
+        }
+        Check.equal(expected, actual, "keys after the writers stopped");
+        Check.passed("racing", walks + " walks stayed ordered and complete while " + writers + " writers moved keys");
+    }
+}
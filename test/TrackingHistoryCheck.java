@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// TrackingHistory round trips: status and text events, long and non-Latin strings,
+// and histories encoded against a location dictionary that has since filled up and
+// been retired, which must still decode and move to the new one when they grow.
+public class TrackingHistoryCheck {
+    public static void main(String[] args) {
+        roundTrip();
+        retiredDictionary();
+    }
+
+    private static void roundTrip() {
+        List<String> expected = new ArrayList<>();
+        TrackingHistory history = TrackingHistory.created(1_000);
+        expected.add(event(1_000, TrackingHistory.CREATED_EVENT, TrackingHistory.CREATED_DESCRIPTION));
+        history = history.withStatusEvent(500, PackageStatus.IN_TRANSIT, "Leipzig Hub",
+                PackageStatus.IN_TRANSIT.getDescription());
+        expected.add(event(500, PackageStatus.IN_TRANSIT.toString(),
+                "Leipzig Hub - " + PackageStatus.IN_TRANSIT.getDescription()));
+        String longLocation = "Halle ".repeat(40);
+        history = history.withStatusEvent(9_000_000_000L, PackageStatus.DELIVERED, longLocation, "Zugestellt, ö");
+        expected.add(event(9_000_000_000L, PackageStatus.DELIVERED.toString(), longLocation + " - Zugestellt, ö"));
+        history = history.withEvent(9_000_000_001L, "Customs", "Held - awaiting papers");
+        expected.add(event(9_000_000_001L, "Customs", "Held - awaiting papers"));
+        Check.equal(expected, texts(history), "decoded events");
+        Check.equal(expected, texts(TrackingHistory.of(new ArrayList<>(history))), "re-encoded events");
+        Check.passed("round trip", "status, text, long and non-Latin events decode as written");
+    }
+
+    private static void retiredDictionary() {
+        TrackingHistory early = TrackingHistory.created(0)
+                .withStatusEvent(1, PackageStatus.PICKED_UP, "Depot 1", "Collected");
+        List<String> before = texts(early);
+        // Fills the dictionary early was encoded against and spills into the next one
+        List<TrackingHistory> histories = new ArrayList<>();
+        for (int i = 0; i < TrackingHistory.LOCATION_CAPACITY + 1000; i++) {
+            histories.add(TrackingHistory.EMPTY.withStatusEvent(i, PackageStatus.IN_TRANSIT, "Hub " + i, "Scanned"));
+        }
+        for (int i = 0; i < histories.size(); i += 997) {
+            Check.equal("Hub " + i + " - Scanned", histories.get(i).get(0).getDescription(), "history " + i);
+        }
+        Check.equal(before, texts(early), "history on the retired dictionary");
+        TrackingHistory grown = early.withStatusEvent(2, PackageStatus.IN_TRANSIT, "Depot 1", "Sorted");
+        List<String> after = new ArrayList<>(before);
+        after.add(event(2, PackageStatus.IN_TRANSIT.toString(), "Depot 1 - Sorted"));
+        Check.equal(after, texts(grown), "history grown after the dictionary was retired");
+        Check.passed("retired dictionary", histories.size() + " distinct locations; histories on the retired"
+                + " dictionary still decode and move to the new one as they grow");
+    }
+
+    private static String event(long millis, String event, String description) {
+        return millis + " " + event + " " + description;
+    }
+
+    private static List<String> texts(List<TrackingEvent> events) {
+        List<String> texts = new ArrayList<>();
+        for (TrackingEvent event : events) {
+            texts.add(event(EpochMillis.of(event.getTimestamp()), event.getEvent(), event.getDescription()));
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tracking number format, Luhn check digit, the Feistel scrambling and the sharded
+// allocator built on them
+public class TrackingNumbersCheck {
+    public static void main(String[] args) throws Exception {
+        formatRoundTrip();
+        checkDigitCatchesTypos();
+        feistelIsABijection();
+        allocatorNeverRepeats();
+        observeSkipsRecoveredIds();
+    }
+
+    private static void formatRoundTrip() {
+        Random random = new Random(3);
+        long[] edges = {0, 1, 9, 10, TrackingNumbers.BODY_SPACE - 1};
+        for (long body : edges) {
+            roundTrip(body);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            roundTrip((long) (random.nextDouble() * TrackingNumbers.BODY_SPACE));
+        }
+        Check.equal(-1L, TrackingNumbers.parse(null), "null");
+        Check.equal(-1L, TrackingNumbers.parse("EHC12345678"), "too short");
+        Check.equal(-1L, TrackingNumbers.parse("XYZ0000000000"), "wrong prefix");
+        Check.equal(-1L, TrackingNumbers.parse("EHC00000000a0"), "letter in body");
+        Check.passed("format round trip", "edges and 100,000 random bodies");
+    }
+
+    private static void roundTrip(long body) {
+        String formatted = TrackingNumbers.format(body);
+        Check.equal(TrackingNumbers.LENGTH, formatted.length(), "length of " + formatted);
+        Check.equal(body, TrackingNumbers.parse(formatted), "parse(format(" + body + "))");
+    }
+
+    // Luhn catches every single-digit error and every adjacent transposition except 09/90
+    private static void checkDigitCatchesTypos() {
+        Random random = new Random(7);
+        int start = TrackingNumbers.PREFIX.length();
+        int transpositions = 0;
+        for (int i = 0; i < 20_000; i++) {
+            char[] chars = TrackingNumbers.format((long) (random.nextDouble() * TrackingNumbers.BODY_SPACE))
+                    .toCharArray();
+            for (int position = start; position < chars.length; position++) {
+                char original = chars[position];
+                for (char digit = '0'; digit <= '9'; digit++) {
+                    if (digit != original) {
+                        chars[position] = digit;
+                        Check.equal(-1L, TrackingNumbers.parse(new String(chars)), "typo accepted");
+                    }
+                }
+                chars[position] = original;
+            }
+            for (int position = start; position + 1 < chars.length; position++) {
+                char a = chars[position];
+                char b = chars[position + 1];
+                if (a == b || (a == '0' && b == '9') || (a == '9' && b == '0')) {
+                    continue;
+                }
+                chars[position] = b;
+                chars[position + 1] = a;
+                Check.equal(-1L, TrackingNumbers.parse(new String(chars)), "transposition accepted");
+                chars[position] = a;
+                chars[position + 1] = b;
+                transpositions++;
+            }
+        }
+        Check.passed("check digit", "all single-digit typos and " + transpositions
+                + " adjacent transpositions rejected");
+    }
+
+    private static void feistelIsABijection() {
+        int domain = 1_000_003;
+        FeistelPermutation small = new FeistelPermutation(domain, 42);
+        boolean[] hit = new boolean[domain];
+        for (int value = 0; value < domain; value++) {
+            long scrambled = small.apply(value);
+            Check.that(scrambled >= 0 && scrambled < domain, "out of domain: " + scrambled);
+            Check.that(!hit[(int) scrambled], "collision at " + scrambled);
+            hit[(int) scrambled] = true;
+            Check.equal((long) value, small.invert(scrambled), "invert(apply(" + value + "))");
+        }
+        FeistelPermutation full = new FeistelPermutation(TrackingNumbers.BODY_SPACE,
+                ShardedSequenceAllocator.DEFAULT_SCRAMBLE_KEY);
+        Random random = new Random(11);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (long) (random.nextDouble() * TrackingNumbers.BODY_SPACE);
+            long scrambled = full.apply(value);
+            Check.that(scrambled >= 0 && scrambled < TrackingNumbers.BODY_SPACE, "out of body space");
+            Check.equal(value, full.invert(scrambled), "invert(apply(" + value + "))");
+        }
+        Check.passed("feistel", "bijection over " + domain + " values, 100,000 round trips over the body space");
+    }
+
+    private static void allocatorNeverRepeats() throws InterruptedException {
+        ShardedSequenceAllocator allocator = new ShardedSequenceAllocator(0, 1, 64,
+                ShardedSequenceAllocator.DEFAULT_SCRAMBLE_KEY);
+        Set<Long> issued = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    long id = allocator.allocate();
+                    Check.that(id >= 0 && id < TrackingNumbers.BODY_SPACE, "out of body space: " + id);
+                    Check.that(issued.add(id), "reissued " + id);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Check.equal(threads.length * 50_000, issued.size(), "ids issued");
+
+        // Nodes of one cluster never overlap
+        Set<Long> cluster = new HashSet<>();
+        for (int node = 0; node < 4; node++) {
+            ShardedSequenceAllocator member = new ShardedSequenceAllocator(node, 4, 16,
+                    ShardedSequenceAllocator.DEFAULT_SCRAMBLE_KEY);
+            for (int i = 0; i < 10_000; i++) {
+                Check.that(cluster.add(member.allocate()), "nodes overlap");
+            }
+        }
+        Check.passed("allocator", "400,000 ids from 8 threads and 40,000 from 4 nodes, no repeats");
+    }
+
+    private static void observeSkipsRecoveredIds() {
+        ShardedSequenceAllocator before = new ShardedSequenceAllocator();
+        Set<Long> recovered = new HashSet<>();
+        for (int i = 0; i < 5_000; i++) {
+            recovered.add(before.allocate());
+        }
+        ShardedSequenceAllocator after = new ShardedSequenceAllocator();
+        recovered.forEach(after::observe);
+        for (int i = 0; i < 5_000; i++) {
+            Check.that(!recovered.contains(after.allocate()), "restart reissued a recovered id");
+        }
+        Check.passed("observe", "no recovered id reissued after restart");
+    }
+}
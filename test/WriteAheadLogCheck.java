@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Replay after clean shutdown, torn and corrupt tails, corruption in an older segment,
+// and a write failure that must stay sticky
+public class WriteAheadLogCheck {
+    private static final long NOW = 1_700_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("ehc-wal-check");
+        try {
+            replaysInOrder(root.resolve("clean"));
+            truncatesTornTail(root.resolve("torn"));
+            truncatesCorruptTail(root.resolve("corrupt-tail"));
+            rejectsCorruptOlderSegment(root.resolve("corrupt-segment"));
+            replaysOnlyAfterSequence(root.resolve("after"));
+            failureIsSticky(root.resolve("failing"));
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static void replaysInOrder(Path directory) throws IOException {
+        for (WriteAheadLog.Durability durability : WriteAheadLog.Durability.values()) {
+            Path logDirectory = directory.resolve(durability.name());
+            WriteAheadLog log = new WriteAheadLog(logDirectory, durability, 20, 4096);
+            log.open(mutation -> { });
+            append(log, 1, 500);
+            log.close();
+            List<PackageMutation> replayed = replay(logDirectory, 4096);
+            Check.equal(500, replayed.size(), durability + " replayed");
+            for (int i = 0; i < replayed.size(); i++) {
+                Check.equal((long) i + 1, replayed.get(i).getSequence(), durability + " sequence");
+                Check.equal((long) i + 1, replayed.get(i).getTrackingId(), durability + " tracking id");
+            }
+        }
+        Check.passed("clean replay", "500 mutations in order under every durability, across segments");
+    }
+
+    private static void truncatesTornTail(Path directory) throws IOException {
+        WriteAheadLog log = open(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES);
+        append(log, 1, 100);
+        log.close();
+        Path segment = newestSegment(directory);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // Cut the last frame in half, as a crash in the middle of a write would
+            channel.truncate(size - 7);
+        }
+        checkRecovers(directory, 99, "torn tail");
+        Check.passed("torn tail", "the partial frame is cut off and appends continue after it");
+    }
+
+    private static void truncatesCorruptTail(Path directory) throws IOException {
+        WriteAheadLog log = open(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES);
+        append(log, 1, 100);
+        log.close();
+        Path segment = newestSegment(directory);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), size - 3);
+        }
+        checkRecovers(directory, 99, "corrupt tail");
+        Check.passed("corrupt tail", "a frame failing its checksum is cut off like a torn one");
+    }
+
+    // After recovery the log must accept appends and replay them after what survived
+    private static void checkRecovers(Path directory, int survivors, String what) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.PER_BATCH);
+        long replayed = log.open(mutation -> { });
+        Check.equal((long) survivors, replayed, what + " survivors");
+        append(log, 1000, 10);
+        log.close();
+        List<PackageMutation> all = replay(directory, WriteAheadLog.DEFAULT_SEGMENT_BYTES);
+        Check.equal(survivors + 10, all.size(), what + " after new appends");
+        Check.equal(1000L + 9, all.get(all.size() - 1).getTrackingId(), what + " last mutation");
+        for (int i = 0; i < all.size(); i++) {
+            Check.equal((long) i + 1, all.get(i).getSequence(), what + " sequences stay dense");
+        }
+    }
+
+    private static void rejectsCorruptOlderSegment(Path directory) throws IOException {
+        WriteAheadLog log = open(directory, 4096);
+        append(log, 1, 500);
+        log.close();
+        List<Path> segments = segments(directory);
+        Check.that(segments.size() > 2, "expected several segments, got " + segments.size());
+        try (FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), channel.size() / 2);
+        }
+        WriteAheadLog reopened = new WriteAheadLog(directory, WriteAheadLog.Durability.PER_BATCH, 200, 4096);
+        try {
+            reopened.open(mutation -> { });
+            Check.that(false, "opened a log with a corrupt older segment");
+        } catch (IOException e) {
+            Check.that(e.getMessage().startsWith("Corrupt write-ahead log segment"), e.getMessage());
+        }
+        Check.that(!reopened.isOpen(), "log open after failed replay");
+        Check.passed("corrupt segment", "damage before the newest segment fails open instead of being truncated");
+    }
+
+    private static void replaysOnlyAfterSequence(Path directory) throws IOException {
+        WriteAheadLog log = open(directory, 4096);
+        append(log, 1, 500);
+        log.close();
+        List<PackageMutation> tail = new ArrayList<>();
+        WriteAheadLog reopened = new WriteAheadLog(directory, WriteAheadLog.Durability.PER_BATCH, 200, 4096);
+        reopened.open(400, tail::add);
+        reopened.close();
+        Check.equal(100, tail.size(), "tail after sequence 400");
+        Check.equal(401L, tail.get(0).getSequence(), "first tail sequence");
+        Check.passed("tail replay", "only mutations after the snapshot sequence are replayed");
+    }
+
+    // Every flush rolls to a new segment, so removing the directory makes the next one fail
+    private static void failureIsSticky(Path directory) throws IOException {
+        WriteAheadLog log = open(directory, 1);
+        append(log, 1, 5);
+        long durable = log.getDurableSequence();
+        delete(directory);
+        long lost = log.appendDeferred(status(6));
+        try {
+            log.awaitDurability(lost);
+            Check.that(false, "a failed flush was reported durable");
+        } catch (IOException expected) {
+            // The first failure surfaces as itself
+        }
+        Check.that(!log.isOpen(), "log still open after a failed write");
+        Check.equal(durable, log.getDurableSequence(), "durable sequence after the failure");
+        try {
+            log.awaitDurability(lost);
+            Check.that(false, "a lost mutation became durable on a second wait");
+        } catch (IOException expected) {
+            Check.that(expected.getMessage().contains("failed earlier"), expected.getMessage());
+        }
+        try {
+            log.appendDeferred(status(7));
+            Check.that(false, "append accepted after a failure");
+        } catch (IOException expected) {
+            // Nothing more may go after a possibly torn frame
+        }
+        log.awaitDurability(durable);
+        log.close();
+        Check.passed("sticky failure", "lost mutations fail their waiters, durable ones still succeed, "
+                + "and no further appends are taken");
+    }
+
+    private static WriteAheadLog open(Path directory, long segmentBytes) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.PER_BATCH, 200, segmentBytes);
+        log.open(mutation -> { });
+        return log;
+    }
+
+    private static void append(WriteAheadLog log, long firstId, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            log.append(status(firstId + i));
+        }
+    }
+
+    private static PackageMutation status(long trackingId) {
+        return PackageMutation.statusUpdate(trackingId, NOW, PackageStatus.IN_TRANSIT, "Hub", "Scanned");
+    }
+
+    private static List<PackageMutation> replay(Path directory, long segmentBytes) throws IOException {
+        List<PackageMutation> replayed = new ArrayList<>();
+        WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.PER_BATCH, 200, segmentBytes);
+        log.open(replayed::add);
+        log.close();
+        return replayed;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static Path newestSegment(Path directory) throws IOException {
+        List<Path> segments = segments(directory);
+        return segments.get(segments.size() - 1);
+    }
+
+    private static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
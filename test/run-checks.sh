@@ -0,0 +1,14 @@
+#!/usr/bin/env bash
+# Compiles src and test into a scratch directory and runs every *Check class.
+# Stops at the first check that fails. Uses $JAVA_HOME if set; the sources need
+# Java 21.
+set -euo pipefail
+bin=${JAVA_HOME:+$JAVA_HOME/bin/}
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+"${bin}javac" -d "$out" src/*.java test/*.java
+for check in test/?*Check.java; do
+    name=$(basename "$check" .java)
+    "${bin}java" -cp "$out" "$name"
+done